@@ -11,6 +11,8 @@
  *******************************************************************************/
 package org.eclipse.kapua.gateway.client;
 
+import java.time.Duration;
+
 /**
  * An application is a sub-unit of a client, focused on handling data
  * <p>
@@ -22,17 +24,61 @@ public interface Application extends AutoCloseable {
 
     public interface Builder {
 
+        /**
+         * Enable coalescing of outgoing payloads
+         * <p>
+         * If a linger time is set, payloads sent to the same topic will be collected
+         * until either the linger time expired, or the number of collected metrics
+         * reached {@link #maxBatchMetrics()}. They will then be sent as a single
+         * message, as if {@link Sender#sendBatch(java.util.Collection)} was called.
+         * </p>
+         * 
+         * @param linger
+         *            the time to wait for more payloads, {@code null} or zero
+         *            to disable coalescing, which is the default
+         * @return the builder itself
+         */
+        public Builder linger(Duration linger);
+
+        public Duration linger();
+
+        /**
+         * Set the number of metrics which will trigger sending a coalesced batch
+         * 
+         * @param maxBatchMetrics
+         *            the number of metrics, must be positive
+         * @return the builder itself
+         * @see #linger(Duration)
+         */
+        public Builder maxBatchMetrics(int maxBatchMetrics);
+
+        public int maxBatchMetrics();
+
         public Application build();
     }
 
     /**
      * Lookup a data controller to an application topic
+     * <p>
+     * This is the same as calling {@code buildData(topic).build()}, using the default options.
+     * </p>
      * 
      * @param topic
      *            the topic the controller is bound to, must never be {@code null}
      * @return the data controller
      */
-    public Data data(Topic topic);
+    public default Data data(final Topic topic) {
+        return buildData(topic).build();
+    }
+
+    /**
+     * Create a builder for a data controller to an application topic
+     * 
+     * @param topic
+     *            the topic the controller is bound to, must never be {@code null}
+     * @return the builder for the data controller, never {@code null}
+     */
+    public Data.Builder buildData(Topic topic);
 
     /**
      * Lookup a transport controller
@@ -47,4 +93,17 @@ public interface Application extends AutoCloseable {
      * @return the transport controller
      */
     public Transport transport();
+
+    /**
+     * Send all payloads which are pending due to coalescing
+     * <p>
+     * If coalescing is not enabled, this method has no effect.
+     * </p>
+     * 
+     * @throws Exception
+     *             if sending failed
+     * @see Builder#linger(Duration)
+     */
+    public default void flush() throws Exception {
+    }
 }
@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A batch of payloads, sent together using {@link Sender#sendBatch(java.util.Collection)}
+ * <p>
+ * A batch is created using {@link Sender#batch()}. Payloads get collected by calling
+ * {@link #add(Payload)} and are sent when {@link #send()} is called. After that the batch
+ * is empty and may be used again.
+ * </p>
+ * <p>
+ * <b>Note:</b> Instances of this class are not thread safe.
+ * </p>
+ *
+ * @param <X>
+ *            base class of sender errors
+ */
+public class Batch<X extends Throwable> {
+
+    private final Sender<X> sender;
+    private final List<Payload> payloads = new ArrayList<>();
+
+    public Batch(final Sender<X> sender) {
+        Objects.requireNonNull(sender);
+
+        this.sender = sender;
+    }
+
+    public Batch<X> add(final Payload payload) {
+        Objects.requireNonNull(payload);
+
+        this.payloads.add(payload);
+        return this;
+    }
+
+    public Batch<X> add(final Payload.Builder payload) {
+        Objects.requireNonNull(payload);
+
+        return add(payload.build());
+    }
+
+    public int size() {
+        return this.payloads.size();
+    }
+
+    public boolean isEmpty() {
+        return this.payloads.isEmpty();
+    }
+
+    /**
+     * Send all collected payloads
+     * <p>
+     * The batch is empty afterwards, even if sending failed.
+     * If the batch is empty, nothing will be sent.
+     * </p>
+     *
+     * @throws X
+     *             if sending failed
+     */
+    public void send() throws X {
+        if (this.payloads.isEmpty()) {
+            return;
+        }
+
+        try {
+            this.sender.sendBatch(Collections.unmodifiableList(new ArrayList<>(this.payloads)));
+        } finally {
+            this.payloads.clear();
+        }
+    }
+}
@@ -37,11 +37,50 @@ public interface BinaryPayloadCodec {
      */
     public ByteBuffer encode(Payload payload, ByteBuffer buffer) throws Exception;
 
+    /**
+     * Encode the current state of a {@link Payload.Builder} into a BLOB
+     * <p>
+     * This behaves the same way as {@link #encode(Payload, ByteBuffer)}. Codecs may override
+     * this method in order to encode the content of the builder without building a
+     * {@link Payload} first. The builder is not modified.
+     * </p>
+     * 
+     * @param payload The payload builder to encode, must not be {@code null}
+     * @param buffer An optional buffer to append the output to, may be {@code null}
+     * @return A buffer with the appended payload output, must never be {@code null}
+     * @throws Exception if anything goes wrong
+     */
+    public default ByteBuffer encodeBuilder(final Payload.Builder payload, final ByteBuffer buffer) throws Exception {
+        return encode(payload.build(), buffer);
+    }
+
     /**
      * Decode a {@link Payload} structure from the provided BLOB
+     * <p>
+     * <b>Note:</b> Codecs may decode values only when they are accessed. However the
+     * returned payload must not reference the content of the provided buffer, as the
+     * caller may re-use the buffer once this method returned.
+     * </p>
+     * 
      * @param buffer The buffer to read from, must not be {@code null}
      * @return the decoded payload structure, may be {@code null}
      * @throws Exception if anything goes wrong
      */
     public Payload decode(ByteBuffer buffer) throws Exception;
+
+    /**
+     * Decode a {@link Payload} structure from a BLOB owned by the caller
+     * <p>
+     * In contrast to {@link #decode(ByteBuffer)}, the caller guarantees that the content
+     * of the buffer will not change afterwards. So the returned payload may reference the
+     * content, instead of copying it. The default implementation calls {@link #decode(ByteBuffer)}.
+     * </p>
+     * 
+     * @param buffer The buffer to read from, must not be {@code null}
+     * @return the decoded payload structure, may be {@code null}
+     * @throws Exception if anything goes wrong
+     */
+    public default Payload decodeOwned(final ByteBuffer buffer) throws Exception {
+        return decode(buffer);
+    }
 }
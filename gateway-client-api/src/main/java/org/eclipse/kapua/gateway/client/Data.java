@@ -11,6 +11,9 @@
  *******************************************************************************/
 package org.eclipse.kapua.gateway.client;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
 /**
  * An interface for control data
  * <p>
@@ -20,11 +23,159 @@ package org.eclipse.kapua.gateway.client;
  */
 public interface Data extends Sender<Exception> {
 
+    /**
+     * A builder for {@link Data} instances
+     * <p>
+     * A builder is acquired by calling {@link Application#buildData(Topic)}.
+     * </p>
+     */
+    public interface Builder {
+
+        /**
+         * Set the quality of service for sending and subscribing
+         * 
+         * @param qos
+         *            the quality of service, must not be {@code null}, defaults to {@link QoS#AT_LEAST_ONCE}
+         * @return the builder itself
+         */
+        public Builder qos(QoS qos);
+
+        public QoS qos();
+
+        /**
+         * Set if sent messages should be retained by the broker
+         * 
+         * @param retain
+         *            {@code true} to retain messages, defaults to {@code false}
+         * @return the builder itself
+         */
+        public Builder retain(boolean retain);
+
+        public boolean retain();
+
+        /**
+         * Set the priority of sent messages
+         * <p>
+         * The priority only has an effect if the transport limits the outbound rate.
+         * </p>
+         * 
+         * @param priority
+         *            the priority, must not be {@code null}, defaults to {@link Priority#NORMAL}
+         * @return the builder itself
+         */
+        public Builder priority(Priority priority);
+
+        public Priority priority();
+
+        /**
+         * Set the capacity of the queue for received messages
+         * <p>
+         * If enabled, received messages are queued until the handler is ready to
+         * process them. The overflow policy decides what happens when the queue is full.
+         * This limits the memory used by a burst of messages, e.g. retained messages
+         * after a reconnect.
+         * </p>
+         * 
+         * @param queueCapacity
+         *            the maximum number of queued messages, zero to call the handler
+         *            directly, which is the default
+         * @return the builder itself
+         */
+        public Builder queueCapacity(int queueCapacity);
+
+        public int queueCapacity();
+
+        /**
+         * Set what happens to received messages when the queue is full
+         * 
+         * @param overflowPolicy
+         *            the policy, must not be {@code null}, defaults to {@link OverflowPolicy#BLOCK}
+         * @return the builder itself
+         * @see #queueCapacity(int)
+         */
+        public Builder overflowPolicy(OverflowPolicy overflowPolicy);
+
+        public OverflowPolicy overflowPolicy();
+
+        public Data build();
+    }
+
+    /**
+     * Send a payload asynchronously
+     * <p>
+     * In contrast to {@link #send(Payload)}, which returns as soon as the message was
+     * handed over to the transport, the returned stage completes when the delivery of the message
+     * was acknowledged by the transport. For MQTT with QoS 1 this is when the {@code PUBACK}
+     * was received. If the message could not be sent, the stage completes exceptionally.
+     * </p>
+     * <p>
+     * <b>Note:</b> The stage may be completed by an internal thread of the transport, dependent
+     * actions should not block.
+     * </p>
+     * 
+     * @param payload
+     *            the payload to send, must not be {@code null}
+     * @return the stage, completing once the message was delivered, never {@code null}
+     */
+    public default CompletionStage<Void> sendAsync(final Payload payload) {
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+        try {
+            send(payload);
+            result.complete(null);
+        } catch (final Exception e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Acquire a payload builder for sending data
+     * <p>
+     * The builder may be taken from a pool of builders and will not contain any values.
+     * Once the builder is no longer needed, it should be handed back using
+     * {@link #releasePayload(Payload.Builder)}. This allows a publisher to send data
+     * without allocating new builders for each message:
+     * </p>
+     * 
+     * <pre>
+     * final Payload.Builder payload = data.acquirePayload();
+     * try {
+     *     payload.putDouble("temperature", 21.5);
+     *     data.send(payload);
+     * } finally {
+     *     data.releasePayload(payload);
+     * }
+     * </pre>
+     * 
+     * @return a builder, never {@code null}
+     */
+    public default Payload.Builder acquirePayload() {
+        return new Payload.Builder();
+    }
+
+    /**
+     * Release a payload builder
+     * <p>
+     * After the builder was released, it must not be used anymore. Payloads which were
+     * built using the builder are not affected.
+     * </p>
+     * 
+     * @param payload
+     *            the builder to release, may be {@code null}
+     */
+    public default void releasePayload(final Payload.Builder payload) {
+    }
+
     /**
      * Receive messages on this data topic
      * <p>
      * Subscriptions will automatically be re-established after a connection loss.
      * </p>
+     * <p>
+     * If the data controller is bound to a topic filter, created by {@link Topic#filter(String, String...)},
+     * the handler receives the messages of all matching topics. Use a {@link TopicMessageHandler}
+     * to learn the topic of each message.
+     * </p>
      * 
      * @param handler
      *            the handler which should process received messages
@@ -50,4 +201,37 @@ public interface Data extends Sender<Exception> {
      *             if anything goes wrong on the subscription process
      */
     public void subscribe(MessageHandler handler, ErrorHandler<? extends Throwable> errorHandler) throws Exception;
+
+    /**
+     * Receive messages on this data topic, together with their topic
+     * <p>
+     * This is useful for topic filters, as the handler learns which of the matching
+     * topics a message was received on.
+     * </p>
+     *
+     * @param handler
+     *            the handler which should process received messages
+     * @throws Exception
+     *             if anything goes wrong on the subscription process
+     * @see #subscribe(MessageHandler)
+     */
+    public default void subscribe(final TopicMessageHandler handler) throws Exception {
+        subscribe(handler, Errors::ignore);
+    }
+
+    /**
+     * Receive messages, together with their topic, and handle reception errors
+     *
+     * @param handler
+     *            the handler which should process received messages
+     * @param errorHandler
+     *            the handler which should process received messages which got received
+     *            but could not be properly parsed
+     * @throws Exception
+     *             if anything goes wrong on the subscription process
+     * @see #subscribe(MessageHandler, ErrorHandler)
+     */
+    public default void subscribe(final TopicMessageHandler handler, final ErrorHandler<? extends Throwable> errorHandler) throws Exception {
+        subscribe((MessageHandler) handler, errorHandler);
+    }
 }
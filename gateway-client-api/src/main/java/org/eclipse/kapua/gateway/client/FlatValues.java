@@ -0,0 +1,302 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Flat storage for payload values
+ * <p>
+ * Primitive values are stored unboxed, in parallel arrays, in the order of insertion.
+ * The map interface is a view on top of this storage, boxing primitive values
+ * when they are accessed. The map itself cannot be modified using the map interface.
+ * </p>
+ */
+final class FlatValues extends AbstractMap<String, Object> {
+
+    static final byte OBJECT = 0;
+    static final byte INT = 1;
+    static final byte LONG = 2;
+    static final byte FLOAT = 3;
+    static final byte DOUBLE = 4;
+    static final byte BOOLEAN = 5;
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private int count;
+
+    private String[] keys;
+    private byte[] types;
+    private long[] bits;
+    private Object[] objects;
+
+    /**
+     * Open addressing hash table, holding the index of the entry plus one
+     */
+    private int[] table;
+
+    private Set<Map.Entry<String, Object>> entrySet;
+
+    FlatValues() {
+        this(INITIAL_CAPACITY);
+    }
+
+    FlatValues(final int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("Expected size must not be negative");
+        }
+
+        final int capacity = Math.max(expectedSize, 1);
+
+        this.keys = new String[capacity];
+        this.types = new byte[capacity];
+        this.bits = new long[capacity];
+        this.objects = new Object[capacity];
+        this.table = new int[tableSize(capacity)];
+    }
+
+    FlatValues(final FlatValues other) {
+        this.count = other.count;
+        this.keys = other.keys.clone();
+        this.types = other.types.clone();
+        this.bits = other.bits.clone();
+        this.objects = other.objects.clone();
+        this.table = other.table.clone();
+    }
+
+    /**
+     * Get the hash table size for a capacity, keeping the load factor at or below 0.5
+     */
+    private static int tableSize(final int capacity) {
+        return Math.max(2, Integer.highestOneBit(capacity - 1) << 2);
+    }
+
+    private static int hash(final Object key) {
+        final int hash = key.hashCode();
+        return hash ^ hash >>> 16;
+    }
+
+    private int indexOf(final Object key) {
+        final int mask = this.table.length - 1;
+        for (int slot = hash(key) & mask;; slot = slot + 1 & mask) {
+            final int entry = this.table[slot];
+            if (entry == 0) {
+                return -1;
+            }
+            if (this.keys[entry - 1].equals(key)) {
+                return entry - 1;
+            }
+        }
+    }
+
+    /**
+     * Find the index for a key, appending a new entry if necessary
+     */
+    private int index(final String key) {
+        final int mask = this.table.length - 1;
+        int slot = hash(key) & mask;
+        for (;; slot = slot + 1 & mask) {
+            final int entry = this.table[slot];
+            if (entry == 0) {
+                break;
+            }
+            if (this.keys[entry - 1].equals(key)) {
+                return entry - 1;
+            }
+        }
+
+        if (this.count == this.keys.length) {
+            grow();
+            return index(key);
+        }
+
+        final int index = this.count++;
+        this.keys[index] = key;
+        this.table[slot] = index + 1;
+        return index;
+    }
+
+    private void grow() {
+        final int capacity = this.keys.length * 2;
+
+        this.keys = Arrays.copyOf(this.keys, capacity);
+        this.types = Arrays.copyOf(this.types, capacity);
+        this.bits = Arrays.copyOf(this.bits, capacity);
+        this.objects = Arrays.copyOf(this.objects, capacity);
+
+        this.table = new int[tableSize(capacity)];
+        final int mask = this.table.length - 1;
+        for (int i = 0; i < this.count; i++) {
+            int slot = hash(this.keys[i]) & mask;
+            while (this.table[slot] != 0) {
+                slot = slot + 1 & mask;
+            }
+            this.table[slot] = i + 1;
+        }
+    }
+
+    private void set(final String key, final byte type, final long bits, final Object object) {
+        Objects.requireNonNull(key);
+
+        final int index = index(key);
+        this.types[index] = type;
+        this.bits[index] = bits;
+        this.objects[index] = object;
+    }
+
+    void putObject(final String key, final Object value) {
+        set(key, OBJECT, 0, value);
+    }
+
+    void putInt(final String key, final int value) {
+        set(key, INT, value, null);
+    }
+
+    void putLong(final String key, final long value) {
+        set(key, LONG, value, null);
+    }
+
+    void putFloat(final String key, final float value) {
+        set(key, FLOAT, Float.floatToRawIntBits(value), null);
+    }
+
+    void putDouble(final String key, final double value) {
+        set(key, DOUBLE, Double.doubleToRawLongBits(value), null);
+    }
+
+    void putBoolean(final String key, final boolean value) {
+        set(key, BOOLEAN, value ? 1 : 0, null);
+    }
+
+    void putAllObjects(final Map<String, ?> values) {
+        for (final Map.Entry<String, ?> entry : values.entrySet()) {
+            putObject(entry.getKey(), entry.getValue());
+        }
+    }
+
+    void reset() {
+        Arrays.fill(this.objects, 0, this.count, null);
+        Arrays.fill(this.table, 0);
+        this.count = 0;
+    }
+
+    <E extends Exception> void visit(final Payload.ValueVisitor<E> visitor) throws E {
+        for (int i = 0; i < this.count; i++) {
+            final String key = this.keys[i];
+            final long bits = this.bits[i];
+
+            switch (this.types[i]) {
+            case INT:
+                visitor.visitInt(key, (int) bits);
+                break;
+            case LONG:
+                visitor.visitLong(key, bits);
+                break;
+            case FLOAT:
+                visitor.visitFloat(key, Float.intBitsToFloat((int) bits));
+                break;
+            case DOUBLE:
+                visitor.visitDouble(key, Double.longBitsToDouble(bits));
+                break;
+            case BOOLEAN:
+                visitor.visitBoolean(key, bits != 0);
+                break;
+            default:
+                visitor.visitObject(key, this.objects[i]);
+                break;
+            }
+        }
+    }
+
+    private Object value(final int index) {
+        final long bits = this.bits[index];
+
+        switch (this.types[index]) {
+        case INT:
+            return (int) bits;
+        case LONG:
+            return bits;
+        case FLOAT:
+            return Float.intBitsToFloat((int) bits);
+        case DOUBLE:
+            return Double.longBitsToDouble(bits);
+        case BOOLEAN:
+            return bits != 0;
+        default:
+            return this.objects[index];
+        }
+    }
+
+    @Override
+    public int size() {
+        return this.count;
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return key != null && indexOf(key) >= 0;
+    }
+
+    @Override
+    public Object get(final Object key) {
+        if (key == null) {
+            return null;
+        }
+        final int index = indexOf(key);
+        return index < 0 ? null : value(index);
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        if (this.entrySet == null) {
+            this.entrySet = new EntrySet();
+        }
+        return this.entrySet;
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<String, Object>> {
+
+        @Override
+        public int size() {
+            return FlatValues.this.count;
+        }
+
+        @Override
+        public Iterator<Map.Entry<String, Object>> iterator() {
+            return new Iterator<Map.Entry<String, Object>>() {
+
+                private int next;
+
+                @Override
+                public boolean hasNext() {
+                    return this.next < FlatValues.this.count;
+                }
+
+                @Override
+                public Map.Entry<String, Object> next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    final int index = this.next++;
+                    return new SimpleImmutableEntry<>(FlatValues.this.keys[index], value(index));
+                }
+            };
+        }
+    }
+}
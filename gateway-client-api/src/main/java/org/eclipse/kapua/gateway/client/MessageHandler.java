@@ -15,4 +15,22 @@ package org.eclipse.kapua.gateway.client;
 public interface MessageHandler {
 
     public void handleMessage(Payload payload);
+
+    /**
+     * Handle a message received on a topic
+     * <p>
+     * This is called by the client for each received message. The default
+     * implementation drops the topic and calls {@link #handleMessage(Payload)}.
+     * </p>
+     *
+     * @param topic
+     *            the data topic the message was received on, which is the concrete
+     *            topic in case of a topic filter, {@code null} if it is unknown
+     * @param payload
+     *            the payload of the message
+     * @see TopicMessageHandler
+     */
+    public default void handleMessage(final Topic topic, final Payload payload) {
+        handleMessage(payload);
+    }
 }
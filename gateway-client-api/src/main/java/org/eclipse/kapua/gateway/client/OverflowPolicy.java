@@ -0,0 +1,35 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client;
+
+/**
+ * The policy for received messages when the queue of a subscription is full
+ */
+public enum OverflowPolicy {
+    /**
+     * Block the transport until the handler has caught up
+     */
+    BLOCK,
+    /**
+     * Drop the oldest queued message
+     */
+    DROP_OLDEST,
+    /**
+     * Drop the received message
+     */
+    DROP_NEWEST,
+    /**
+     * Keep only the latest queued message per topic, drop the oldest message if the
+     * queue is still full
+     */
+    CONFLATE;
+}
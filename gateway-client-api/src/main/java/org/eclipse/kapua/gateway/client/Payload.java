@@ -25,14 +25,68 @@ import java.util.Objects;
  */
 public class Payload {
 
+    /**
+     * A visitor for the values of a payload
+     * <p>
+     * Primitive values, which got added using one of the primitive methods of the
+     * {@link Builder}, will be reported using the typed methods. All other values will
+     * be reported using {@link #visitObject(String, Object)}.
+     * </p>
+     *
+     * @param <E>
+     *            the exception type the visitor may throw
+     */
+    public interface ValueVisitor<E extends Exception> {
+
+        public void visitInt(String key, int value) throws E;
+
+        public void visitLong(String key, long value) throws E;
+
+        public void visitFloat(String key, float value) throws E;
+
+        public void visitDouble(String key, double value) throws E;
+
+        public void visitBoolean(String key, boolean value) throws E;
+
+        public void visitObject(String key, Object value) throws E;
+    }
+
+    /**
+     * A builder for {@link Payload} instances
+     * <p>
+     * Primitive values, added using the primitive methods like {@link #putInt(String, int)},
+     * are stored without boxing them. Building a payload does not copy the values.
+     * The builder may be used again after a payload was built, changing the
+     * values afterwards will not affect the payload which was already built.
+     * </p>
+     */
     public static class Builder {
 
         private Instant timestamp;
 
-        private Map<String, Object> values = new HashMap<String, Object>();
+        private FlatValues values;
+
+        /**
+         * Flag indicating that the values are in use by a payload
+         */
+        private boolean shared;
 
         public Builder() {
             this.timestamp = Instant.now();
+            this.values = new FlatValues();
+        }
+
+        /**
+         * Create a new builder, pre-sized for an expected number of values
+         *
+         * @param expectedSize
+         *            the number of values which are expected to be added
+         * @throws IllegalArgumentException
+         *             if the expected size is negative
+         */
+        public Builder(final int expectedSize) {
+            this.timestamp = Instant.now();
+            this.values = new FlatValues(expectedSize);
         }
 
         public Instant timestamp() {
@@ -46,47 +100,161 @@ public class Payload {
             return this;
         }
 
+        /**
+         * Get a read-only view of the current values
+         *
+         * @return the current values, never {@code null}
+         */
         public Map<String, ?> values() {
-            return this.values;
+            return unmodifiableMap(this.values);
         }
 
         public Builder values(final Map<String, ?> values) {
             Objects.requireNonNull(values);
 
-            this.values.clear();
-            this.values.putAll(values);
+            final FlatValues target = mutableValues();
+            target.reset();
+            target.putAllObjects(values);
 
             return this;
         }
 
         public Builder put(final String key, final Object value) {
-            Objects.requireNonNull(key);
+            mutableValues().putObject(key, value);
+            return this;
+        }
+
+        public Builder putInt(final String key, final int value) {
+            mutableValues().putInt(key, value);
+            return this;
+        }
+
+        public Builder putLong(final String key, final long value) {
+            mutableValues().putLong(key, value);
+            return this;
+        }
+
+        public Builder putFloat(final String key, final float value) {
+            mutableValues().putFloat(key, value);
+            return this;
+        }
+
+        public Builder putDouble(final String key, final double value) {
+            mutableValues().putDouble(key, value);
+            return this;
+        }
 
-            this.values.put(key, value);
+        public Builder putBoolean(final String key, final boolean value) {
+            mutableValues().putBoolean(key, value);
             return this;
         }
 
+        /**
+         * Remove all values
+         * <p>
+         * The timestamp is left unchanged. Payloads which were already built
+         * from this builder are not affected.
+         * </p>
+         *
+         * @return the builder itself
+         */
+        public Builder clear() {
+            if (this.shared) {
+                this.values = new FlatValues();
+                this.shared = false;
+            } else {
+                this.values.reset();
+            }
+            return this;
+        }
+
+        /**
+         * Visit the current values of this builder
+         *
+         * @param visitor
+         *            the visitor to call, must not be {@code null}
+         * @throws E
+         *             if the visitor throws an exception
+         * @see Payload#visitValues(ValueVisitor)
+         */
+        public <E extends Exception> void visitValues(final ValueVisitor<E> visitor) throws E {
+            Objects.requireNonNull(visitor);
+
+            this.values.visit(visitor);
+        }
+
+        private FlatValues mutableValues() {
+            if (this.shared) {
+                // copy on write
+                this.values = new FlatValues(this.values);
+                this.shared = false;
+            }
+            return this.values;
+        }
+
         public Payload build() {
-            return new Payload(this.timestamp, this.values, true);
+            this.shared = true;
+            return new Payload(this.timestamp, this.values);
         }
     }
 
     private final Instant timestamp;
     private final Map<String, ?> values;
+    private final FlatValues flatValues;
 
     private Payload(final Instant timestamp, final Map<String, ?> values, final boolean cloneValues) {
         this.timestamp = timestamp;
         this.values = unmodifiableMap(cloneValues ? new HashMap<>(values) : values);
+        this.flatValues = null;
+    }
+
+    private Payload(final Instant timestamp, final FlatValues values) {
+        this.timestamp = timestamp;
+        this.values = unmodifiableMap(values);
+        this.flatValues = values;
     }
 
     public Instant getTimestamp() {
         return this.timestamp;
     }
 
+    /**
+     * Get the values of this payload
+     * <p>
+     * The iteration order of the returned map is unspecified. Only payloads decoded
+     * by a {@link BinaryPayloadCodec} may iterate in the order of the wire format.
+     * </p>
+     *
+     * @return the read-only values, never {@code null}
+     */
     public Map<String, ?> getValues() {
         return this.values;
     }
 
+    /**
+     * Visit all values of this payload
+     * <p>
+     * In contrast to iterating over {@link #getValues()}, this will not box primitive values.
+     * </p>
+     *
+     * @param visitor
+     *            the visitor to call, must not be {@code null}
+     * @throws E
+     *             if the visitor throws an exception
+     */
+    public <E extends Exception> void visitValues(final ValueVisitor<E> visitor) throws E {
+        Objects.requireNonNull(visitor);
+
+        if (this.flatValues != null) {
+            this.flatValues.visit(visitor);
+            return;
+        }
+
+        for (final Map.Entry<String, ?> entry : this.values.entrySet()) {
+            visitor.visitObject(entry.getKey(), entry.getValue());
+        }
+    }
+
     @Override
     public String toString() {
         return String.format("[Payload - timestamp: %s, values: %s]", this.timestamp, this.values);
@@ -117,4 +285,26 @@ public class Payload {
 
         return new Payload(timestamp, values, true);
     }
+
+    /**
+     * Create a new payload without copying the values
+     * <p>
+     * In contrast to {@link #of(Instant, Map)} the provided map will not be
+     * copied, but directly backs the new payload. This is intended for codecs
+     * which create their own, read-only map implementation. The caller must not
+     * modify the map after the payload was created.
+     * </p>
+     *
+     * @param timestamp
+     *            the timestamp of the payload, must not be {@code null}
+     * @param values
+     *            the values of the payload, must not be {@code null}
+     * @return the new payload, never {@code null}
+     */
+    public static Payload wrap(final Instant timestamp, final Map<String, ?> values) {
+        Objects.requireNonNull(timestamp);
+        Objects.requireNonNull(values);
+
+        return new Payload(timestamp, values, false);
+    }
 }
@@ -0,0 +1,35 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client;
+
+/**
+ * The priority of outbound messages
+ * <p>
+ * When the outbound rate is limited, messages with a higher priority are sent
+ * before messages of lower priority. Messages replayed from a store-and-forward
+ * backlog are sent with the lowest priority.
+ * </p>
+ */
+public enum Priority {
+    /**
+     * Only use the capacity which is not required by messages of higher priority
+     */
+    LOW,
+    /**
+     * The default priority for data
+     */
+    NORMAL,
+    /**
+     * Always goes first, e.g. for command responses
+     */
+    HIGH;
+}
@@ -0,0 +1,49 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client;
+
+/**
+ * The quality of service for sending and receiving data
+ * <p>
+ * The levels follow the MQTT definition. Transports which do not support
+ * a level may use the next higher one.
+ * </p>
+ */
+public enum QoS {
+    /**
+     * Fire and forget, messages may get lost
+     */
+    AT_MOST_ONCE(0),
+    /**
+     * Messages are acknowledged, but may be delivered more than once
+     */
+    AT_LEAST_ONCE(1),
+    /**
+     * Messages are delivered exactly once
+     */
+    EXACTLY_ONCE(2);
+
+    private final int level;
+
+    private QoS(final int level) {
+        this.level = level;
+    }
+
+    /**
+     * Get the numeric MQTT QoS level
+     *
+     * @return the QoS level, 0, 1 or 2
+     */
+    public int level() {
+        return this.level;
+    }
+}
@@ -13,6 +13,7 @@ package org.eclipse.kapua.gateway.client;
 
 import static java.util.Objects.requireNonNull;
 
+import java.util.Collection;
 import java.util.Optional;
 
 /**
@@ -28,6 +29,35 @@ public interface Sender<X extends Throwable> {
         send(payload.build());
     }
 
+    /**
+     * Send a batch of payloads
+     * <p>
+     * Implementations may combine all payloads into a single message. The default
+     * implementation sends each payload using {@link #send(Payload)}.
+     * </p>
+     * 
+     * @param payloads
+     *            the payloads to send, must not be {@code null}
+     * @throws X
+     *             if sending failed
+     */
+    public default void sendBatch(final Collection<Payload> payloads) throws X {
+        requireNonNull(payloads);
+
+        for (final Payload payload : payloads) {
+            send(payload);
+        }
+    }
+
+    /**
+     * Create a new batch for this sender
+     * 
+     * @return a new, empty batch, never {@code null}
+     */
+    public default Batch<X> batch() {
+        return new Batch<>(this);
+    }
+
     public default <Y extends Throwable> Sender<Y> errors(final ErrorHandler<Y> errorHandler) {
         return new Sender<Y>() {
 
@@ -41,6 +71,19 @@ public interface Sender<X extends Throwable> {
                     errorHandler.handleError(e, Optional.of(payload));
                 }
             }
+
+            @Override
+            public void sendBatch(final Collection<Payload> payloads) throws Y {
+                requireNonNull(payloads);
+
+                try {
+                    Sender.this.sendBatch(payloads);
+                } catch (final Throwable e) {
+                    for (final Payload payload : payloads) {
+                        errorHandler.handleError(e, Optional.of(payload));
+                    }
+                }
+            }
         };
 
     }
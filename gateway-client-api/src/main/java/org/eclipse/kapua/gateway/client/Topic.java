@@ -22,21 +22,51 @@ import java.util.stream.Stream;
  * <p>
  * <b>Note:</b> This is not a technical MQTT topic, but an internal data topic.
  * For this reason special topics like wildcards are not supported and will cause
- * an {@link Exception}.
+ * an {@link Exception}. The only exception are topic filters, created by
+ * {@link #filter(String, String...)}, which can be used to subscribe to
+ * a set of topics, but not to publish.
  * </p>
  */
 public final class Topic {
 
+    /**
+     * Wildcard matching exactly one segment
+     */
+    public static final String SINGLE_LEVEL_WILDCARD = "+";
+
+    /**
+     * Wildcard matching any number of trailing segments, including none
+     */
+    public static final String MULTI_LEVEL_WILDCARD = "#";
+
     private final List<String> segments;
+    private final boolean wildcard;
+    private final int hashCode;
 
     private Topic(final List<String> segments) {
+        this(segments, false);
+    }
+
+    private Topic(final List<String> segments, final boolean wildcard) {
         this.segments = Collections.unmodifiableList(segments);
+        this.wildcard = wildcard;
+        this.hashCode = 31 + segments.hashCode();
     }
 
     public List<String> getSegments() {
         return segments;
     }
 
+    /**
+     * Test if the topic contains wildcards
+     *
+     * @return {@code true} if this topic is a filter containing at least one
+     *         wildcard segment, {@code false} otherwise
+     */
+    public boolean isWildcard() {
+        return wildcard;
+    }
+
     public Stream<String> stream() {
         return segments.stream();
     }
@@ -48,10 +78,8 @@ public final class Topic {
 
     @Override
     public int hashCode() {
-        final int prime = 31;
-        int result = 1;
-        result = prime * result + (segments == null ? 0 : segments.hashCode());
-        return result;
+        // topics are used as keys when looking up data controllers, so cache the hash code
+        return hashCode;
     }
 
     @Override
@@ -76,6 +104,19 @@ public final class Topic {
         return true;
     }
 
+    /**
+     * Parse a topic, separated by slashes
+     * <p>
+     * If the path contains wildcard segments, the result is a topic filter, following
+     * the rules of {@link #filter(List)}.
+     * </p>
+     *
+     * @param path
+     *            the path to parse
+     * @return the topic, {@code null} if the path is {@code null} or has no segments
+     * @throws IllegalArgumentException
+     *             if the path is an invalid topic filter
+     */
     public static Topic split(String path) {
         if (path == null) {
             return null;
@@ -87,7 +128,12 @@ public final class Topic {
             return null;
         }
 
-        return new Topic(Arrays.asList(path.split("\\/+")));
+        final List<String> segments = Arrays.asList(path.split("\\/+"));
+        if (segments.contains(SINGLE_LEVEL_WILDCARD) || segments.contains(MULTI_LEVEL_WILDCARD)) {
+            // validate the wildcards like any other filter
+            return filter(segments);
+        }
+        return new Topic(segments);
     }
 
     public static Topic of(final List<String> segments) {
@@ -117,12 +163,77 @@ public final class Topic {
         return new Topic(segments);
     }
 
+    /**
+     * Create a topic filter
+     * <p>
+     * In addition to plain segments, a topic filter may contain the wildcards
+     * {@link #SINGLE_LEVEL_WILDCARD} and {@link #MULTI_LEVEL_WILDCARD}. The latter
+     * may only be used as the last segment. A topic filter can only be used for
+     * subscribing, not for publishing.
+     * </p>
+     *
+     * @param first
+     *            the first segment
+     * @param strings
+     *            additional segments
+     * @return the topic filter, {@code null} if {@code first} is {@code null}
+     * @throws IllegalArgumentException
+     *             if a segment is invalid
+     */
+    public static Topic filter(final String first, final String... strings) {
+        if (first == null) {
+            return null;
+        }
+
+        final List<String> segments = new ArrayList<>(1 + (strings != null ? strings.length : 0));
+        segments.add(first);
+        if (strings != null) {
+            segments.addAll(Arrays.asList(strings));
+        }
+        return filter(segments);
+    }
+
+    /**
+     * Create a topic filter
+     *
+     * @param segments
+     *            the segments of the filter
+     * @return the topic filter, {@code null} if the list is {@code null} or empty
+     * @throws IllegalArgumentException
+     *             if a segment is invalid
+     * @see #filter(String, String...)
+     */
+    public static Topic filter(final List<String> segments) {
+        if (segments == null || segments.isEmpty()) {
+            return null;
+        }
+
+        boolean wildcard = false;
+        final int last = segments.size() - 1;
+
+        for (int i = 0; i <= last; i++) {
+            final String segment = segments.get(i);
+            if (SINGLE_LEVEL_WILDCARD.equals(segment)) {
+                wildcard = true;
+            } else if (MULTI_LEVEL_WILDCARD.equals(segment)) {
+                if (i != last) {
+                    throw new IllegalArgumentException("Multi-level wildcard must be the last segment");
+                }
+                wildcard = true;
+            } else {
+                ensureNotSpecial(segment);
+            }
+        }
+
+        return new Topic(new ArrayList<>(segments), wildcard);
+    }
+
     public static String ensureNotSpecial(final String segment) {
         if (segment == null || segment.isEmpty()) {
             throw new IllegalArgumentException("Segment must not be null or empty");
-        } else if ("#".equals(segment)) {
+        } else if (MULTI_LEVEL_WILDCARD.equals(segment)) {
             throw new IllegalArgumentException("Wildcard topics are not allowed");
-        } else if ("+".equals(segment)) {
+        } else if (SINGLE_LEVEL_WILDCARD.equals(segment)) {
             throw new IllegalArgumentException("Wildcard topics are not allowed");
         } else if (segment.contains("/")) {
             throw new IllegalArgumentException("Segments must not contain slashes. Use Topic.split to parse a multi-segment topic string.");
@@ -0,0 +1,31 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client;
+
+/**
+ * A message handler which receives the topic of each message
+ * <p>
+ * When subscribing to a topic filter, created by {@link Topic#filter(String, String...)},
+ * the handler receives the concrete topic which matched the filter.
+ * </p>
+ */
+@FunctionalInterface
+public interface TopicMessageHandler extends MessageHandler {
+
+    @Override
+    public void handleMessage(Topic topic, Payload payload);
+
+    @Override
+    public default void handleMessage(final Payload payload) {
+        handleMessage(null, payload);
+    }
+}
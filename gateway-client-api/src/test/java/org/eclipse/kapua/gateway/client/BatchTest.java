@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BatchTest {
+
+    private static class RecordingSender implements Sender<Exception> {
+
+        private final List<Payload> sent = new ArrayList<>();
+        private final List<Collection<Payload>> batches = new ArrayList<>();
+
+        @Override
+        public void send(final Payload payload) throws Exception {
+            this.sent.add(payload);
+        }
+
+        @Override
+        public void sendBatch(final Collection<Payload> payloads) throws Exception {
+            this.batches.add(payloads);
+        }
+    }
+
+    @Test
+    public void testDefaultSendBatch() {
+        final List<Payload> sent = new ArrayList<>();
+        final Sender<RuntimeException> sender = sent::add;
+
+        final Payload p1 = Payload.of("foo", 1);
+        final Payload p2 = Payload.of("foo", 2);
+
+        sender.sendBatch(Arrays.asList(p1, p2));
+
+        Assert.assertEquals(Arrays.asList(p1, p2), sent);
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        final RecordingSender sender = new RecordingSender();
+
+        final Batch<Exception> batch = sender.batch();
+        Assert.assertTrue(batch.isEmpty());
+
+        final Payload p1 = Payload.of("foo", 1);
+        batch.add(p1).add(new Payload.Builder().put("foo", 2));
+        Assert.assertEquals(2, batch.size());
+
+        batch.send();
+
+        Assert.assertTrue(batch.isEmpty());
+        Assert.assertTrue(sender.sent.isEmpty());
+        Assert.assertEquals(1, sender.batches.size());
+        Assert.assertEquals(2, sender.batches.get(0).size());
+        Assert.assertSame(p1, sender.batches.get(0).iterator().next());
+
+        // empty batches are not sent
+        batch.send();
+        Assert.assertEquals(1, sender.batches.size());
+    }
+
+    @Test
+    public void testBatchErrors() {
+        final Sender<Exception> failing = new Sender<Exception>() {
+
+            @Override
+            public void send(final Payload payload) throws Exception {
+                throw new Exception("Failed");
+            }
+
+            @Override
+            public void sendBatch(final Collection<Payload> payloads) throws Exception {
+                throw new Exception("Failed");
+            }
+        };
+
+        final List<Optional<Payload>> errors = new ArrayList<>();
+        final Sender<RuntimeException> sender = failing.errors(Errors.handle((e, payload) -> errors.add(payload)));
+
+        final Payload p1 = Payload.of("foo", 1);
+        final Payload p2 = Payload.of("foo", 2);
+
+        sender.batch().add(p1).add(p2).send();
+
+        Assert.assertEquals(Arrays.asList(Optional.of(p1), Optional.of(p2)), errors);
+    }
+}
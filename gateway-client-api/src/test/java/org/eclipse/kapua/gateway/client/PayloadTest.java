@@ -12,7 +12,12 @@
 package org.eclipse.kapua.gateway.client;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -113,4 +118,239 @@ public class PayloadTest {
         Assert.assertEquals(1, p.getValues().get("foo"));
         Assert.assertTrue(!Instant.now().isBefore(p.getTimestamp()));
     }
+
+    @Test(expected = NullPointerException.class)
+    public void testWrapNull1() {
+        Payload.wrap(null, Collections.emptyMap());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testWrapNull2() {
+        Payload.wrap(Instant.now(), null);
+    }
+
+    @Test
+    public void testWrap() {
+        final Map<String, Object> values = new HashMap<>();
+        values.put("foo", 1);
+
+        final Payload p = Payload.wrap(Instant.ofEpochMilli(1), values);
+
+        Assert.assertEquals(Instant.ofEpochMilli(1), p.getTimestamp());
+        Assert.assertEquals(1, p.getValues().get("foo"));
+
+        // not copied
+        values.put("bar", 2);
+        Assert.assertEquals(2, p.getValues().size());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testWrapReadOnly() {
+        Payload.wrap(Instant.now(), new HashMap<>()).getValues().clear();
+    }
+
+    @Test
+    public void testBuilderPrimitives() {
+        final Payload p = new Payload.Builder()
+                .putInt("int", 1)
+                .putLong("long", 2L)
+                .putFloat("float", 3.5f)
+                .putDouble("double", -4.25)
+                .putBoolean("boolean", true)
+                .put("string", "foo")
+                .build();
+
+        final Map<String, Object> expected = new HashMap<>();
+        expected.put("int", 1);
+        expected.put("long", 2L);
+        expected.put("float", 3.5f);
+        expected.put("double", -4.25);
+        expected.put("boolean", true);
+        expected.put("string", "foo");
+
+        Assert.assertEquals(expected, p.getValues());
+        Assert.assertEquals(expected.hashCode(), p.getValues().hashCode());
+        Assert.assertEquals(Arrays.asList("int", "long", "float", "double", "boolean", "string"), new ArrayList<>(p.getValues().keySet()));
+    }
+
+    @Test
+    public void testBuilderReplace() {
+        final Payload p = new Payload.Builder()
+                .putInt("foo", 1)
+                .put("bar", 2)
+                .putDouble("foo", 1.5)
+                .build();
+
+        Assert.assertEquals(2, p.getValues().size());
+        Assert.assertEquals(1.5, p.getValues().get("foo"));
+        Assert.assertEquals(Arrays.asList("foo", "bar"), new ArrayList<>(p.getValues().keySet()));
+    }
+
+    @Test
+    public void testBuilderGrow() {
+        final Payload.Builder builder = new Payload.Builder();
+        for (int i = 0; i < 1_000; i++) {
+            builder.putLong("key" + i, i);
+        }
+
+        final Payload p = builder.build();
+
+        Assert.assertEquals(1_000, p.getValues().size());
+        for (int i = 0; i < 1_000; i++) {
+            Assert.assertEquals((long) i, p.getValues().get("key" + i));
+        }
+        Assert.assertNull(p.getValues().get("key1000"));
+        Assert.assertNull(p.getValues().get(1));
+    }
+
+    @Test
+    public void testBuilderReuse() {
+        final Payload.Builder builder = new Payload.Builder().putInt("foo", 1);
+
+        final Payload p1 = builder.build();
+        builder.putInt("foo", 2).putInt("bar", 3);
+        final Payload p2 = builder.build();
+        builder.values(Collections.singletonMap("baz", 4));
+        final Payload p3 = builder.build();
+
+        Assert.assertEquals(Collections.singletonMap("foo", 1), p1.getValues());
+        Assert.assertEquals(2, p2.getValues().size());
+        Assert.assertEquals(2, p2.getValues().get("foo"));
+        Assert.assertEquals(Collections.singletonMap("baz", 4), p3.getValues());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testBuilderReadOnly() {
+        new Payload.Builder().putInt("foo", 1).build().getValues().remove("foo");
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testBuilderPrimitiveNull() {
+        new Payload.Builder().putDouble(null, 1.0);
+    }
+
+    @Test
+    public void testVisitValues() {
+        final List<String> result = new ArrayList<>();
+
+        final Payload.ValueVisitor<RuntimeException> visitor = new Payload.ValueVisitor<RuntimeException>() {
+
+            @Override
+            public void visitInt(final String key, final int value) {
+                result.add("int:" + key + "=" + value);
+            }
+
+            @Override
+            public void visitLong(final String key, final long value) {
+                result.add("long:" + key + "=" + value);
+            }
+
+            @Override
+            public void visitFloat(final String key, final float value) {
+                result.add("float:" + key + "=" + value);
+            }
+
+            @Override
+            public void visitDouble(final String key, final double value) {
+                result.add("double:" + key + "=" + value);
+            }
+
+            @Override
+            public void visitBoolean(final String key, final boolean value) {
+                result.add("boolean:" + key + "=" + value);
+            }
+
+            @Override
+            public void visitObject(final String key, final Object value) {
+                result.add("object:" + key + "=" + value);
+            }
+        };
+
+        new Payload.Builder()
+                .putInt("a", 1)
+                .putLong("b", 2)
+                .putFloat("c", 3)
+                .putDouble("d", 4)
+                .putBoolean("e", false)
+                .put("f", 6)
+                .build()
+                .visitValues(visitor);
+
+        Payload.of("g", 7).visitValues(visitor);
+
+        Assert.assertEquals(Arrays.asList("int:a=1", "long:b=2", "float:c=3.0", "double:d=4.0", "boolean:e=false", "object:f=6", "object:g=7"), result);
+    }
+
+    @Test
+    public void testBuilderExpectedSize() {
+        final Payload p = new Payload.Builder(0).putInt("foo", 1).putInt("bar", 2).build();
+
+        Assert.assertEquals(2, p.getValues().size());
+        Assert.assertEquals(1, p.getValues().get("foo"));
+        Assert.assertEquals(2, p.getValues().get("bar"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuilderExpectedSizeNegative() {
+        new Payload.Builder(-1);
+    }
+
+    @Test
+    public void testBuilderClear() {
+        final Instant timestamp = Instant.ofEpochMilli(1);
+        final Payload.Builder builder = new Payload.Builder().timestamp(timestamp).putInt("foo", 1);
+
+        builder.clear();
+        Assert.assertTrue(builder.values().isEmpty());
+        Assert.assertEquals(timestamp, builder.timestamp());
+
+        builder.putInt("bar", 2);
+        final Payload p1 = builder.build();
+
+        builder.clear().putInt("baz", 3);
+        final Payload p2 = builder.build();
+
+        Assert.assertEquals(Collections.singletonMap("bar", 2), p1.getValues());
+        Assert.assertEquals(Collections.singletonMap("baz", 3), p2.getValues());
+    }
+
+    @Test
+    public void testBuilderVisitValues() {
+        final List<String> result = new ArrayList<>();
+
+        new Payload.Builder().putLong("foo", 1).put("bar", "baz").visitValues(new Payload.ValueVisitor<RuntimeException>() {
+
+            @Override
+            public void visitInt(final String key, final int value) {
+                Assert.fail();
+            }
+
+            @Override
+            public void visitLong(final String key, final long value) {
+                result.add(key + "=" + value);
+            }
+
+            @Override
+            public void visitFloat(final String key, final float value) {
+                Assert.fail();
+            }
+
+            @Override
+            public void visitDouble(final String key, final double value) {
+                Assert.fail();
+            }
+
+            @Override
+            public void visitBoolean(final String key, final boolean value) {
+                Assert.fail();
+            }
+
+            @Override
+            public void visitObject(final String key, final Object value) {
+                result.add(key + "=" + value);
+            }
+        });
+
+        Assert.assertEquals(Arrays.asList("foo=1", "bar=baz"), result);
+    }
 }
@@ -98,6 +98,60 @@ public class TopicTest {
         Topic.of("foo", "foo/");
     }
 
+    @Test
+    public void testFilter1() {
+        final Topic topic = Topic.filter("foo", "+", "bar");
+        Assert.assertEquals(Arrays.asList("foo", "+", "bar"), topic.getSegments());
+        Assert.assertTrue(topic.isWildcard());
+    }
+
+    @Test
+    public void testFilter2() {
+        final Topic topic = Topic.filter(Arrays.asList("foo", "#"));
+        Assert.assertEquals("foo/#", topic.toString());
+        Assert.assertTrue(topic.isWildcard());
+    }
+
+    @Test
+    public void testFilter3() {
+        final Topic topic = Topic.filter("foo", "bar");
+        Assert.assertFalse(topic.isWildcard());
+        Assert.assertEquals(Topic.of("foo", "bar"), topic);
+    }
+
+    @Test
+    public void testFilterNull() {
+        Assert.assertNull(Topic.filter((String) null));
+        Assert.assertNull(Topic.filter(Collections.emptyList()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFilterInvalid1() {
+        Topic.filter("foo", "#", "bar");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFilterInvalid2() {
+        Topic.filter("foo", "bar/baz");
+    }
+
+    @Test
+    public void testNotWildcard() {
+        Assert.assertFalse(Topic.of("foo", "bar").isWildcard());
+    }
+
+    @Test
+    public void testSplitWildcard() {
+        Assert.assertTrue(Topic.split("foo/+/bar").isWildcard());
+        Assert.assertFalse(Topic.split("foo/bar").isWildcard());
+        Assert.assertEquals(Topic.filter("foo", "#"), Topic.split("foo/#"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSplitWildcardInvalid() {
+        Topic.split("foo/#/bar");
+    }
+
     @Test
     public void testSplit1() {
         final Topic topic = Topic.split("foo/bar");
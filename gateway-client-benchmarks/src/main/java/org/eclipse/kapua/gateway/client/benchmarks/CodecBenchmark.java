@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.kapua.gateway.client.Payload;
+import org.eclipse.kapua.gateway.client.kura.KuraBinaryPayloadCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmark {@link KuraBinaryPayloadCodec#encode(Payload, ByteBuffer)} and
+ * {@link KuraBinaryPayloadCodec#decode(ByteBuffer)}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Param({ "1", "10", "100" })
+    public int metrics;
+
+    private KuraBinaryPayloadCodec codec;
+
+    private Payload payload;
+
+    private ByteBuffer buffer;
+
+    private ByteBuffer encoded;
+
+    private String[] keys;
+
+    @Setup
+    public void setup() throws Exception {
+        this.codec = new KuraBinaryPayloadCodec.Builder().build();
+        this.payload = Payload.of(Instant.now(), Fixtures.values(this.metrics));
+
+        this.encoded = this.codec.encode(this.payload, null);
+        this.encoded.flip();
+
+        this.buffer = ByteBuffer.allocate(Math.max(this.encoded.remaining(), 64 * 1024));
+
+        this.keys = new String[this.metrics];
+        for (int i = 0; i < this.metrics; i++) {
+            this.keys[i] = "sample" + i;
+        }
+    }
+
+    @Benchmark
+    public ByteBuffer encodeNewBuffer() throws Exception {
+        return this.codec.encode(this.payload, null);
+    }
+
+    @Benchmark
+    public ByteBuffer encodeProvidedBuffer() throws Exception {
+        this.buffer.clear();
+        return this.codec.encode(this.payload, this.buffer);
+    }
+
+    @Benchmark
+    public ByteBuffer buildAndEncodeBoxed() throws Exception {
+        final Payload.Builder builder = new Payload.Builder();
+        for (int i = 0; i < this.keys.length; i++) {
+            builder.put(this.keys[i], 0.5 * i);
+        }
+
+        this.buffer.clear();
+        return this.codec.encode(builder.build(), this.buffer);
+    }
+
+    @Benchmark
+    public ByteBuffer buildAndEncodePrimitive() throws Exception {
+        final Payload.Builder builder = new Payload.Builder(this.keys.length);
+        for (int i = 0; i < this.keys.length; i++) {
+            builder.putDouble(this.keys[i], 0.5 * i);
+        }
+
+        this.buffer.clear();
+        return this.codec.encode(builder.build(), this.buffer);
+    }
+
+    @Benchmark
+    public Payload decode() throws Exception {
+        return this.codec.decode(this.encoded.duplicate());
+    }
+
+    @Benchmark
+    public void decodeAndRead(final Blackhole blackhole) throws Exception {
+        for (final Map.Entry<String, ?> entry : this.codec.decode(this.encoded.duplicate()).getValues().entrySet()) {
+            blackhole.consume(entry.getValue());
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Sample data shared by the benchmarks
+ */
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    /**
+     * Create a map of metrics, cycling through all supported Kura value types
+     *
+     * @param count
+     *            the number of metrics
+     * @return a new, mutable map
+     */
+    static Map<String, Object> values(final int count) {
+        final Map<String, Object> result = new HashMap<>(count * 2);
+
+        for (int i = 0; i < count; i++) {
+            final String key = "metric" + i;
+            switch (i % 7) {
+            case 0:
+                result.put(key, 21.5 + i);
+                break;
+            case 1:
+                result.put(key, (long) i * 1_000L);
+                break;
+            case 2:
+                result.put(key, i);
+                break;
+            case 3:
+                result.put(key, 0.5f * i);
+                break;
+            case 4:
+                result.put(key, i % 2 == 0);
+                break;
+            case 5:
+                result.put(key, "value-" + i);
+                break;
+            default:
+                result.put(key, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+                break;
+            }
+        }
+
+        return result;
+    }
+}
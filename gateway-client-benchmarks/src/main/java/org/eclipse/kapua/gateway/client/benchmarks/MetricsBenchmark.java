@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.kapua.gateway.client.kura.internal.Metrics;
+import org.eclipse.kapua.gateway.client.kura.payload.KuraPayloadProto.KuraPayload;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark the conversion between plain values and the Kura protobuf structure
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+
+    @Param({ "1", "10", "100" })
+    public int metrics;
+
+    private Map<String, Object> values;
+
+    private KuraPayload payload;
+
+    @Setup
+    public void setup() {
+        this.values = Fixtures.values(this.metrics);
+
+        final KuraPayload.Builder builder = KuraPayload.newBuilder();
+        Metrics.buildMetrics(builder, this.values);
+        this.payload = builder.build();
+    }
+
+    @Benchmark
+    public KuraPayload.Builder buildMetrics() {
+        final KuraPayload.Builder builder = KuraPayload.newBuilder();
+        Metrics.buildMetrics(builder, this.values);
+        return builder;
+    }
+
+    @Benchmark
+    public Map<String, Object> extractMetrics() {
+        return Metrics.extractMetrics(this.payload);
+    }
+}
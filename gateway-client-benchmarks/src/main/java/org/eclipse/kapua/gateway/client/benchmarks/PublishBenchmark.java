@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.kapua.gateway.client.Application;
+import org.eclipse.kapua.gateway.client.Data;
+import org.eclipse.kapua.gateway.client.Payload;
+import org.eclipse.kapua.gateway.client.Topic;
+import org.eclipse.kapua.gateway.client.kura.KuraBinaryPayloadCodec;
+import org.eclipse.kapua.gateway.client.kura.KuraNamespace;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark the full path from {@link Data#send(Payload)} down to the MQTT
+ * provider, and from the MQTT provider up to the {@link org.eclipse.kapua.gateway.client.MessageHandler}
+ * <p>
+ * The provider is replaced by a {@link StubMqttClient}, so that only the cost
+ * of the client library itself is measured.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PublishBenchmark {
+
+    private static final String ACCOUNT_NAME = "kapua-sys";
+    private static final String CLIENT_ID = "gateway-1";
+    private static final String APPLICATION_ID = "app1";
+    private static final int BATCH_SIZE = 10;
+
+    @Param({ "1", "10", "100" })
+    public int metrics;
+
+    private StubMqttClient client;
+
+    private Application application;
+
+    private Data data;
+
+    private Payload payload;
+
+    private String mqttTopic;
+
+    private ByteBuffer encoded;
+
+    private Payload received;
+
+    private String[] keys;
+
+    private List<Payload> batch;
+
+    @Setup
+    public void setup() throws Exception {
+        final KuraBinaryPayloadCodec codec = new KuraBinaryPayloadCodec.Builder().build();
+        final KuraNamespace namespace = new KuraNamespace.Builder().accountName(ACCOUNT_NAME).build();
+
+        this.client = new StubMqttClient(Executors.newSingleThreadScheduledExecutor(), codec, namespace, CLIENT_ID);
+        this.application = this.client.buildApplication(APPLICATION_ID).build();
+
+        final Topic topic = Topic.of("sensors", "temperature");
+
+        this.data = this.application.data(topic);
+        this.data.subscribe(payload -> this.received = payload);
+
+        this.payload = Payload.of(Instant.now(), Fixtures.values(this.metrics));
+
+        this.mqttTopic = namespace.dataTopic(CLIENT_ID, APPLICATION_ID, topic);
+        this.encoded = codec.encode(this.payload, null);
+        this.encoded.flip();
+
+        this.batch = Collections.nCopies(BATCH_SIZE, this.payload);
+
+        this.keys = new String[this.metrics];
+        for (int i = 0; i < this.metrics; i++) {
+            this.keys[i] = "sample" + i;
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        this.application.close();
+        this.client.close();
+    }
+
+    @Benchmark
+    public long send() throws Exception {
+        this.data.send(this.payload);
+        return this.client.getBytes();
+    }
+
+    /**
+     * Send {@value #BATCH_SIZE} payloads as a single message
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public long sendBatch() throws Exception {
+        this.data.sendBatch(this.batch);
+        return this.client.getBytes();
+    }
+
+    @Benchmark
+    public long sendPooled() throws Exception {
+        final Payload.Builder payload = this.data.acquirePayload();
+        try {
+            for (int i = 0; i < this.metrics; i++) {
+                payload.putDouble(this.keys[i], 0.5 * i);
+            }
+            this.data.send(payload);
+        } finally {
+            this.data.releasePayload(payload);
+        }
+        return this.client.getBytes();
+    }
+
+    @Benchmark
+    public Payload dispatch() throws Exception {
+        this.client.dispatch(this.mqttTopic, this.encoded.duplicate());
+        return this.received;
+    }
+}
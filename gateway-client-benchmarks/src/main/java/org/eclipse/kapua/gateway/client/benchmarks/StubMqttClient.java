@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.eclipse.kapua.gateway.client.BinaryPayloadCodec;
+import org.eclipse.kapua.gateway.client.QoS;
+import org.eclipse.kapua.gateway.client.mqtt.MqttClient;
+import org.eclipse.kapua.gateway.client.mqtt.MqttMessageHandler;
+import org.eclipse.kapua.gateway.client.mqtt.MqttNamespace;
+
+/**
+ * An in-process MQTT client which does not perform any I/O
+ * <p>
+ * Published messages are only counted, subscriptions are recorded and can be
+ * triggered using {@link #dispatch(String, ByteBuffer)}. Received messages take
+ * the same path as with a real provider, through the subscription registry of
+ * the client.
+ * </p>
+ */
+public class StubMqttClient extends MqttClient {
+
+    private static final CompletionStage<Void> COMPLETED = CompletableFuture.completedFuture(null);
+
+    private long messages;
+    private long bytes;
+
+    public StubMqttClient(final ScheduledExecutorService executor, final BinaryPayloadCodec codec, final MqttNamespace namespace, final String clientId) {
+        super(executor, codec, namespace, clientId, Collections.emptySet());
+    }
+
+    @Override
+    public CompletionStage<Void> publishMqtt(final String topic, final ByteBuffer payload, final QoS qos, final boolean retain) throws Exception {
+        this.messages++;
+        this.bytes += payload.remaining();
+        return COMPLETED;
+    }
+
+    @Override
+    protected CompletionStage<?> subscribeMqtt(final String topic, final QoS qos, final MqttMessageHandler messageHandler) throws Exception {
+        this.subscriptions.put(topic, qos, messageHandler).setEstablished(true);
+        return COMPLETED;
+    }
+
+    @Override
+    protected void unsubscribeMqtt(final Set<String> mqttTopics) throws Exception {
+        for (final String topic : mqttTopics) {
+            this.subscriptions.remove(topic);
+        }
+    }
+
+    /**
+     * Simulate the arrival of a message
+     *
+     * @param topic
+     *            the MQTT topic
+     * @param payload
+     *            the encoded payload
+     * @throws Exception
+     *             if the message handler fails
+     */
+    public void dispatch(final String topic, final ByteBuffer payload) throws Exception {
+        dispatchMessage(topic, payload);
+    }
+
+    public long getMessages() {
+        return this.messages;
+    }
+
+    public long getBytes() {
+        return this.bytes;
+    }
+
+    @Override
+    public void close() {
+        this.executor.shutdown();
+    }
+}
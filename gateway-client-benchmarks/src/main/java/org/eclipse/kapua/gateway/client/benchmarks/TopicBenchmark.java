@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.kapua.gateway.client.Topic;
+import org.eclipse.kapua.gateway.client.kura.KuraNamespace;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark topic parsing and rendering
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TopicBenchmark {
+
+    private final String path = "/sensors//building-1/floor-2/temperature/";
+
+    private KuraNamespace namespace;
+
+    private Topic topic;
+
+    @Setup
+    public void setup() {
+        this.namespace = new KuraNamespace.Builder().accountName("kapua-sys").build();
+        this.topic = Topic.of("sensors", "building-1", "floor-2", "temperature");
+    }
+
+    @Benchmark
+    public Topic split() {
+        return Topic.split(this.path);
+    }
+
+    @Benchmark
+    public Topic of() {
+        return Topic.of("sensors", "building-1", "floor-2", "temperature");
+    }
+
+    @Benchmark
+    public String dataTopic() {
+        return this.namespace.dataTopic("gateway-1", "app1", this.topic);
+    }
+}
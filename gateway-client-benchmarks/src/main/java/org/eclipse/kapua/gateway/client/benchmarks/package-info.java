@@ -0,0 +1,4 @@
+/**
+ * JMH micro benchmarks for the encode, publish and dispatch hot paths
+ */
+package org.eclipse.kapua.gateway.client.benchmarks;
@@ -12,16 +12,12 @@
 package org.eclipse.kapua.gateway.client.kura;
 
 import java.nio.ByteBuffer;
-import java.time.Instant;
-import java.util.Map;
 import java.util.Objects;
 
 import org.eclipse.kapua.gateway.client.BinaryPayloadCodec;
 import org.eclipse.kapua.gateway.client.Payload;
-import org.eclipse.kapua.gateway.client.kura.internal.Metrics;
-import org.eclipse.kapua.gateway.client.kura.payload.KuraPayloadProto;
-import org.eclipse.kapua.gateway.client.kura.payload.KuraPayloadProto.KuraPayload;
-import org.eclipse.kapua.gateway.client.utils.Buffers;
+import org.eclipse.kapua.gateway.client.kura.internal.Decoder;
+import org.eclipse.kapua.gateway.client.kura.internal.Encoder;
 
 public class KuraBinaryPayloadCodec implements BinaryPayloadCodec {
 
@@ -40,35 +36,57 @@ public class KuraBinaryPayloadCodec implements BinaryPayloadCodec {
 
         Objects.requireNonNull(payload);
 
-        final KuraPayloadProto.KuraPayload.Builder builder = KuraPayload.newBuilder();
-        builder.setTimestamp(payload.getTimestamp().toEpochMilli());
-        Metrics.buildMetrics(builder, payload.getValues());
+        final int size = Encoder.computeSize(payload);
+        final ByteBuffer target = target(buffer, size);
 
-        final byte[] data = builder.build().toByteArray();
+        Encoder.encode(payload, target, size);
+
+        return target;
+    }
+
+    @Override
+    public ByteBuffer encodeBuilder(final Payload.Builder payload, final ByteBuffer buffer) throws Exception {
+
+        Objects.requireNonNull(payload);
+
+        final int size = Encoder.computeSize(payload);
+        final ByteBuffer target = target(buffer, size);
+
+        Encoder.encode(payload, target, size);
+
+        return target;
+    }
+
+    private static ByteBuffer target(final ByteBuffer buffer, final int size) {
+        final ByteBuffer target;
 
         if (buffer == null) {
-            // create a wrapped buffer
-            return Buffers.wrap(data);
-        } else if (buffer.remaining() < data.length) {
+            // create a new buffer
+            target = ByteBuffer.allocate(size);
+        } else if (buffer.remaining() < size) {
             // create a new, merged buffer
             buffer.flip();
-            final ByteBuffer newBuffer = ByteBuffer.allocate(buffer.remaining() + data.length);
-            newBuffer.put(buffer);
-            newBuffer.put(data);
-            return newBuffer;
+            target = ByteBuffer.allocate(buffer.remaining() + size);
+            target.put(buffer);
         } else {
-            buffer.put(data);
-            return buffer;
+            target = buffer;
         }
+
+        return target;
     }
 
     @Override
     public Payload decode(final ByteBuffer buffer) throws Exception {
         Objects.requireNonNull(buffer);
 
-        final KuraPayload payload = KuraPayload.parseFrom(Buffers.toByteArray(buffer));
-        final Map<String, Object> values = Metrics.extractMetrics(payload);
-        return Payload.of(Instant.ofEpochMilli(payload.getTimestamp()), values);
+        return Decoder.decode(buffer, true);
+    }
+
+    @Override
+    public Payload decodeOwned(final ByteBuffer buffer) throws Exception {
+        Objects.requireNonNull(buffer);
+
+        return Decoder.decode(buffer, false);
     }
 
 }
@@ -14,9 +14,6 @@ package org.eclipse.kapua.gateway.client.kura;
 import static java.util.Objects.requireNonNull;
 import static org.eclipse.kapua.gateway.client.Topic.ensureNotSpecial;
 
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
-
 import org.eclipse.kapua.gateway.client.Topic;
 import org.eclipse.kapua.gateway.client.mqtt.MqttNamespace;
 
@@ -55,16 +52,20 @@ public class KuraNamespace implements MqttNamespace {
 
     @Override
     public String dataTopic(final String clientId, final String applicationId, final Topic topic) {
+        final StringBuilder sb = new StringBuilder(dataTopicPrefix(clientId, applicationId));
+        for (final String segment : topic.getSegments()) {
+            sb.append(segment).append('/');
+        }
+        sb.setLength(sb.length() - 1);
+        return sb.toString();
+    }
+
+    @Override
+    public String dataTopicPrefix(final String clientId, final String applicationId) {
         ensureNotSpecial(clientId);
         ensureNotSpecial(applicationId);
 
-        return Stream.concat(
-                Stream.of(
-                        this.accountName,
-                        clientId,
-                        applicationId),
-                topic.stream())
-                .collect(Collectors.joining("/"));
+        return this.accountName + '/' + clientId + '/' + applicationId + '/';
     }
 
 }
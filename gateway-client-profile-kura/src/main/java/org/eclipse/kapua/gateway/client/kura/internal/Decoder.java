@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.kura.internal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Arrays;
+
+import org.eclipse.kapua.gateway.client.Payload;
+import org.eclipse.kapua.gateway.client.kura.payload.KuraPayloadProto.KuraPayload;
+import org.eclipse.kapua.gateway.client.kura.payload.KuraPayloadProto.KuraPayload.KuraMetric;
+import org.eclipse.kapua.gateway.client.kura.payload.KuraPayloadProto.KuraPayload.KuraMetric.ValueType;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+
+/**
+ * Read the Kura protobuf wire format directly into a {@link Payload}
+ * <p>
+ * In contrast to {@link KuraPayload#parseFrom(byte[])} in combination with
+ * {@link Metrics#extractMetrics(KuraPayload)} this does not create the protobuf
+ * object graph and does not copy all values into a new map. Only the metric names
+ * are read up front, the values get decoded once they are accessed. See
+ * {@link MetricsView}.
+ * </p>
+ */
+public final class Decoder {
+
+    private static final int TAG_TIMESTAMP = tag(KuraPayload.TIMESTAMP_FIELD_NUMBER, WireFormat.WIRETYPE_VARINT);
+    private static final int TAG_METRIC = tag(KuraPayload.METRIC_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+
+    private static final int TAG_NAME = tag(KuraMetric.NAME_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    private static final int TAG_TYPE = tag(KuraMetric.TYPE_FIELD_NUMBER, WireFormat.WIRETYPE_VARINT);
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private Decoder() {
+    }
+
+    static int tag(final int fieldNumber, final int wireType) {
+        return fieldNumber << 3 | wireType;
+    }
+
+    /**
+     * Decode a payload
+     * <p>
+     * The buffer will be fully consumed. The returned payload decodes values lazily.
+     * Unless the buffer is copied, the payload references its backing array, so its
+     * content must not change afterwards.
+     * </p>
+     *
+     * @param buffer
+     *            the buffer to read from, must not be {@code null}
+     * @param copy
+     *            {@code true} to copy the content, e.g. if the caller re-uses the buffer,
+     *            {@code false} if the buffer is owned by the payload, direct and read-only
+     *            buffers get copied anyway
+     * @return the decoded payload, never {@code null}
+     * @throws IOException
+     *             in case the buffer does not contain a valid Kura payload
+     */
+    public static Payload decode(final ByteBuffer buffer, final boolean copy) throws IOException {
+        final int length = buffer.remaining();
+        final byte[] data;
+        final int offset;
+
+        if (copy || !buffer.hasArray()) {
+            data = new byte[length];
+            buffer.get(data);
+            offset = 0;
+        } else {
+            data = buffer.array();
+            offset = buffer.arrayOffset() + buffer.position();
+            buffer.position(buffer.limit());
+        }
+
+        final CodedInputStream in = CodedInputStream.newInstance(data, offset, length);
+
+        long timestamp = 0;
+
+        int count = 0;
+        String[] names = new String[INITIAL_CAPACITY];
+        byte[] types = new byte[INITIAL_CAPACITY];
+        int[] offsets = new int[INITIAL_CAPACITY];
+        int[] lengths = new int[INITIAL_CAPACITY];
+
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            if (tag == TAG_TIMESTAMP) {
+                timestamp = in.readInt64();
+            } else if (tag == TAG_METRIC) {
+                final int metricLength = in.readRawVarint32();
+                final int metricOffset = offset + in.getTotalBytesRead();
+
+                final int limit = in.pushLimit(metricLength);
+
+                String name = null;
+                ValueType type = null;
+
+                int metricTag;
+                while ((metricTag = in.readTag()) != 0) {
+                    if (metricTag == TAG_NAME) {
+                        name = in.readString();
+                    } else if (metricTag == TAG_TYPE) {
+                        type = ValueType.valueOf(in.readEnum());
+                    } else {
+                        in.skipField(metricTag);
+                    }
+                }
+
+                in.popLimit(limit);
+
+                if (name == null || type == null) {
+                    throw new InvalidProtocolBufferException("Metric is missing required fields: name, type");
+                }
+
+                if (count == names.length) {
+                    final int capacity = count * 2;
+                    names = Arrays.copyOf(names, capacity);
+                    types = Arrays.copyOf(types, capacity);
+                    offsets = Arrays.copyOf(offsets, capacity);
+                    lengths = Arrays.copyOf(lengths, capacity);
+                }
+
+                names[count] = name;
+                types[count] = (byte) type.getNumber();
+                offsets[count] = metricOffset;
+                lengths[count] = metricLength;
+                count++;
+            } else {
+                in.skipField(tag);
+            }
+        }
+
+        return Payload.wrap(Instant.ofEpochMilli(timestamp), new MetricsView(data, count, names, types, offsets, lengths));
+    }
+
+}
@@ -0,0 +1,368 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.kura.internal;
+
+import static com.google.protobuf.CodedOutputStream.computeBoolSize;
+import static com.google.protobuf.CodedOutputStream.computeDoubleSize;
+import static com.google.protobuf.CodedOutputStream.computeEnumSize;
+import static com.google.protobuf.CodedOutputStream.computeFloatSize;
+import static com.google.protobuf.CodedOutputStream.computeInt32Size;
+import static com.google.protobuf.CodedOutputStream.computeInt64Size;
+import static com.google.protobuf.CodedOutputStream.computeRawVarint32Size;
+import static com.google.protobuf.CodedOutputStream.computeTagSize;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Map;
+
+import org.eclipse.kapua.gateway.client.Payload;
+import org.eclipse.kapua.gateway.client.kura.payload.KuraPayloadProto.KuraPayload;
+import org.eclipse.kapua.gateway.client.kura.payload.KuraPayloadProto.KuraPayload.KuraMetric;
+import org.eclipse.kapua.gateway.client.kura.payload.KuraPayloadProto.KuraPayload.KuraMetric.ValueType;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+
+/**
+ * Write the Kura protobuf wire format directly from a {@link Payload}
+ * <p>
+ * This produces exactly the same output as building a {@link KuraPayload}
+ * using {@link Metrics#buildMetrics(KuraPayload.Builder, Map)} and calling
+ * {@link KuraPayload#toByteArray()}, but without creating the intermediate
+ * protobuf object graph and byte arrays.
+ * </p>
+ */
+public final class Encoder {
+
+    /**
+     * Maximum size of the internal buffer when writing to a direct buffer
+     */
+    private static final int MAX_DIRECT_BUFFER_SIZE = CodedOutputStream.DEFAULT_BUFFER_SIZE;
+
+    private Encoder() {
+    }
+
+    /**
+     * Common source of values for {@link Payload} and {@link Payload.Builder}
+     */
+    @FunctionalInterface
+    private interface Values<E extends Exception> {
+
+        public void visitValues(Payload.ValueVisitor<E> visitor) throws E;
+    }
+
+    /**
+     * Compute the exact number of bytes {@link #encode(Payload, ByteBuffer, int)} will write
+     *
+     * @param payload
+     *            the payload to encode, must not be {@code null}
+     * @return the number of bytes required
+     * @throws IllegalArgumentException
+     *             in case of an unsupported value type
+     */
+    public static int computeSize(final Payload payload) {
+        return computeSize(payload.getTimestamp(), payload::visitValues);
+    }
+
+    /**
+     * Compute the exact number of bytes {@link #encode(Payload.Builder, ByteBuffer, int)} will write
+     *
+     * @param payload
+     *            the payload builder to encode, must not be {@code null}
+     * @return the number of bytes required
+     * @throws IllegalArgumentException
+     *             in case of an unsupported value type
+     */
+    public static int computeSize(final Payload.Builder payload) {
+        return computeSize(payload.timestamp(), payload::visitValues);
+    }
+
+    private static int computeSize(final Instant timestamp, final Values<RuntimeException> values) {
+        final SizeVisitor visitor = new SizeVisitor();
+        values.visitValues(visitor);
+        return computeInt64Size(KuraPayload.TIMESTAMP_FIELD_NUMBER, timestamp.toEpochMilli()) + visitor.size;
+    }
+
+    /**
+     * Encode a payload into a buffer
+     * <p>
+     * The buffer must have at least {@code size} bytes remaining. After the call the
+     * position of the buffer is advanced by {@code size} bytes.
+     * </p>
+     *
+     * @param payload
+     *            the payload to encode, must not be {@code null}
+     * @param buffer
+     *            the buffer to write to, must not be {@code null}
+     * @param size
+     *            the size as returned by {@link #computeSize(Payload)}
+     * @throws IOException
+     *             if writing fails
+     */
+    public static void encode(final Payload payload, final ByteBuffer buffer, final int size) throws IOException {
+        encode(payload.getTimestamp(), payload::visitValues, buffer, size);
+    }
+
+    /**
+     * Encode the current state of a payload builder into a buffer
+     *
+     * @param payload
+     *            the payload builder to encode, must not be {@code null}
+     * @param buffer
+     *            the buffer to write to, must not be {@code null}
+     * @param size
+     *            the size as returned by {@link #computeSize(Payload.Builder)}
+     * @throws IOException
+     *             if writing fails
+     * @see #encode(Payload, ByteBuffer, int)
+     */
+    public static void encode(final Payload.Builder payload, final ByteBuffer buffer, final int size) throws IOException {
+        encode(payload.timestamp(), payload::visitValues, buffer, size);
+    }
+
+    private static void encode(final Instant timestamp, final Values<IOException> values, final ByteBuffer buffer, final int size) throws IOException {
+        if (buffer.remaining() < size) {
+            throw new IllegalArgumentException(String.format("Buffer too small - required: %s, remaining: %s", size, buffer.remaining()));
+        }
+
+        if (buffer.hasArray()) {
+            final CodedOutputStream out = CodedOutputStream.newInstance(buffer.array(), buffer.arrayOffset() + buffer.position(), size);
+            write(out, timestamp, values);
+            out.checkNoSpaceLeft();
+            buffer.position(buffer.position() + size);
+        } else {
+            final CodedOutputStream out = CodedOutputStream.newInstance(buffer, Math.min(size, MAX_DIRECT_BUFFER_SIZE));
+            write(out, timestamp, values);
+            out.flush();
+        }
+    }
+
+    private static void write(final CodedOutputStream out, final Instant timestamp, final Values<IOException> values) throws IOException {
+        out.writeInt64(KuraPayload.TIMESTAMP_FIELD_NUMBER, timestamp.toEpochMilli());
+        values.visitValues(new WriteVisitor(out));
+    }
+
+    private static int computeMetricSize(final String name, final int type, final int valueSize) {
+        return computeStringSize(KuraMetric.NAME_FIELD_NUMBER, name) + computeEnumSize(KuraMetric.TYPE_FIELD_NUMBER, type) + valueSize;
+    }
+
+    private static int computeBytesSize(final int fieldNumber, final byte[] value) {
+        return computeTagSize(fieldNumber) + computeRawVarint32Size(value.length) + value.length;
+    }
+
+    /**
+     * Dispatches boxed values to the primitive methods
+     */
+    private static abstract class MetricVisitor<E extends Exception> implements Payload.ValueVisitor<E> {
+
+        protected abstract void visitString(String key, String value) throws E;
+
+        protected abstract void visitBytes(String key, byte[] value) throws E;
+
+        @Override
+        public void visitObject(final String key, final Object value) throws E {
+            if (value == null) {
+                // skip null values
+                return;
+            }
+
+            if (value instanceof Boolean) {
+                visitBoolean(key, (Boolean) value);
+            } else if (value instanceof Integer) {
+                visitInt(key, (Integer) value);
+            } else if (value instanceof String) {
+                visitString(key, (String) value);
+            } else if (value instanceof Long) {
+                visitLong(key, (Long) value);
+            } else if (value instanceof Double) {
+                visitDouble(key, (Double) value);
+            } else if (value instanceof Float) {
+                visitFloat(key, (Float) value);
+            } else if (value instanceof byte[]) {
+                visitBytes(key, (byte[]) value);
+            } else {
+                throw new IllegalArgumentException(String.format("Illegal metric data type: %s", value.getClass()));
+            }
+        }
+    }
+
+    private static final class SizeVisitor extends MetricVisitor<RuntimeException> {
+
+        private int size;
+
+        private void add(final String key, final int type, final int valueSize) {
+            final int metricSize = computeMetricSize(key, type, valueSize);
+            this.size += computeTagSize(KuraPayload.METRIC_FIELD_NUMBER) + computeRawVarint32Size(metricSize) + metricSize;
+        }
+
+        @Override
+        public void visitInt(final String key, final int value) {
+            add(key, ValueType.INT32_VALUE, computeInt32Size(KuraMetric.INT_VALUE_FIELD_NUMBER, value));
+        }
+
+        @Override
+        public void visitLong(final String key, final long value) {
+            add(key, ValueType.INT64_VALUE, computeInt64Size(KuraMetric.LONG_VALUE_FIELD_NUMBER, value));
+        }
+
+        @Override
+        public void visitFloat(final String key, final float value) {
+            add(key, ValueType.FLOAT_VALUE, computeFloatSize(KuraMetric.FLOAT_VALUE_FIELD_NUMBER, value));
+        }
+
+        @Override
+        public void visitDouble(final String key, final double value) {
+            add(key, ValueType.DOUBLE_VALUE, computeDoubleSize(KuraMetric.DOUBLE_VALUE_FIELD_NUMBER, value));
+        }
+
+        @Override
+        public void visitBoolean(final String key, final boolean value) {
+            add(key, ValueType.BOOL_VALUE, computeBoolSize(KuraMetric.BOOL_VALUE_FIELD_NUMBER, value));
+        }
+
+        @Override
+        protected void visitString(final String key, final String value) {
+            add(key, ValueType.STRING_VALUE, computeStringSize(KuraMetric.STRING_VALUE_FIELD_NUMBER, value));
+        }
+
+        @Override
+        protected void visitBytes(final String key, final byte[] value) {
+            add(key, ValueType.BYTES_VALUE, computeBytesSize(KuraMetric.BYTES_VALUE_FIELD_NUMBER, value));
+        }
+    }
+
+    private static final class WriteVisitor extends MetricVisitor<IOException> {
+
+        private final CodedOutputStream out;
+
+        private WriteVisitor(final CodedOutputStream out) {
+            this.out = out;
+        }
+
+        private void writeHeader(final String key, final int type, final int valueSize) throws IOException {
+            this.out.writeTag(KuraPayload.METRIC_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            this.out.writeRawVarint32(computeMetricSize(key, type, valueSize));
+            writeString(this.out, KuraMetric.NAME_FIELD_NUMBER, key);
+            this.out.writeEnum(KuraMetric.TYPE_FIELD_NUMBER, type);
+        }
+
+        @Override
+        public void visitInt(final String key, final int value) throws IOException {
+            writeHeader(key, ValueType.INT32_VALUE, computeInt32Size(KuraMetric.INT_VALUE_FIELD_NUMBER, value));
+            this.out.writeInt32(KuraMetric.INT_VALUE_FIELD_NUMBER, value);
+        }
+
+        @Override
+        public void visitLong(final String key, final long value) throws IOException {
+            writeHeader(key, ValueType.INT64_VALUE, computeInt64Size(KuraMetric.LONG_VALUE_FIELD_NUMBER, value));
+            this.out.writeInt64(KuraMetric.LONG_VALUE_FIELD_NUMBER, value);
+        }
+
+        @Override
+        public void visitFloat(final String key, final float value) throws IOException {
+            writeHeader(key, ValueType.FLOAT_VALUE, computeFloatSize(KuraMetric.FLOAT_VALUE_FIELD_NUMBER, value));
+            this.out.writeFloat(KuraMetric.FLOAT_VALUE_FIELD_NUMBER, value);
+        }
+
+        @Override
+        public void visitDouble(final String key, final double value) throws IOException {
+            writeHeader(key, ValueType.DOUBLE_VALUE, computeDoubleSize(KuraMetric.DOUBLE_VALUE_FIELD_NUMBER, value));
+            this.out.writeDouble(KuraMetric.DOUBLE_VALUE_FIELD_NUMBER, value);
+        }
+
+        @Override
+        public void visitBoolean(final String key, final boolean value) throws IOException {
+            writeHeader(key, ValueType.BOOL_VALUE, computeBoolSize(KuraMetric.BOOL_VALUE_FIELD_NUMBER, value));
+            this.out.writeBool(KuraMetric.BOOL_VALUE_FIELD_NUMBER, value);
+        }
+
+        @Override
+        protected void visitString(final String key, final String value) throws IOException {
+            writeHeader(key, ValueType.STRING_VALUE, computeStringSize(KuraMetric.STRING_VALUE_FIELD_NUMBER, value));
+            writeString(this.out, KuraMetric.STRING_VALUE_FIELD_NUMBER, value);
+        }
+
+        @Override
+        protected void visitBytes(final String key, final byte[] value) throws IOException {
+            writeHeader(key, ValueType.BYTES_VALUE, computeBytesSize(KuraMetric.BYTES_VALUE_FIELD_NUMBER, value));
+            this.out.writeByteArray(KuraMetric.BYTES_VALUE_FIELD_NUMBER, value);
+        }
+    }
+
+    /*
+     * The protobuf string methods encode the string into a temporary byte array,
+     * for both computing the size and writing. So we do the UTF-8 encoding ourselves.
+     */
+
+    private static int computeStringSize(final int fieldNumber, final String value) {
+        final int length = utf8Length(value);
+        return computeTagSize(fieldNumber) + computeRawVarint32Size(length) + length;
+    }
+
+    private static void writeString(final CodedOutputStream out, final int fieldNumber, final String value) throws IOException {
+        out.writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        out.writeRawVarint32(utf8Length(value));
+
+        final int length = value.length();
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                out.writeRawByte(c);
+            } else if (c < 0x800) {
+                out.writeRawByte(0xC0 | c >>> 6);
+                out.writeRawByte(0x80 | c & 0x3F);
+            } else if (!Character.isSurrogate(c)) {
+                out.writeRawByte(0xE0 | c >>> 12);
+                out.writeRawByte(0x80 | c >>> 6 & 0x3F);
+                out.writeRawByte(0x80 | c & 0x3F);
+            } else if (isSurrogatePair(value, i)) {
+                final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                out.writeRawByte(0xF0 | codePoint >>> 18);
+                out.writeRawByte(0x80 | codePoint >>> 12 & 0x3F);
+                out.writeRawByte(0x80 | codePoint >>> 6 & 0x3F);
+                out.writeRawByte(0x80 | codePoint & 0x3F);
+            } else {
+                // same as String.getBytes, replace malformed input
+                out.writeRawByte('?');
+            }
+        }
+    }
+
+    static int utf8Length(final String value) {
+        final int length = value.length();
+        int result = length;
+
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                continue;
+            } else if (c < 0x800) {
+                result += 1;
+            } else if (!Character.isSurrogate(c)) {
+                result += 2;
+            } else if (isSurrogatePair(value, i)) {
+                // two chars, four bytes
+                result += 2;
+                i++;
+            }
+        }
+
+        return result;
+    }
+
+    private static boolean isSurrogatePair(final String value, final int index) {
+        return Character.isHighSurrogate(value.charAt(index))
+                && index + 1 < value.length()
+                && Character.isLowSurrogate(value.charAt(index + 1));
+    }
+}
@@ -0,0 +1,327 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.kura.internal;
+
+import static org.eclipse.kapua.gateway.client.kura.internal.Decoder.tag;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+import org.eclipse.kapua.gateway.client.kura.payload.KuraPayloadProto.KuraPayload.KuraMetric;
+import org.eclipse.kapua.gateway.client.kura.payload.KuraPayloadProto.KuraPayload.KuraMetric.ValueType;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.WireFormat;
+
+/**
+ * A read-only map of Kura metrics, decoding values on access
+ * <p>
+ * The map only holds the names, types and the location of the encoded
+ * metrics in the original data. A value gets decoded when it is first
+ * accessed and is cached afterwards. Iteration order is the order of the
+ * metrics in the encoded payload. As with the protobuf parser, if a metric
+ * name occurs more than once, the last occurrence wins.
+ * </p>
+ */
+public final class MetricsView extends AbstractMap<String, Object> {
+
+    private static final int TAG_DOUBLE = tag(KuraMetric.DOUBLE_VALUE_FIELD_NUMBER, WireFormat.WIRETYPE_FIXED64);
+    private static final int TAG_FLOAT = tag(KuraMetric.FLOAT_VALUE_FIELD_NUMBER, WireFormat.WIRETYPE_FIXED32);
+    private static final int TAG_LONG = tag(KuraMetric.LONG_VALUE_FIELD_NUMBER, WireFormat.WIRETYPE_VARINT);
+    private static final int TAG_INT = tag(KuraMetric.INT_VALUE_FIELD_NUMBER, WireFormat.WIRETYPE_VARINT);
+    private static final int TAG_BOOL = tag(KuraMetric.BOOL_VALUE_FIELD_NUMBER, WireFormat.WIRETYPE_VARINT);
+    private static final int TAG_STRING = tag(KuraMetric.STRING_VALUE_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    private static final int TAG_BYTES = tag(KuraMetric.BYTES_VALUE_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+
+    private static final byte[] EMPTY_BYTES = new byte[0];
+
+    private final byte[] data;
+    private final int count;
+    private final String[] names;
+    private final byte[] types;
+    private final int[] offsets;
+    private final int[] lengths;
+
+    private final Object[] values;
+
+    /**
+     * Open addressing hash table, holding the index of the metric plus one
+     */
+    private final int[] table;
+    private final int size;
+
+    private Set<Map.Entry<String, Object>> entrySet;
+
+    MetricsView(final byte[] data, final int count, final String[] names, final byte[] types, final int[] offsets, final int[] lengths) {
+        this.data = data;
+        this.count = count;
+        this.names = names;
+        this.types = types;
+        this.offsets = offsets;
+        this.lengths = lengths;
+
+        this.values = new Object[count];
+
+        this.table = new int[Integer.highestOneBit(Math.max(count, 1)) << 2];
+
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            if (insert(i)) {
+                size++;
+            }
+        }
+        this.size = size;
+    }
+
+    private int slot(final Object key) {
+        final int hash = key.hashCode();
+        return (hash ^ hash >>> 16) & this.table.length - 1;
+    }
+
+    private boolean insert(final int index) {
+        final String name = this.names[index];
+
+        for (int slot = slot(name);; slot = slot + 1 & this.table.length - 1) {
+            final int entry = this.table[slot];
+            if (entry == 0) {
+                this.table[slot] = index + 1;
+                return true;
+            }
+            if (this.names[entry - 1].equals(name)) {
+                // replace, last one wins
+                this.table[slot] = index + 1;
+                return false;
+            }
+        }
+    }
+
+    private int indexOf(final Object key) {
+        if (!(key instanceof String)) {
+            return -1;
+        }
+
+        for (int slot = slot(key);; slot = slot + 1 & this.table.length - 1) {
+            final int entry = this.table[slot];
+            if (entry == 0) {
+                return -1;
+            }
+            if (this.names[entry - 1].equals(key)) {
+                return entry - 1;
+            }
+        }
+    }
+
+    private Object value(final int index) {
+        Object result = this.values[index];
+        if (result == null) {
+            try {
+                result = decodeValue(index);
+            } catch (final IOException e) {
+                // the structure was already validated when creating the view
+                throw new IllegalStateException("Failed to decode metric: " + this.names[index], e);
+            }
+            this.values[index] = result;
+        }
+        return result;
+    }
+
+    private Object decodeValue(final int index) throws IOException {
+        final CodedInputStream in = CodedInputStream.newInstance(this.data, this.offsets[index], this.lengths[index]);
+
+        Object result = null;
+
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            switch (this.types[index]) {
+            case ValueType.DOUBLE_VALUE:
+                if (tag == TAG_DOUBLE) {
+                    result = in.readDouble();
+                    continue;
+                }
+                break;
+            case ValueType.FLOAT_VALUE:
+                if (tag == TAG_FLOAT) {
+                    result = in.readFloat();
+                    continue;
+                }
+                break;
+            case ValueType.INT64_VALUE:
+                if (tag == TAG_LONG) {
+                    result = in.readInt64();
+                    continue;
+                }
+                break;
+            case ValueType.INT32_VALUE:
+                if (tag == TAG_INT) {
+                    result = in.readInt32();
+                    continue;
+                }
+                break;
+            case ValueType.BOOL_VALUE:
+                if (tag == TAG_BOOL) {
+                    result = in.readBool();
+                    continue;
+                }
+                break;
+            case ValueType.STRING_VALUE:
+                if (tag == TAG_STRING) {
+                    result = in.readString();
+                    continue;
+                }
+                break;
+            case ValueType.BYTES_VALUE:
+                if (tag == TAG_BYTES) {
+                    result = in.readRawBytes(in.readRawVarint32());
+                    continue;
+                }
+                break;
+            }
+            in.skipField(tag);
+        }
+
+        return result != null ? result : defaultValue(this.types[index]);
+    }
+
+    private static Object defaultValue(final byte type) {
+        switch (type) {
+        case ValueType.DOUBLE_VALUE:
+            return 0.0;
+        case ValueType.FLOAT_VALUE:
+            return 0.0f;
+        case ValueType.INT64_VALUE:
+            return 0L;
+        case ValueType.INT32_VALUE:
+            return 0;
+        case ValueType.BOOL_VALUE:
+            return false;
+        case ValueType.STRING_VALUE:
+            return "";
+        default:
+            return EMPTY_BYTES;
+        }
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public Object get(final Object key) {
+        final int index = indexOf(key);
+        return index < 0 ? null : value(index);
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        if (this.entrySet == null) {
+            this.entrySet = new EntrySet();
+        }
+        return this.entrySet;
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<String, Object>> {
+
+        @Override
+        public int size() {
+            return MetricsView.this.size;
+        }
+
+        @Override
+        public Iterator<Map.Entry<String, Object>> iterator() {
+            return new Iterator<Map.Entry<String, Object>>() {
+
+                private int next = advance(0);
+
+                private int advance(int index) {
+                    // skip over entries which got replaced by a later one
+                    while (index < MetricsView.this.count && indexOf(MetricsView.this.names[index]) != index) {
+                        index++;
+                    }
+                    return index;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return this.next < MetricsView.this.count;
+                }
+
+                @Override
+                public Map.Entry<String, Object> next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    final Entry result = new Entry(this.next);
+                    this.next = advance(this.next + 1);
+                    return result;
+                }
+            };
+        }
+    }
+
+    private final class Entry implements Map.Entry<String, Object> {
+
+        private final int index;
+
+        private Entry(final int index) {
+            this.index = index;
+        }
+
+        @Override
+        public String getKey() {
+            return MetricsView.this.names[this.index];
+        }
+
+        @Override
+        public Object getValue() {
+            return value(this.index);
+        }
+
+        @Override
+        public Object setValue(final Object value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int hashCode() {
+            return getKey().hashCode() ^ Objects.hashCode(getValue());
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Map.Entry)) {
+                return false;
+            }
+            final Map.Entry<?, ?> other = (Map.Entry<?, ?>) obj;
+            return getKey().equals(other.getKey()) && Objects.equals(getValue(), other.getValue());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+}
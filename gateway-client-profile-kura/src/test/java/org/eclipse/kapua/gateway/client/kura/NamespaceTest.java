@@ -52,6 +52,24 @@ public class NamespaceTest {
         Assert.assertEquals("account/c1/a1/seg1/seg2", namespace.dataTopic("c1", "a1", Topic.of("seg1", "seg2")));
     }
 
+    @Test
+    public void testPrefix() {
+        final KuraNamespace namespace = new KuraNamespace.Builder()
+                .accountName("account")
+                .build();
+        final Topic topic = Topic.of("seg1", "seg2");
+        Assert.assertEquals("account/c1/a1/", namespace.dataTopicPrefix("c1", "a1"));
+        Assert.assertEquals(namespace.dataTopic("c1", "a1", topic), namespace.dataTopicPrefix("c1", "a1") + topic);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPrefix() {
+        new KuraNamespace.Builder()
+                .accountName("account")
+                .build()
+                .dataTopicPrefix("c1", "+");
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testInvalidAccountId1() {
         new KuraNamespace.Builder()
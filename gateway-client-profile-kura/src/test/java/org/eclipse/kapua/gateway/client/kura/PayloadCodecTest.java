@@ -12,17 +12,35 @@
 package org.eclipse.kapua.gateway.client.kura;
 
 import static java.util.Collections.singletonMap;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.eclipse.kapua.gateway.client.Payload;
+import org.eclipse.kapua.gateway.client.kura.internal.Metrics;
+import org.eclipse.kapua.gateway.client.kura.payload.KuraPayloadProto.KuraPayload;
+import org.eclipse.kapua.gateway.client.kura.payload.KuraPayloadProto.KuraPayload.KuraMetric;
+import org.eclipse.kapua.gateway.client.kura.payload.KuraPayloadProto.KuraPayload.KuraMetric.ValueType;
+import org.eclipse.kapua.gateway.client.utils.Buffers;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+
 public class PayloadCodecTest {
 
     private KuraBinaryPayloadCodec codec;
@@ -90,4 +108,243 @@ public class PayloadCodecTest {
         Assert.assertEquals(singletonMap("foo", 1), payload1.getValues());
         Assert.assertEquals(singletonMap("bar", 2), payload2.getValues());
     }
+
+    @Test
+    public void testEncodeSameAsProtobuf() throws Exception {
+        final Map<String, Object> values = new LinkedHashMap<>();
+        values.put("bool", true);
+        values.put("int", 42);
+        values.put("negative", -1);
+        values.put("long", Long.MAX_VALUE);
+        values.put("float", 1.5f);
+        values.put("double", -2.25);
+        values.put("string", "foo");
+        values.put("utf8", "\u00e4\u20ac\ud83d\ude00");
+        values.put("malformed", "\ud83d");
+        values.put("bytes", new byte[] { 1, 2, 3 });
+        values.put("null", null);
+        values.put("gr\u00fc\u00dfe", "");
+
+        final Payload payload = Payload.of(Instant.ofEpochMilli(1_234_567L), values);
+
+        final KuraPayload.Builder builder = KuraPayload.newBuilder();
+        builder.setTimestamp(payload.getTimestamp().toEpochMilli());
+        Metrics.buildMetrics(builder, payload.getValues());
+        final byte[] expected = builder.build().toByteArray();
+
+        final ByteBuffer buffer = codec.encode(payload, null);
+        buffer.flip();
+
+        assertArrayEquals(expected, Buffers.toByteArray(buffer));
+    }
+
+    @Test
+    public void testEncodeDirectBuffer() throws Exception {
+        final Payload payload = Payload.of("foo", "bar");
+
+        final ByteBuffer expected = codec.encode(payload, null);
+        expected.flip();
+
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(100);
+        assertTrue(buffer == codec.encode(payload, buffer));
+
+        buffer.flip();
+        assertEquals(expected, buffer);
+    }
+
+    @Test
+    public void testEncodeMerged() throws Exception {
+        final ByteBuffer buffer = ByteBuffer.allocate(2);
+        buffer.put((byte) 1);
+
+        final ByteBuffer result = codec.encode(Payload.of("foo", 1), buffer);
+        result.flip();
+
+        assertEquals(21, result.remaining());
+        assertEquals(1, result.get());
+        assertEquals(singletonMap("foo", 1), codec.decode(result).getValues());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEncodeUnsupported() throws Exception {
+        codec.encode(Payload.of("foo", new Object()), null);
+    }
+
+    @Test
+    public void testDecodeSameAsProtobuf() throws Exception {
+        final Map<String, Object> values = new LinkedHashMap<>();
+        values.put("bool", true);
+        values.put("int", 42);
+        values.put("long", Long.MIN_VALUE);
+        values.put("float", 1.5f);
+        values.put("double", -2.25);
+        values.put("string", "\u00e4\u20ac\ud83d\ude00");
+        values.put("bytes", new byte[] { 1, 2, 3 });
+
+        final KuraPayload.Builder builder = KuraPayload.newBuilder();
+        builder.setTimestamp(1_234_567L);
+        builder.setBody(ByteString.copyFromUtf8("body"));
+        Metrics.buildMetrics(builder, values);
+        final KuraPayload expected = builder.build();
+
+        final ByteBuffer buffer = ByteBuffer.wrap(expected.toByteArray());
+        final Payload payload = codec.decode(buffer);
+
+        assertFalse(buffer.hasRemaining());
+        assertEquals(Instant.ofEpochMilli(1_234_567L), payload.getTimestamp());
+
+        final Map<String, Object> expectedValues = Metrics.extractMetrics(expected);
+        assertEquals(expectedValues.keySet(), payload.getValues().keySet());
+        assertArrayEquals((byte[]) expectedValues.remove("bytes"), (byte[]) payload.getValues().get("bytes"));
+        for (final Map.Entry<String, Object> entry : expectedValues.entrySet()) {
+            assertEquals(entry.getValue(), payload.getValues().get(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void testDecodeOrderAndDuplicates() throws Exception {
+        final KuraPayload.Builder builder = KuraPayload.newBuilder();
+        Metrics.addMetric(builder, "b", 1);
+        Metrics.addMetric(builder, "a", 2);
+        Metrics.addMetric(builder, "b", "3");
+
+        final Payload payload = codec.decode(ByteBuffer.wrap(builder.build().toByteArray()));
+
+        assertEquals(2, payload.getValues().size());
+        assertEquals(Arrays.asList("a", "b"), new ArrayList<>(payload.getValues().keySet()));
+        assertEquals("3", payload.getValues().get("b"));
+        assertFalse(payload.getValues().containsKey("c"));
+        assertNull(payload.getValues().get(1));
+
+        final Map<String, Object> expected = new HashMap<>();
+        expected.put("a", 2);
+        expected.put("b", "3");
+        assertEquals(expected, payload.getValues());
+        assertEquals(expected.hashCode(), payload.getValues().hashCode());
+    }
+
+    @Test
+    public void testDecodeDirectBuffer() throws Exception {
+        final ByteBuffer encoded = codec.encode(Payload.of("foo", "bar"), null);
+        encoded.flip();
+
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(encoded.remaining());
+        buffer.put(encoded);
+        buffer.flip();
+
+        assertEquals(singletonMap("foo", "bar"), codec.decode(buffer).getValues());
+    }
+
+    @Test
+    public void testDecodeDefaultValue() throws Exception {
+        final KuraPayload.Builder builder = KuraPayload.newBuilder();
+        builder.addMetric(KuraMetric.newBuilder().setName("foo").setType(ValueType.INT64));
+
+        assertEquals(singletonMap("foo", 0L), codec.decode(ByteBuffer.wrap(builder.build().toByteArray())).getValues());
+    }
+
+    @Test(expected = InvalidProtocolBufferException.class)
+    public void testDecodeMissingType() throws Exception {
+        final KuraPayload.Builder builder = KuraPayload.newBuilder();
+        builder.addMetric(KuraMetric.newBuilder().setName("foo").setType(ValueType.INT64));
+
+        final byte[] data = builder.build().toByteArray();
+        // remove the type field (tag and value) from the end of the metric
+        final byte[] truncated = Arrays.copyOf(data, data.length - 2);
+        truncated[3] -= 2;
+
+        codec.decode(ByteBuffer.wrap(truncated));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testDecodeReadOnly() throws Exception {
+        final ByteBuffer buffer = codec.encode(Payload.of("foo", 1), null);
+        buffer.flip();
+
+        codec.decode(buffer).getValues().clear();
+    }
+
+    @Test
+    public void testDecodeDetached() throws Exception {
+        final ByteBuffer buffer = codec.encode(Payload.of("foo", "bar"), null);
+        buffer.flip();
+
+        final Payload payload = codec.decode(buffer.duplicate());
+
+        // re-use the buffer, before reading any value
+
+        buffer.clear();
+        Arrays.fill(buffer.array(), (byte) 0);
+
+        assertEquals(singletonMap("foo", "bar"), payload.getValues());
+    }
+
+    @Test
+    public void testDecodeOwnedSlice() throws Exception {
+        final ByteBuffer encoded = codec.encode(Payload.of("foo", "bar"), null);
+        encoded.flip();
+
+        final ByteBuffer buffer = ByteBuffer.allocate(encoded.remaining() + 10);
+        buffer.position(5);
+        buffer.put(encoded);
+        buffer.position(5);
+        buffer.limit(buffer.limit() - 5);
+
+        final ByteBuffer slice = buffer.slice();
+        final Payload payload = codec.decodeOwned(slice);
+
+        assertFalse(slice.hasRemaining());
+        assertEquals(singletonMap("foo", "bar"), payload.getValues());
+    }
+
+    @Test
+    public void testEncodePrimitives() throws Exception {
+        final Payload boxed = new Payload.Builder()
+                .timestamp(Instant.ofEpochMilli(1L))
+                .put("int", -1)
+                .put("long", Long.MAX_VALUE)
+                .put("float", 1.5f)
+                .put("double", 2.25)
+                .put("bool", true)
+                .put("null", null)
+                .build();
+
+        final Payload primitive = new Payload.Builder()
+                .timestamp(Instant.ofEpochMilli(1L))
+                .putInt("int", -1)
+                .putLong("long", Long.MAX_VALUE)
+                .putFloat("float", 1.5f)
+                .putDouble("double", 2.25)
+                .putBoolean("bool", true)
+                .put("null", null)
+                .build();
+
+        final ByteBuffer expected = codec.encode(boxed, null);
+        expected.flip();
+        final ByteBuffer actual = codec.encode(primitive, null);
+        actual.flip();
+
+        assertEquals(expected, actual);
+
+        final Map<String, Object> values = new HashMap<>(primitive.getValues());
+        values.remove("null");
+        assertEquals(values, codec.decode(actual).getValues());
+    }
+
+    @Test
+    public void testEncodeBuilder() throws Exception {
+        final Payload.Builder builder = new Payload.Builder()
+                .timestamp(Instant.ofEpochMilli(1L))
+                .putInt("int", 1)
+                .put("string", "foo");
+
+        final ByteBuffer expected = codec.encode(builder.build(), null);
+        expected.flip();
+
+        final ByteBuffer buffer = ByteBuffer.allocate(100);
+        assertTrue(buffer == codec.encodeBuilder(builder, buffer));
+        buffer.flip();
+
+        assertEquals(expected, buffer);
+    }
 }
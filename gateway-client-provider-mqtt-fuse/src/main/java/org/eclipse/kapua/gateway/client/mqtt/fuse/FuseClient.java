@@ -14,12 +14,11 @@ package org.eclipse.kapua.gateway.client.mqtt.fuse;
 import static java.util.Objects.requireNonNull;
 import static org.eclipse.kapua.gateway.client.utils.Strings.nonEmptyText;
 
+import java.io.IOException;
 import java.net.URI;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
@@ -33,8 +32,13 @@ import org.eclipse.kapua.gateway.client.mqtt.MqttClient;
 import org.eclipse.kapua.gateway.client.mqtt.MqttMessageHandler;
 import org.eclipse.kapua.gateway.client.mqtt.MqttNamespace;
 import org.eclipse.kapua.gateway.client.mqtt.fuse.internal.Callbacks;
+import org.eclipse.kapua.gateway.client.utils.Buffers;
+import org.eclipse.kapua.gateway.client.utils.ExponentialBackoff;
+import org.eclipse.kapua.gateway.client.utils.ReconnectPolicy;
 import org.fusesource.hawtbuf.Buffer;
 import org.fusesource.hawtbuf.UTF8Buffer;
+import org.fusesource.hawtdispatch.Dispatch;
+import org.fusesource.hawtdispatch.DispatchQueue;
 import org.fusesource.mqtt.client.Callback;
 import org.fusesource.mqtt.client.CallbackConnection;
 import org.fusesource.mqtt.client.ExtendedListener;
@@ -50,6 +54,11 @@ public class FuseClient extends MqttClient {
 
     public static class Builder extends MqttClient.Builder<Builder> {
 
+        public Builder() {
+            // keep the session, as Fuse restores subscriptions on its own
+            cleanSession(false);
+        }
+
         @Override
         protected Builder builder() {
             return this;
@@ -65,9 +74,11 @@ public class FuseClient extends MqttClient {
             final BinaryPayloadCodec codec = requireNonNull(codec(), "Codec must be set");
 
             final MQTT mqtt = new MQTT();
-            mqtt.setCleanSession(false);
+            mqtt.setCleanSession(cleanSession());
             mqtt.setHost(broker);
             mqtt.setClientId(clientId);
+            mqtt.setDispatchQueue(Dispatch.createQueue(clientId));
+            applyReconnectPolicy(mqtt, reconnectPolicy());
 
             final Object credentials = credentials();
             if (credentials == null) {
@@ -82,20 +93,42 @@ public class FuseClient extends MqttClient {
             }
 
             CallbackConnection connection = mqtt.callbackConnection();
-            ScheduledExecutorService executor = createExecutor(clientId);
+            ScheduledExecutorService executor = executor() != null ? executor() : createExecutor(clientId);
             try {
-                final FuseClient result = new FuseClient(modules(), clientId, executor, namespace, codec, connection);
+                final FuseClient result = new FuseClient(modules(), clientId, executor, namespace, codec, connection, this);
                 connection = null;
                 executor = null;
                 return result;
             } finally {
-                if (executor != null) {
+                if (executor != null && executor() == null) {
                     executor.shutdown();
                 }
             }
         }
     }
 
+    /**
+     * Map the reconnect policy to the reconnect settings of Fuse
+     * <p>
+     * Fuse performs reconnects internally and does not support jitter. Instead
+     * the initial delay gets randomized once per client, so that the schedules
+     * of different clients still diverge.
+     * </p>
+     */
+    private static void applyReconnectPolicy(final MQTT mqtt, final ReconnectPolicy policy) {
+        final long initialDelay = Math.max(1, policy.nextDelay(1).toMillis());
+        mqtt.setReconnectDelay(initialDelay);
+
+        if (policy instanceof ExponentialBackoff) {
+            final ExponentialBackoff backoff = (ExponentialBackoff) policy;
+            mqtt.setReconnectDelayMax(Math.max(initialDelay, backoff.getMaxDelay().toMillis()));
+            mqtt.setReconnectBackOffMultiplier(backoff.getMultiplier());
+        } else {
+            mqtt.setReconnectDelayMax(initialDelay);
+            mqtt.setReconnectBackOffMultiplier(1.0);
+        }
+    }
+
     private static ScheduledExecutorService createExecutor(final String clientId) {
         return Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, clientId));
     }
@@ -140,12 +173,10 @@ public class FuseClient extends MqttClient {
 
     private final CallbackConnection connection;
 
-    private final Map<String, MqttMessageHandler> subscriptions = new HashMap<>();
-
     private FuseClient(final Set<Module> modules, final String clientId, final ScheduledExecutorService executor,
-            final MqttNamespace namespace, final BinaryPayloadCodec codec, final CallbackConnection connection) {
+            final MqttNamespace namespace, final BinaryPayloadCodec codec, final CallbackConnection connection, final Builder builder) throws IOException {
 
-        super(executor, codec, namespace, clientId, modules);
+        super(executor, codec, namespace, clientId, modules, builder);
 
         this.connection = connection;
 
@@ -153,30 +184,72 @@ public class FuseClient extends MqttClient {
         connection.connect(new Promise<>());
     }
 
+    /**
+     * Run a task on the dispatch queue of the connection
+     * <p>
+     * Fuse is not thread safe, the connection and its transport must only be used
+     * from its dispatch queue. Publishing, subscribing, acknowledgements and flow
+     * control may be triggered by any thread of the client or processing a message.
+     * </p>
+     */
+    private void executeOnConnection(final Runnable task) {
+        final DispatchQueue queue = this.connection.getDispatchQueue();
+        if (queue.isExecuting()) {
+            task.run();
+        } else {
+            queue.execute(task);
+        }
+    }
+
+    @Override
+    protected void suspendInbound() {
+        executeOnConnection(this.connection::suspend);
+    }
+
+    @Override
+    protected void resumeInbound() {
+        executeOnConnection(this.connection::resume);
+    }
+
     @Override
     public void close() {
+        closeOutboundQueue();
         connection.disconnect(null);
-        executor.shutdown();
+        shutdownExecutor();
+        closeStoreAndForward();
     }
 
     @Override
-    public void publishMqtt(final String topic, final ByteBuffer payload) {
-        this.connection.publish(Buffer.utf8(topic), new Buffer(payload), QoS.AT_LEAST_ONCE, false, null);
+    public CompletionStage<Void> publishMqtt(final String topic, final ByteBuffer payload, final org.eclipse.kapua.gateway.client.QoS qos, final boolean retain) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        // the buffer gets sent asynchronously, so we need to copy the payload
+        final Buffer body = new Buffer(Buffers.toByteArray(payload));
+        executeOnConnection(() -> this.connection.publish(Buffer.utf8(topic), body, toQoS(qos), retain, Callbacks.asCallback(future)));
+        return future;
+    }
+
+    private static QoS toQoS(final org.eclipse.kapua.gateway.client.QoS qos) {
+        switch (qos) {
+        case AT_MOST_ONCE:
+            return QoS.AT_MOST_ONCE;
+        case EXACTLY_ONCE:
+            return QoS.EXACTLY_ONCE;
+        default:
+            return QoS.AT_LEAST_ONCE;
+        }
     }
 
     @Override
-    protected CompletionStage<?> subscribeMqtt(final String topic, final MqttMessageHandler messageHandler) {
-        synchronized (this) {
-            this.subscriptions.put(topic, messageHandler);
+    protected CompletionStage<?> subscribeMqtt(final String topic, final org.eclipse.kapua.gateway.client.QoS qos, final MqttMessageHandler messageHandler) {
+        this.subscriptions.put(topic, qos, messageHandler);
 
-            final CompletableFuture<byte[]> future = new CompletableFuture<>();
-            connection.subscribe(
-                    new org.fusesource.mqtt.client.Topic[] {
-                            new org.fusesource.mqtt.client.Topic(topic, QoS.AT_LEAST_ONCE) },
-                    Callbacks.asCallback(future));
+        final CompletableFuture<byte[]> future = new CompletableFuture<>();
+        executeOnConnection(() -> this.connection.subscribe(
+                new org.fusesource.mqtt.client.Topic[] {
+                        new org.fusesource.mqtt.client.Topic(topic, toQoS(qos)) },
+                Callbacks.asCallback(future)));
 
-            return future;
-        }
+        return future;
     }
 
     @Override
@@ -186,31 +259,36 @@ public class FuseClient extends MqttClient {
 
         final List<UTF8Buffer> topics = new ArrayList<>(mqttTopics.size());
 
-        synchronized (this) {
-            for (final String topic : mqttTopics) {
-                if (subscriptions.remove(topic) != null) {
-                    topics.add(new UTF8Buffer(topic));
-                }
+        for (final String topic : mqttTopics) {
+            if (this.subscriptions.remove(topic)) {
+                topics.add(new UTF8Buffer(topic));
             }
         }
 
-        connection.unsubscribe(topics.toArray(new UTF8Buffer[topics.size()]), new Promise<>());
+        executeOnConnection(() -> this.connection.unsubscribe(topics.toArray(new UTF8Buffer[topics.size()]), new Promise<>()));
     }
 
     protected void handleMessageArrived(final String topic, final Buffer payload, final Callback<Callback<Void>> ack) {
-        final MqttMessageHandler handler;
-
-        synchronized (this) {
-            handler = this.subscriptions.get(topic);
+        if (isManualAcks()) {
+            // the ack gets sent after processing, the payload must outlive this call
+            dispatchMessage(topic, payload.deepCopy().toByteBuffer(), error -> executeOnConnection(() -> {
+                if (error == null) {
+                    ack.onSuccess(null);
+                } else {
+                    ack.onFailure(error);
+                }
+            }));
+            return;
         }
 
-        if (handler != null) {
-            try {
-                handler.handleMessage(topic, payload.toByteBuffer());
+        try {
+            // the payload must outlive this call when handled by the worker pool
+            final Buffer buffer = isInboundDispatch() ? payload.deepCopy() : payload;
+            if (dispatchMessage(topic, buffer.toByteBuffer())) {
                 ack.onSuccess(null);
-            } catch (Exception e) {
-                ack.onFailure(e);
             }
+        } catch (Exception e) {
+            ack.onFailure(e);
         }
     }
 
@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.mqtt.fuse;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.kapua.gateway.client.BinaryPayloadCodec;
+import org.eclipse.kapua.gateway.client.Payload;
+import org.eclipse.kapua.gateway.client.QoS;
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtdispatch.Dispatch;
+import org.fusesource.hawtdispatch.DispatchQueue;
+import org.fusesource.mqtt.client.Callback;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FuseClientTest {
+
+    private static final BinaryPayloadCodec CODEC = new BinaryPayloadCodec() {
+
+        @Override
+        public ByteBuffer encode(final Payload payload, final ByteBuffer buffer) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Payload decode(final ByteBuffer buffer) {
+            throw new UnsupportedOperationException();
+        }
+    };
+
+    private static FuseClient.Builder builder() throws Exception {
+        return new FuseClient.Builder()
+                .clientId("fuse-test")
+                // nothing listens on this port, the client keeps reconnecting
+                .broker(URI.create("tcp://127.0.0.1:1"))
+                .namespace((clientId, applicationId, topic) -> applicationId + "/" + topic)
+                .codec(CODEC)
+                .manualAcks(true);
+    }
+
+    private static void assertAckOnConnection(final FuseClient client) throws Exception {
+        client.subscribeMqtt("app/foo", QoS.AT_LEAST_ONCE, (topic, payload) -> {
+        });
+
+        final CompletableFuture<String> acked = new CompletableFuture<>();
+        client.handleMessageArrived("app/foo", new Buffer(new byte[] { 1, 2, 3 }), new Callback<Callback<Void>>() {
+
+            @Override
+            public void onSuccess(final Callback<Void> value) {
+                final DispatchQueue queue = Dispatch.getCurrentQueue();
+                acked.complete(queue != null ? queue.getLabel() : Thread.currentThread().getName());
+            }
+
+            @Override
+            public void onFailure(final Throwable value) {
+                acked.completeExceptionally(value);
+            }
+        });
+
+        Assert.assertEquals("fuse-test", acked.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testAckOnConnectionQueue() throws Exception {
+        try (FuseClient client = builder().build()) {
+            assertAckOnConnection(client);
+        }
+    }
+
+    @Test
+    public void testAckFromInboundPoolOnConnectionQueue() throws Exception {
+        try (FuseClient client = builder().inboundThreads(2).build()) {
+            assertAckOnConnection(client);
+        }
+    }
+}
@@ -0,0 +1,340 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.mqtt.paho;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.kapua.gateway.client.utils.SegmentedLog;
+import org.eclipse.kapua.gateway.client.utils.SegmentedLog.Record;
+import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
+import org.eclipse.paho.client.mqttv3.MqttPersistable;
+import org.eclipse.paho.client.mqttv3.MqttPersistenceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Paho persistence, backed by memory mapped segment files
+ * <p>
+ * All entries are appended to a {@link SegmentedLog}. Replacing or removing an
+ * entry commits the previous record, and segment files get deleted once all of
+ * their entries are gone. Only the location of the entries is kept on the heap.
+ * </p>
+ * <p>
+ * Changes are written to the mapped memory directly, which survives a crash of the
+ * process. Syncing to the storage device is batched: it happens at most once per sync
+ * interval, triggered by the next modification, by a timer, which covers the last
+ * modifications before a pause, and when the persistence gets closed. A sync interval
+ * of zero syncs on every modification. The timer of all instances runs on a single,
+ * shared daemon thread.
+ * </p>
+ * <p>
+ * Entries which are never removed keep their segment file from being deleted. Paho only
+ * stores in-flight messages, which are short-lived, so this is not an issue in practice.
+ * </p>
+ */
+public class MappedFilePersistence implements MqttClientPersistence {
+
+    private static final Logger logger = LoggerFactory.getLogger(MappedFilePersistence.class);
+
+    public static final Duration DEFAULT_SYNC_INTERVAL = Duration.ofMillis(100);
+
+    private static ScheduledExecutorService syncExecutor;
+
+    private static final class Entry implements MqttPersistable {
+
+        private final byte[] header;
+        private final byte[] payload;
+
+        private Entry(final byte[] header, final byte[] payload) {
+            this.header = header;
+            this.payload = payload;
+        }
+
+        @Override
+        public byte[] getHeaderBytes() {
+            return this.header;
+        }
+
+        @Override
+        public int getHeaderLength() {
+            return this.header.length;
+        }
+
+        @Override
+        public int getHeaderOffset() {
+            return 0;
+        }
+
+        @Override
+        public byte[] getPayloadBytes() {
+            return this.payload;
+        }
+
+        @Override
+        public int getPayloadLength() {
+            return this.payload != null ? this.payload.length : 0;
+        }
+
+        @Override
+        public int getPayloadOffset() {
+            return 0;
+        }
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long syncIntervalNanos;
+
+    private SegmentedLog log;
+    private final Map<String, Record> records = new HashMap<>();
+    private long lastSync;
+    private ScheduledFuture<?> syncTimer;
+
+    private ByteBuffer encodeBuffer = ByteBuffer.allocate(1024);
+
+    /**
+     * Create a new persistence, using the default sync interval and segment size
+     *
+     * @param directory
+     *            the base directory
+     */
+    public MappedFilePersistence(final Path directory) {
+        this(directory, DEFAULT_SYNC_INTERVAL, SegmentedLog.DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Create a new persistence
+     *
+     * @param directory
+     *            the base directory, each client connection uses its own sub-directory
+     * @param syncInterval
+     *            the maximum interval between syncs to the storage device
+     * @param segmentSize
+     *            the size of a segment file in bytes, limiting the maximum message size
+     */
+    public MappedFilePersistence(final Path directory, final Duration syncInterval, final int segmentSize) {
+        Objects.requireNonNull(directory);
+        Objects.requireNonNull(syncInterval);
+
+        this.directory = directory;
+        this.syncIntervalNanos = syncInterval.toNanos();
+        this.segmentSize = segmentSize;
+    }
+
+    private static String sanitize(final String value) {
+        final StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (Character.isLetterOrDigit(c) || c == '-' || c == '_' || c == '.') {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private void checkOpen() throws MqttPersistenceException {
+        if (this.log == null) {
+            throw new MqttPersistenceException(MqttPersistenceException.REASON_CODE_CLIENT_CLOSED);
+        }
+    }
+
+    @Override
+    public synchronized void open(final String clientId, final String serverURI) throws MqttPersistenceException {
+        if (this.log != null) {
+            throw new MqttPersistenceException(MqttPersistenceException.REASON_CODE_PERSISTENCE_IN_USE);
+        }
+
+        try {
+            this.log = new SegmentedLog(this.directory.resolve(sanitize(clientId + "-" + serverURI)), this.segmentSize);
+        } catch (final IOException e) {
+            throw new MqttPersistenceException(e);
+        }
+
+        // restore the index, later records replace earlier ones
+
+        Record record;
+        while ((record = this.log.next()) != null) {
+            final Record previous = this.records.put(decodeKey(record.getData()), record);
+            if (previous != null) {
+                this.log.commit(previous);
+            }
+        }
+
+        this.lastSync = System.nanoTime();
+
+        if (this.syncIntervalNanos > 0) {
+            this.syncTimer = syncExecutor().scheduleWithFixedDelay(this::syncExpired, this.syncIntervalNanos, this.syncIntervalNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static synchronized ScheduledExecutorService syncExecutor() {
+        if (syncExecutor == null) {
+            syncExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, "kapua-gateway-persistence-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return syncExecutor;
+    }
+
+    @Override
+    public synchronized void close() throws MqttPersistenceException {
+        if (this.log == null) {
+            return;
+        }
+
+        if (this.syncTimer != null) {
+            this.syncTimer.cancel(false);
+            this.syncTimer = null;
+        }
+
+        this.log.close();
+        this.log = null;
+        this.records.clear();
+    }
+
+    @Override
+    public synchronized void put(final String key, final MqttPersistable persistable) throws MqttPersistenceException {
+        checkOpen();
+
+        final byte[] keyBytes = key.getBytes(UTF_8);
+        final int headerLength = persistable.getHeaderLength();
+        final int payloadLength = persistable.getPayloadBytes() != null ? persistable.getPayloadLength() : 0;
+        final int size = 2 + keyBytes.length + 4 + headerLength + payloadLength;
+
+        if (this.encodeBuffer.capacity() < size) {
+            this.encodeBuffer = ByteBuffer.allocate(Integer.highestOneBit(size) << 1);
+        }
+
+        final ByteBuffer buffer = this.encodeBuffer;
+        buffer.clear();
+        buffer.putShort((short) keyBytes.length);
+        buffer.put(keyBytes);
+        buffer.putInt(headerLength);
+        buffer.put(persistable.getHeaderBytes(), persistable.getHeaderOffset(), headerLength);
+        if (payloadLength > 0) {
+            buffer.put(persistable.getPayloadBytes(), persistable.getPayloadOffset(), payloadLength);
+        }
+        buffer.flip();
+
+        try {
+            final Record previous = this.records.put(key, this.log.append(buffer));
+            if (previous != null) {
+                this.log.commit(previous);
+            }
+        } catch (final IOException e) {
+            throw new MqttPersistenceException(e);
+        }
+
+        maybeSync();
+    }
+
+    @Override
+    public synchronized MqttPersistable get(final String key) throws MqttPersistenceException {
+        checkOpen();
+
+        final Record record = this.records.get(key);
+        if (record == null) {
+            return null;
+        }
+
+        final ByteBuffer data = record.getData();
+        data.position(2 + (data.getShort() & 0xFFFF));
+
+        final byte[] header = new byte[data.getInt()];
+        data.get(header);
+        final byte[] payload = new byte[data.remaining()];
+        data.get(payload);
+
+        return new Entry(header, payload);
+    }
+
+    @Override
+    public synchronized void remove(final String key) throws MqttPersistenceException {
+        checkOpen();
+
+        final Record record = this.records.remove(key);
+        if (record != null) {
+            this.log.commit(record);
+            maybeSync();
+        }
+    }
+
+    @Override
+    public synchronized Enumeration<String> keys() throws MqttPersistenceException {
+        checkOpen();
+
+        return Collections.enumeration(new ArrayList<>(this.records.keySet()));
+    }
+
+    @Override
+    public synchronized void clear() throws MqttPersistenceException {
+        checkOpen();
+
+        for (final Record record : this.records.values()) {
+            this.log.commit(record);
+        }
+        this.records.clear();
+
+        this.log.sync();
+    }
+
+    @Override
+    public synchronized boolean containsKey(final String key) throws MqttPersistenceException {
+        checkOpen();
+
+        return this.records.containsKey(key);
+    }
+
+    private void maybeSync() {
+        final long now = System.nanoTime();
+        if (now - this.lastSync >= this.syncIntervalNanos) {
+            this.lastSync = now;
+            this.log.sync();
+        }
+    }
+
+    private synchronized void syncExpired() {
+        if (this.log == null) {
+            return;
+        }
+
+        try {
+            this.lastSync = System.nanoTime();
+            this.log.sync();
+        } catch (final Exception e) {
+            logger.warn("Failed to sync persistence", e);
+        }
+    }
+
+    private static String decodeKey(final ByteBuffer data) {
+        final byte[] key = new byte[data.getShort() & 0xFFFF];
+        data.get(key);
+        return new String(key, UTF_8);
+    }
+}
@@ -14,26 +14,31 @@ package org.eclipse.kapua.gateway.client.mqtt.paho;
 import static java.util.Objects.requireNonNull;
 import static org.eclipse.kapua.gateway.client.utils.Strings.nonEmptyText;
 
+import java.io.IOException;
 import java.net.URI;
 import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
 import org.eclipse.kapua.gateway.client.BinaryPayloadCodec;
 import org.eclipse.kapua.gateway.client.Credentials.UserAndPassword;
 import org.eclipse.kapua.gateway.client.Module;
+import org.eclipse.kapua.gateway.client.QoS;
 import org.eclipse.kapua.gateway.client.mqtt.MqttClient;
 import org.eclipse.kapua.gateway.client.mqtt.MqttMessageHandler;
 import org.eclipse.kapua.gateway.client.mqtt.MqttNamespace;
+import org.eclipse.kapua.gateway.client.mqtt.MqttSubscriptions.Subscription;
 import org.eclipse.kapua.gateway.client.mqtt.paho.internal.Listeners;
 import org.eclipse.kapua.gateway.client.utils.Buffers;
 import org.eclipse.paho.client.mqttv3.IMqttActionListener;
@@ -53,9 +58,25 @@ public class PahoClient extends MqttClient {
 
     private static final Logger logger = LoggerFactory.getLogger(PahoClient.class);
 
+    /**
+     * The maximum number of in-flight messages supported by Paho
+     */
+    public static final int PAHO_MAX_INFLIGHT = 10;
+
+    /**
+     * The default maximum number of topics per SUBSCRIBE packet when re-subscribing
+     */
+    public static final int DEFAULT_RESUBSCRIBE_BATCH_SIZE = 100;
+
     public static class Builder extends MqttClient.Builder<Builder> {
 
         private Supplier<MqttClientPersistence> persistenceProvider = MemoryPersistence::new;
+        private int resubscribeBatchSize = DEFAULT_RESUBSCRIBE_BATCH_SIZE;
+
+        public Builder() {
+            // Paho fails publishing beyond its own limit, block instead
+            maxInFlight(PAHO_MAX_INFLIGHT);
+        }
 
         @Override
         protected Builder builder() {
@@ -75,6 +96,64 @@ public class PahoClient extends MqttClient {
             return this.persistenceProvider;
         }
 
+        /**
+         * Use a {@link MappedFilePersistence}, storing in-flight messages in the directory
+         *
+         * @param directory
+         *            the base directory of the persistence
+         * @return the builder
+         */
+        public Builder mappedFilePersistence(final Path directory) {
+            Objects.requireNonNull(directory);
+            return persistentProvider(() -> new MappedFilePersistence(directory));
+        }
+
+        /**
+         * Set the maximum number of topics per SUBSCRIBE packet when re-subscribing
+         * <p>
+         * After a reconnect, all subscriptions get restored using multi-topic SUBSCRIBE
+         * packets, which are sent in parallel. Lower the value in case the broker limits
+         * the number of topics per packet.
+         * </p>
+         *
+         * @param resubscribeBatchSize
+         *            the number of topics, must be positive
+         * @return the builder
+         */
+        public Builder resubscribeBatchSize(final int resubscribeBatchSize) {
+            if (resubscribeBatchSize <= 0) {
+                throw new IllegalArgumentException("Batch size must be positive");
+            }
+            this.resubscribeBatchSize = resubscribeBatchSize;
+            return builder();
+        }
+
+        public int resubscribeBatchSize() {
+            return this.resubscribeBatchSize;
+        }
+
+        /**
+         * Manual acknowledgements are not supported by Paho
+         * <p>
+         * Paho acknowledges a message once its callback returns, and completes the
+         * tokens of published messages and subscriptions on the same thread. Waiting
+         * for the processing in the callback could therefore never complete.
+         * </p>
+         *
+         * @param manualAcks
+         *            must be {@code false}
+         * @return the builder
+         * @throws IllegalArgumentException
+         *             if manual acknowledgements are requested
+         */
+        @Override
+        public Builder manualAcks(final boolean manualAcks) {
+            if (manualAcks) {
+                throw new IllegalArgumentException("Paho does not support manual acknowledgements");
+            }
+            return super.manualAcks(manualAcks);
+        }
+
         @Override
         public PahoClient build() throws Exception {
 
@@ -86,14 +165,14 @@ public class PahoClient extends MqttClient {
             final BinaryPayloadCodec codec = requireNonNull(codec(), "Codec must be set");
 
             MqttAsyncClient client = new MqttAsyncClient(broker.toString(), clientId, persistence);
-            ScheduledExecutorService executor = createExecutor(clientId);
+            ScheduledExecutorService executor = executor() != null ? executor() : createExecutor(clientId);
             try {
-                final PahoClient result = new PahoClient(modules(), clientId, executor, namespace, codec, client, persistence, createConnectOptions(this));
+                final PahoClient result = new PahoClient(modules(), clientId, executor, namespace, codec, client, persistence, createConnectOptions(this), this);
                 client = null;
                 executor = null;
                 return result;
             } finally {
-                if (executor != null) {
+                if (executor != null && executor() == null) {
                     executor.shutdown();
                 }
                 if (client != null) {
@@ -113,6 +192,7 @@ public class PahoClient extends MqttClient {
 
     private static MqttConnectOptions createConnectOptions(final Builder builder) {
         final MqttConnectOptions result = new MqttConnectOptions();
+        result.setCleanSession(builder.cleanSession());
 
         final Object credentials = builder.credentials();
         if (credentials instanceof UserAndPassword) {
@@ -129,16 +209,17 @@ public class PahoClient extends MqttClient {
     }
 
     private final MqttConnectOptions connectOptions;
+    private final int resubscribeBatchSize;
     private MqttAsyncClient client;
-
-    private final Map<String, MqttMessageHandler> subscriptions = new HashMap<>();
+    private ScheduledFuture<?> reconnect;
 
     private PahoClient(final Set<Module> modules, final String clientId, final ScheduledExecutorService executor, final MqttNamespace namespace, final BinaryPayloadCodec codec,
-            final MqttAsyncClient client, final MqttClientPersistence persistence, final MqttConnectOptions connectOptions) {
+            final MqttAsyncClient client, final MqttClientPersistence persistence, final MqttConnectOptions connectOptions, final Builder builder) throws IOException {
 
-        super(executor, codec, namespace, clientId, modules);
+        super(executor, codec, namespace, clientId, modules, builder);
 
         this.connectOptions = connectOptions;
+        this.resubscribeBatchSize = builder.resubscribeBatchSize();
         this.client = client;
 
         this.client.setCallback(new MqttCallback() {
@@ -162,21 +243,33 @@ public class PahoClient extends MqttClient {
     }
 
     protected void connect() {
+        final MqttAsyncClient client;
+        synchronized (this) {
+            client = this.client;
+        }
+        if (client == null) {
+            // already closed
+            return;
+        }
+
+        notifyConnectAttempt();
         try {
-            this.client.connect(this.connectOptions, null, new IMqttActionListener() {
+            client.connect(this.connectOptions, null, new IMqttActionListener() {
 
                 @Override
                 public void onSuccess(final IMqttToken asyncActionToken) {
-                    handleConnected();
+                    handleConnected(asyncActionToken.getSessionPresent());
                 }
 
                 @Override
                 public void onFailure(final IMqttToken asyncActionToken, final Throwable exception) {
+                    notifyConnectFailed();
                     handleDisconnected();
                 }
             });
         } catch (final MqttException e) {
             logger.warn("Failed to call connect", e);
+            notifyConnectFailed();
         }
     }
 
@@ -191,8 +284,15 @@ public class PahoClient extends MqttClient {
                 return;
             }
             this.client = null;
+
+            if (this.reconnect != null) {
+                this.reconnect.cancel(false);
+                this.reconnect = null;
+            }
         }
 
+        closeOutboundQueue();
+
         try {
             // disconnect first
 
@@ -208,24 +308,31 @@ public class PahoClient extends MqttClient {
             } catch (final MqttException e) {
             }
         } finally {
-            this.executor.shutdown();
+            shutdownExecutor();
+            closeStoreAndForward();
         }
     }
 
-    protected void handleConnected() {
+    protected void handleConnected(final boolean sessionPresent) {
+        final MqttAsyncClient client;
         synchronized (this) {
-            super.handleConnected();
-            handleResubscribe();
+            client = this.client;
         }
-    }
 
-    private void handleResubscribe() {
-        for (final Map.Entry<String, MqttMessageHandler> entry : this.subscriptions.entrySet()) {
-            try {
-                internalSubscribe(entry.getKey());
-            } catch (final MqttException e) {
-                logger.warn("Failed to re-subscribe to '{}'", entry.getKey());
-            }
+        if (client != null) {
+            Resubscription.resubscribe(this.subscriptions.all(), this.connectOptions.isCleanSession(), sessionPresent, this.resubscribeBatchSize,
+                    (topics, qos, listener) -> client.subscribe(topics, qos, null, listener))
+                    .whenComplete((duration, error) -> {
+                        if (error != null) {
+                            logger.warn("Failed to re-subscribe", error);
+                        } else if (duration != null) {
+                            notifyResubscribed(duration);
+                        }
+                    });
+        }
+
+        synchronized (this) {
+            super.handleConnected();
         }
     }
 
@@ -234,27 +341,32 @@ public class PahoClient extends MqttClient {
             try {
                 super.handleDisconnected();
             } finally {
-                this.executor.schedule(this::connect, 1, TimeUnit.SECONDS);
+                if (this.client != null) {
+                    final Duration delay = nextReconnectDelay();
+                    logger.debug("Reconnecting in {}", delay);
+                    this.reconnect = this.executor.schedule(this::connect, delay.toNanos(), TimeUnit.NANOSECONDS);
+                }
             }
         }
     }
 
     @Override
-    public void publishMqtt(final String topic, final ByteBuffer payload) throws Exception {
-        publish(topic, payload);
+    public CompletionStage<Void> publishMqtt(final String topic, final ByteBuffer payload, final QoS qos, final boolean retain) throws Exception {
+        return publish(topic, payload, qos, retain);
     }
 
-    protected void publish(final String topic, final ByteBuffer payload) throws MqttException {
+    protected CompletionStage<Void> publish(final String topic, final ByteBuffer payload, final QoS qos, final boolean retain) throws MqttException {
         logger.debug("Publishing {} - {}", topic, payload);
-        this.client.publish(topic, Buffers.toByteArray(payload), 1, false);
+
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        this.client.publish(topic, Buffers.toByteArray(payload), qos.level(), retain, null, Listeners.toListener(future));
+        return future;
     }
 
     @Override
-    protected CompletionStage<?> subscribeMqtt(String topic, MqttMessageHandler messageHandler) throws MqttException {
-        synchronized (this) {
-            this.subscriptions.put(topic, messageHandler);
-            return internalSubscribe(topic);
-        }
+    protected CompletionStage<?> subscribeMqtt(final String topic, final QoS qos, final MqttMessageHandler messageHandler) throws MqttException {
+        final Subscription subscription = this.subscriptions.put(topic, qos, messageHandler);
+        return internalSubscribe(topic, qos).thenRun(() -> subscription.setEstablished(true));
     }
 
     @Override
@@ -263,11 +375,9 @@ public class PahoClient extends MqttClient {
 
         final List<String> topics = new ArrayList<>(mqttTopics.size());
 
-        synchronized (this) {
-            for (String topic : mqttTopics) {
-                if (subscriptions.remove(topic) != null) {
-                    topics.add(topic);
-                }
+        for (final String topic : mqttTopics) {
+            if (this.subscriptions.remove(topic)) {
+                topics.add(topic);
             }
         }
 
@@ -280,15 +390,12 @@ public class PahoClient extends MqttClient {
 
         logger.debug("Received message - mqtt-topic: {}, payload: {}", topic, buffer);
 
-        final MqttMessageHandler handler = this.subscriptions.get(topic);
-        if (handler != null) {
-            handler.handleMessage(topic, buffer);
-        }
+        dispatchMessage(topic, buffer);
     }
 
-    private CompletionStage<?> internalSubscribe(final String topic) throws MqttException {
+    private CompletionStage<?> internalSubscribe(final String topic, final QoS qos) throws MqttException {
         final CompletableFuture<?> future = new CompletableFuture<>();
-        this.client.subscribe(topic, 1, null, Listeners.toListener(future));
+        this.client.subscribe(topic, qos.level(), null, Listeners.toListener(future));
         return future;
     }
 
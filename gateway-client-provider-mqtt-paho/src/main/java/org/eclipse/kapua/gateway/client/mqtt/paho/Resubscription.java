@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.mqtt.paho;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import org.eclipse.kapua.gateway.client.mqtt.MqttSubscriptions.Subscription;
+import org.eclipse.kapua.gateway.client.mqtt.paho.internal.Listeners;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Restore subscriptions after a connect
+ * <p>
+ * Subscriptions are sent as multi-topic SUBSCRIBE packets, in batches which are
+ * sent in parallel. If the broker kept the session, only subscriptions which were
+ * not yet established get sent.
+ * </p>
+ */
+final class Resubscription {
+
+    private static final Logger logger = LoggerFactory.getLogger(Resubscription.class);
+
+    /**
+     * Send a SUBSCRIBE packet
+     */
+    @FunctionalInterface
+    interface BatchSubscriber {
+
+        public void subscribe(String[] topics, int[] qos, IMqttActionListener listener) throws MqttException;
+    }
+
+    private Resubscription() {
+    }
+
+    /**
+     * Restore subscriptions
+     *
+     * @param subscriptions
+     *            all subscriptions of the client
+     * @param cleanSession
+     *            {@code true} if the client connected with a clean session
+     * @param sessionPresent
+     *            {@code true} if the broker reported a present session
+     * @param batchSize
+     *            the maximum number of topics per packet
+     * @param subscriber
+     *            the subscriber sending the packets
+     * @return the stage completing with the time it took to restore the subscriptions,
+     *         with {@code null} if there was nothing to restore, or failing if a batch failed
+     */
+    static CompletionStage<Duration> resubscribe(final Collection<Subscription> subscriptions, final boolean cleanSession, final boolean sessionPresent,
+            final int batchSize, final BatchSubscriber subscriber) {
+
+        // the broker still knows established subscriptions if the session is present
+        final boolean keepEstablished = sessionPresent && !cleanSession;
+
+        final List<Subscription> pending = new ArrayList<>();
+        for (final Subscription subscription : subscriptions) {
+            if (!keepEstablished || !subscription.isEstablished()) {
+                subscription.setEstablished(false);
+                pending.add(subscription);
+            }
+        }
+
+        if (pending.isEmpty()) {
+            if (keepEstablished) {
+                logger.debug("Session present, skipping re-subscribe");
+            }
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final long start = System.nanoTime();
+
+        final List<CompletableFuture<?>> batches = new ArrayList<>();
+        for (int i = 0; i < pending.size(); i += batchSize) {
+            batches.add(subscribe(subscriber, pending.subList(i, Math.min(i + batchSize, pending.size()))));
+        }
+
+        return CompletableFuture.allOf(batches.toArray(new CompletableFuture<?>[batches.size()]))
+                .thenApply(v -> {
+                    final Duration duration = Duration.ofNanos(System.nanoTime() - start);
+                    logger.debug("Re-subscribed to {} topics in {}", pending.size(), duration);
+                    return duration;
+                });
+    }
+
+    private static CompletableFuture<?> subscribe(final BatchSubscriber subscriber, final List<Subscription> batch) {
+        final String[] topics = new String[batch.size()];
+        final int[] qos = new int[batch.size()];
+
+        for (int i = 0; i < topics.length; i++) {
+            topics[i] = batch.get(i).getTopic();
+            qos[i] = batch.get(i).getQos().level();
+        }
+
+        final CompletableFuture<?> future = new CompletableFuture<>();
+        try {
+            subscriber.subscribe(topics, qos, Listeners.toListener(future));
+        } catch (final MqttException e) {
+            future.completeExceptionally(e);
+        }
+        return future.thenRun(() -> batch.forEach(subscription -> subscription.setEstablished(true)));
+    }
+}
@@ -0,0 +1,205 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.mqtt.paho;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.eclipse.paho.client.mqttv3.MqttPersistable;
+import org.eclipse.paho.client.mqttv3.MqttPersistenceException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedFilePersistenceTest {
+
+    private static final String CLIENT_ID = "client";
+    private static final String SERVER_URI = "tcp://localhost:1883";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MappedFilePersistence persistence;
+
+    private static final class Entry implements MqttPersistable {
+
+        private final byte[] header;
+        private final byte[] payload;
+
+        private Entry(final String header, final String payload) {
+            this.header = header.getBytes(UTF_8);
+            this.payload = payload != null ? payload.getBytes(UTF_8) : null;
+        }
+
+        @Override
+        public byte[] getHeaderBytes() {
+            return this.header;
+        }
+
+        @Override
+        public int getHeaderLength() {
+            return this.header.length;
+        }
+
+        @Override
+        public int getHeaderOffset() {
+            return 0;
+        }
+
+        @Override
+        public byte[] getPayloadBytes() {
+            return this.payload;
+        }
+
+        @Override
+        public int getPayloadLength() {
+            return this.payload != null ? this.payload.length : 0;
+        }
+
+        @Override
+        public int getPayloadOffset() {
+            return 0;
+        }
+    }
+
+    private MappedFilePersistence open(final int segmentSize) throws MqttPersistenceException {
+        final MappedFilePersistence result = new MappedFilePersistence(this.folder.getRoot().toPath(), Duration.ofMillis(10), segmentSize);
+        result.open(CLIENT_ID, SERVER_URI);
+        return result;
+    }
+
+    private static void assertEntry(final String header, final String payload, final MqttPersistable entry) throws MqttPersistenceException {
+        Assert.assertNotNull(entry);
+        Assert.assertEquals(header, new String(entry.getHeaderBytes(), entry.getHeaderOffset(), entry.getHeaderLength(), UTF_8));
+        Assert.assertEquals(payload, new String(entry.getPayloadBytes(), entry.getPayloadOffset(), entry.getPayloadLength(), UTF_8));
+    }
+
+    private static Set<String> keys(final MappedFilePersistence persistence) throws MqttPersistenceException {
+        return new HashSet<>(Collections.list(persistence.keys()));
+    }
+
+    private long countSegments() throws IOException {
+        try (Stream<Path> directories = Files.list(this.folder.getRoot().toPath())) {
+            final Path directory = directories.collect(Collectors.toList()).get(0);
+            try (Stream<Path> files = Files.list(directory)) {
+                return files.count();
+            }
+        }
+    }
+
+    @Before
+    public void setup() throws MqttPersistenceException {
+        this.persistence = open(1024);
+    }
+
+    @After
+    public void tearDown() throws MqttPersistenceException {
+        this.persistence.close();
+    }
+
+    @Test
+    public void testRoundTrip() throws MqttPersistenceException {
+        Assert.assertNull(this.persistence.get("foo"));
+        Assert.assertFalse(this.persistence.containsKey("foo"));
+
+        this.persistence.put("foo", new Entry("header", "payload"));
+
+        Assert.assertTrue(this.persistence.containsKey("foo"));
+        assertEntry("header", "payload", this.persistence.get("foo"));
+
+        this.persistence.remove("foo");
+
+        Assert.assertFalse(this.persistence.containsKey("foo"));
+        Assert.assertNull(this.persistence.get("foo"));
+    }
+
+    @Test
+    public void testEmptyPayload() throws MqttPersistenceException {
+        this.persistence.put("foo", new Entry("header", null));
+
+        assertEntry("header", "", this.persistence.get("foo"));
+    }
+
+    @Test
+    public void testReplace() throws MqttPersistenceException {
+        this.persistence.put("foo", new Entry("h1", "p1"));
+        this.persistence.put("foo", new Entry("h2", "p2"));
+
+        assertEntry("h2", "p2", this.persistence.get("foo"));
+        Assert.assertEquals(Collections.singleton("foo"), keys(this.persistence));
+    }
+
+    @Test
+    public void testKeysAndClear() throws MqttPersistenceException {
+        this.persistence.put("foo", new Entry("h1", "p1"));
+        this.persistence.put("bar", new Entry("h2", "p2"));
+
+        Assert.assertEquals(new HashSet<>(Arrays.asList("foo", "bar")), keys(this.persistence));
+
+        this.persistence.clear();
+
+        Assert.assertTrue(keys(this.persistence).isEmpty());
+        Assert.assertNull(this.persistence.get("foo"));
+    }
+
+    @Test
+    public void testReopen() throws MqttPersistenceException {
+        this.persistence.put("foo", new Entry("h1", "p1"));
+        this.persistence.put("bar", new Entry("h2", "p2"));
+        this.persistence.put("baz", new Entry("h3", "p3"));
+        this.persistence.put("bar", new Entry("h4", "p4"));
+        this.persistence.remove("foo");
+        this.persistence.close();
+
+        this.persistence = open(1024);
+
+        Assert.assertEquals(new HashSet<>(Arrays.asList("bar", "baz")), keys(this.persistence));
+        assertEntry("h4", "p4", this.persistence.get("bar"));
+        assertEntry("h3", "p3", this.persistence.get("baz"));
+    }
+
+    @Test(expected = MqttPersistenceException.class)
+    public void testOpenTwice() throws MqttPersistenceException {
+        this.persistence.open(CLIENT_ID, SERVER_URI);
+    }
+
+    @Test
+    public void testDeleteSegments() throws Exception {
+        this.persistence.close();
+        this.persistence = open(64);
+
+        for (int i = 0; i < 10; i++) {
+            this.persistence.put("key-" + i, new Entry("header", "payload"));
+        }
+
+        Assert.assertTrue(countSegments() > 1);
+
+        for (int i = 0; i < 10; i++) {
+            this.persistence.remove("key-" + i);
+        }
+
+        Assert.assertEquals(1, countSegments());
+    }
+}
@@ -0,0 +1,28 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.mqtt.paho;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PahoClientTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testManualAcksRejected() {
+        new PahoClient.Builder().manualAcks(true);
+    }
+
+    @Test
+    public void testAutomaticAcks() {
+        Assert.assertFalse(new PahoClient.Builder().manualAcks(false).manualAcks());
+    }
+}
@@ -0,0 +1,233 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.mqtt.paho;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import org.eclipse.kapua.gateway.client.QoS;
+import org.eclipse.kapua.gateway.client.mqtt.MqttSubscriptions;
+import org.eclipse.kapua.gateway.client.mqtt.MqttSubscriptions.Subscription;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ResubscriptionTest {
+
+    private static class Batch {
+
+        private final String[] topics;
+        private final int[] qos;
+        private final IMqttActionListener listener;
+
+        Batch(final String[] topics, final int[] qos, final IMqttActionListener listener) {
+            this.topics = topics;
+            this.qos = qos;
+            this.listener = listener;
+        }
+
+        void succeed() {
+            this.listener.onSuccess(null);
+        }
+
+        void fail() {
+            this.listener.onFailure(null, new MqttException(MqttException.REASON_CODE_SUBSCRIBE_FAILED));
+        }
+    }
+
+    private final List<Batch> batches = new ArrayList<>();
+
+    private void subscribe(final String[] topics, final int[] qos, final IMqttActionListener listener) {
+        this.batches.add(new Batch(topics, qos, listener));
+    }
+
+    private static MqttSubscriptions subscriptions(final int count) {
+        final MqttSubscriptions subscriptions = new MqttSubscriptions();
+        for (int i = 0; i < count; i++) {
+            subscriptions.put("foo/" + i, QoS.AT_LEAST_ONCE, (topic, payload) -> {
+            });
+        }
+        return subscriptions;
+    }
+
+    private CompletableFuture<Duration> resubscribe(final MqttSubscriptions subscriptions, final boolean cleanSession, final boolean sessionPresent,
+            final int batchSize) {
+        return Resubscription.resubscribe(subscriptions.all(), cleanSession, sessionPresent, batchSize, this::subscribe).toCompletableFuture();
+    }
+
+    private Set<String> sentTopics() {
+        final Set<String> topics = new HashSet<>();
+        for (final Batch batch : this.batches) {
+            topics.addAll(Arrays.asList(batch.topics));
+        }
+        return topics;
+    }
+
+    @Test
+    public void testBatches() {
+        final MqttSubscriptions subscriptions = subscriptions(5);
+
+        final CompletableFuture<Duration> future = resubscribe(subscriptions, true, false, 2);
+
+        // all batches are sent before any of them completes
+        Assert.assertEquals(3, this.batches.size());
+        Assert.assertEquals(2, this.batches.get(0).topics.length);
+        Assert.assertEquals(2, this.batches.get(1).topics.length);
+        Assert.assertEquals(1, this.batches.get(2).topics.length);
+        Assert.assertEquals(new HashSet<>(Arrays.asList("foo/0", "foo/1", "foo/2", "foo/3", "foo/4")), sentTopics());
+        for (final Batch batch : this.batches) {
+            Assert.assertEquals(batch.topics.length, batch.qos.length);
+            for (final int qos : batch.qos) {
+                Assert.assertEquals(QoS.AT_LEAST_ONCE.level(), qos);
+            }
+        }
+
+        this.batches.get(0).succeed();
+        this.batches.get(2).succeed();
+        Assert.assertFalse(future.isDone());
+
+        this.batches.get(1).succeed();
+        Assert.assertTrue(future.isDone());
+        Assert.assertNotNull(future.join());
+
+        for (final Subscription subscription : subscriptions.all()) {
+            Assert.assertTrue(subscription.isEstablished());
+        }
+    }
+
+    @Test
+    public void testBatchSizeExact() {
+        resubscribe(subscriptions(4), true, false, 2);
+
+        Assert.assertEquals(2, this.batches.size());
+        Assert.assertEquals(2, this.batches.get(0).topics.length);
+        Assert.assertEquals(2, this.batches.get(1).topics.length);
+    }
+
+    @Test
+    public void testSingleBatch() {
+        resubscribe(subscriptions(3), true, false, 10);
+
+        Assert.assertEquals(1, this.batches.size());
+        Assert.assertEquals(3, this.batches.get(0).topics.length);
+    }
+
+    @Test
+    public void testBatchFailed() {
+        final MqttSubscriptions subscriptions = subscriptions(3);
+
+        final CompletableFuture<Duration> future = resubscribe(subscriptions, true, false, 2);
+
+        Assert.assertEquals(2, this.batches.size());
+        this.batches.get(0).succeed();
+        this.batches.get(1).fail();
+
+        Assert.assertTrue(future.isCompletedExceptionally());
+
+        for (final String topic : this.batches.get(0).topics) {
+            Assert.assertTrue(subscriptions.get(topic).isEstablished());
+        }
+        for (final String topic : this.batches.get(1).topics) {
+            Assert.assertFalse(subscriptions.get(topic).isEstablished());
+        }
+    }
+
+    @Test
+    public void testSubscribeThrows() {
+        final MqttSubscriptions subscriptions = subscriptions(1);
+
+        final CompletableFuture<Duration> future = Resubscription.resubscribe(subscriptions.all(), true, false, 2, (topics, qos, listener) -> {
+            throw new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED);
+        }).toCompletableFuture();
+
+        Assert.assertTrue(future.isCompletedExceptionally());
+        Assert.assertFalse(subscriptions.get("foo/0").isEstablished());
+    }
+
+    @Test
+    public void testNothingToResubscribe() {
+        final CompletableFuture<Duration> future = resubscribe(new MqttSubscriptions(), true, false, 2);
+
+        Assert.assertTrue(this.batches.isEmpty());
+        Assert.assertTrue(future.isDone());
+        Assert.assertNull(future.join());
+    }
+
+    @Test
+    public void testSessionPresentSkipsEstablished() {
+        final MqttSubscriptions subscriptions = subscriptions(4);
+        subscriptions.get("foo/0").setEstablished(true);
+        subscriptions.get("foo/2").setEstablished(true);
+
+        final CompletableFuture<Duration> future = resubscribe(subscriptions, false, true, 10);
+
+        Assert.assertEquals(1, this.batches.size());
+        Assert.assertEquals(new HashSet<>(Arrays.asList("foo/1", "foo/3")), sentTopics());
+
+        this.batches.get(0).succeed();
+        Assert.assertNotNull(future.join());
+
+        for (final Subscription subscription : subscriptions.all()) {
+            Assert.assertTrue(subscription.isEstablished());
+        }
+    }
+
+    @Test
+    public void testSessionPresentAllEstablished() {
+        final MqttSubscriptions subscriptions = subscriptions(2);
+        for (final Subscription subscription : subscriptions.all()) {
+            subscription.setEstablished(true);
+        }
+
+        final CompletableFuture<Duration> future = resubscribe(subscriptions, false, true, 10);
+
+        Assert.assertTrue(this.batches.isEmpty());
+        Assert.assertNull(future.join());
+
+        for (final Subscription subscription : subscriptions.all()) {
+            Assert.assertTrue(subscription.isEstablished());
+        }
+    }
+
+    @Test
+    public void testSessionNotPresent() {
+        final MqttSubscriptions subscriptions = subscriptions(2);
+        subscriptions.get("foo/0").setEstablished(true);
+
+        resubscribe(subscriptions, false, false, 10);
+
+        Assert.assertEquals(new HashSet<>(Arrays.asList("foo/0", "foo/1")), sentTopics());
+        Assert.assertFalse(subscriptions.get("foo/0").isEstablished());
+    }
+
+    @Test
+    public void testCleanSessionAlwaysResubscribes() {
+        final MqttSubscriptions subscriptions = subscriptions(2);
+        for (final Subscription subscription : subscriptions.all()) {
+            subscription.setEstablished(true);
+        }
+
+        // a broker must not report a present session for a clean session, don't trust it
+        resubscribe(subscriptions, true, true, 10);
+
+        Assert.assertEquals(new HashSet<>(Arrays.asList("foo/0", "foo/1")), sentTopics());
+        for (final Subscription subscription : subscriptions.all()) {
+            Assert.assertFalse(subscription.isEstablished());
+        }
+    }
+}
@@ -12,15 +12,19 @@
 package org.eclipse.kapua.gateway.client.mqtt;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Executor;
 
+import org.eclipse.kapua.gateway.client.Application;
 import org.eclipse.kapua.gateway.client.ErrorHandler;
 import org.eclipse.kapua.gateway.client.MessageHandler;
 import org.eclipse.kapua.gateway.client.Payload;
 import org.eclipse.kapua.gateway.client.Topic;
 import org.eclipse.kapua.gateway.client.spi.AbstractApplication;
 import org.eclipse.kapua.gateway.client.spi.AbstractData;
+import org.eclipse.kapua.gateway.client.utils.Buffers;
+import org.eclipse.kapua.gateway.client.utils.InboundQueue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -28,33 +32,153 @@ public class MqttApplication extends AbstractApplication {
 
     private static final Logger logger = LoggerFactory.getLogger(MqttApplication.class);
 
+    /**
+     * The delivery of a received message to the handler of a subscription
+     */
+    @FunctionalInterface
+    private interface Delivery {
+
+        /**
+         * Deliver a message
+         *
+         * @param owned
+         *            {@code true} if the payload buffer is owned by the message, so
+         *            it does not need to be copied when decoding
+         */
+        public void deliver(String topic, ByteBuffer payload, boolean owned) throws Exception;
+    }
+
+    /**
+     * A received message, handed over to another thread
+     */
+    private static final class Received {
+
+        private final ByteBuffer payload;
+        private final CompletableFuture<Void> processed;
+
+        private Received(final ByteBuffer payload, final CompletableFuture<Void> processed) {
+            // the payload must outlive the callback of the MQTT library, this is the only copy
+            this.payload = ByteBuffer.wrap(Buffers.toByteArray(payload.duplicate()));
+            this.processed = processed;
+        }
+
+        private void complete(final Throwable error) {
+            if (this.processed == null) {
+                return;
+            }
+            if (error == null) {
+                this.processed.complete(null);
+            } else {
+                this.processed.completeExceptionally(error);
+            }
+        }
+    }
+
+    /**
+     * A handler which hands received messages over to another thread
+     * <p>
+     * When the message is tracked, the returned stage completes once the handler
+     * of the subscription returned, or the message got dropped.
+     * </p>
+     */
+    private abstract static class HandOver implements MqttMessageHandler {
+
+        @Override
+        public void handleMessage(final String topic, final ByteBuffer payload) throws Exception {
+            handOver(topic, new Received(payload, null));
+        }
+
+        @Override
+        public CompletionStage<?> handleMessageAsync(final String topic, final ByteBuffer payload) throws Exception {
+            final Received message = new Received(payload, new CompletableFuture<>());
+            handOver(topic, message);
+            return message.processed;
+        }
+
+        protected abstract void handOver(String topic, Received message) throws Exception;
+    }
+
     private MqttClient client;
 
+    /**
+     * The common prefix of all MQTT topics, {@code null} if the namespace doesn't support prefixes
+     */
+    private final String topicPrefix;
+
     public MqttApplication(final MqttClient client, final String applicationId, final Executor executor) {
-        super(client, applicationId, executor);
+        this(client, applicationId, executor, null);
+    }
+
+    public MqttApplication(final MqttClient client, final String applicationId, final Executor executor, final Application.Builder builder) {
+        super(client, applicationId, executor, builder);
         this.client = client;
+        this.topicPrefix = client.dataTopicPrefix(applicationId);
     }
 
     @Override
-    public AbstractData data(final Topic topic) {
-        return new AbstractData(this, topic);
+    protected AbstractData createData(final AbstractData.Builder builder) {
+        return new MqttData(builder, dataTopic(builder.topic()));
     }
 
-    protected void publish(Topic topic, Payload payload) throws Exception {
-        logger.debug("Publishing values - {} -> {}", topic, payload.getValues());
+    private String dataTopic(final Topic topic) {
+        if (this.topicPrefix != null) {
+            return this.topicPrefix + topic.toString();
+        }
+        return this.client.dataTopic(this.applicationId, topic);
+    }
 
-        final ByteBuffer buffer = client.getCodec().encode(payload, null);
-        buffer.flip();
+    private String mqttTopic(final AbstractData data) {
+        if (data.getTopic().isWildcard()) {
+            throw new IllegalArgumentException("Unable to publish to a topic filter: " + data.getTopic());
+        }
 
-        client.publish(applicationId, topic, buffer);
+        if (data instanceof MqttData) {
+            return ((MqttData) data).getMqttTopic();
+        }
+        return dataTopic(data.getTopic());
     }
 
     @Override
-    protected CompletionStage<?> internalSubscribe(Topic topic, MessageHandler handler, ErrorHandler<? extends Throwable> errorHandler) throws Exception {
-        return client.subscribe(applicationId, topic, (messageTopic, payload) -> {
+    protected CompletionStage<Void> publish(final AbstractData data, final Payload payload) throws Exception {
+        logger.debug("Publishing values - {} -> {}", data.getTopic(), payload.getValues());
+
+        ByteBuffer buffer = client.acquireBuffer();
+        try {
+            buffer = client.getCodec().encode(payload, buffer);
+            buffer.flip();
+
+            return client.publish(mqttTopic(data), data.getQos(), data.isRetain(), data.getPriority(), buffer);
+        } finally {
+            client.releaseBuffer(buffer);
+        }
+    }
+
+    @Override
+    protected CompletionStage<Void> publish(final AbstractData data, final Payload.Builder payload) throws Exception {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Publishing values - {} -> {}", data.getTopic(), payload.values());
+        }
+
+        ByteBuffer buffer = client.acquireBuffer();
+        try {
+            buffer = client.getCodec().encodeBuilder(payload, buffer);
+            buffer.flip();
+
+            return client.publish(mqttTopic(data), data.getQos(), data.isRetain(), data.getPriority(), buffer);
+        } finally {
+            client.releaseBuffer(buffer);
+        }
+    }
+
+    @Override
+    protected CompletionStage<?> internalSubscribe(final AbstractData data, final MessageHandler handler, final ErrorHandler<? extends Throwable> errorHandler) throws Exception {
+        final Topic topic = data.getTopic();
+        final boolean filter = topic.isWildcard();
+        final String filterPrefix = filter ? filterPrefix(data) : null;
+        final Delivery delivery = (messageTopic, payload, owned) -> {
             logger.debug("Received message for: {}", topic);
             try {
-                MqttApplication.this.handleMessage(handler, payload);
+                MqttApplication.this.handleMessage(handler, filter ? receivedTopic(filterPrefix, messageTopic) : topic, payload, owned);
             } catch (final Exception e) {
                 try {
                     errorHandler.handleError(e, null);
@@ -64,12 +188,83 @@ public class MqttApplication extends AbstractApplication {
                     throw new Exception(e1);
                 }
             }
+        };
+
+        if (data.getQueueCapacity() > 0) {
+            final InboundQueue<String, Received> queue = new InboundQueue<>(client.getQueueExecutor(), data.getQueueCapacity(), data.getOverflowPolicy(),
+                    (messageTopic, message) -> {
+                        try {
+                            delivery.deliver(messageTopic, message.payload, true);
+                        } catch (final Exception e) {
+                            message.complete(e);
+                            throw e;
+                        }
+                        message.complete(null);
+                    }, message -> message.complete(null));
+            data.setInboundQueue(queue);
+
+            return client.subscribe(applicationId, topic, data.getQos(), new HandOver() {
+
+                @Override
+                protected void handOver(final String messageTopic, final Received message) throws Exception {
+                    queue.offer(messageTopic, message);
+                }
+            });
+        }
+
+        final Executor dispatcher = createSubscriptionExecutor();
+        if (dispatcher == null) {
+            return client.subscribe(applicationId, topic, data.getQos(), (messageTopic, payload) -> delivery.deliver(messageTopic, payload, false));
+        }
+
+        return client.subscribe(applicationId, topic, data.getQos(), new HandOver() {
+
+            @Override
+            protected void handOver(final String messageTopic, final Received message) throws Exception {
+                dispatcher.execute(() -> {
+                    try {
+                        delivery.deliver(messageTopic, message.payload, true);
+                    } catch (final Exception e) {
+                        logger.warn("Failed to handle message for: {}", topic, e);
+                        message.complete(e);
+                        return;
+                    }
+                    message.complete(null);
+                });
+            }
         });
     }
 
-    protected void handleMessage(final MessageHandler handler, final ByteBuffer buffer) throws Exception {
-        final Payload payload = client.getCodec().decode(buffer);
-        logger.debug("Received: {}", payload);
-        handler.handleMessage(payload);
+    /**
+     * Get the MQTT prefix of a topic filter
+     * <p>
+     * The prefix is the part of the MQTT topic which is not covered by the data topic,
+     * so the data topic of a received message is the remainder of its MQTT topic.
+     * </p>
+     *
+     * @return the prefix, {@code null} if the namespace doesn't render the data topic
+     *         as a suffix
+     */
+    private String filterPrefix(final AbstractData data) {
+        final Topic topic = data.getTopic();
+        final String mqttFilter = data instanceof MqttData ? ((MqttData) data).getMqttTopic() : dataTopic(topic);
+        final String suffix = topic.toString();
+        if (mqttFilter == null || !mqttFilter.endsWith(suffix)) {
+            return null;
+        }
+        return mqttFilter.substring(0, mqttFilter.length() - suffix.length());
+    }
+
+    private static Topic receivedTopic(final String filterPrefix, final String mqttTopic) {
+        if (filterPrefix == null || !mqttTopic.startsWith(filterPrefix)) {
+            return null;
+        }
+        return Topic.split(mqttTopic.substring(filterPrefix.length()));
+    }
+
+    protected void handleMessage(final MessageHandler handler, final Topic topic, final ByteBuffer buffer, final boolean owned) throws Exception {
+        final Payload payload = owned ? client.getCodec().decodeOwned(buffer) : client.getCodec().decode(buffer);
+        logger.debug("Received: {} - {}", topic, payload);
+        handler.handleMessage(topic, payload);
     }
 }
\ No newline at end of file
@@ -11,26 +11,49 @@
  *******************************************************************************/
 package org.eclipse.kapua.gateway.client.mqtt;
 
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Collection;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import org.eclipse.kapua.gateway.client.Application;
 import org.eclipse.kapua.gateway.client.BinaryPayloadCodec;
 import org.eclipse.kapua.gateway.client.Credentials.UserAndPassword;
 import org.eclipse.kapua.gateway.client.Module;
+import org.eclipse.kapua.gateway.client.Priority;
+import org.eclipse.kapua.gateway.client.QoS;
 import org.eclipse.kapua.gateway.client.Topic;
 import org.eclipse.kapua.gateway.client.spi.AbstractApplication;
 import org.eclipse.kapua.gateway.client.spi.AbstractClient;
+import org.eclipse.kapua.gateway.client.utils.Buffers;
+import org.eclipse.kapua.gateway.client.utils.ExponentialBackoff;
+import org.eclipse.kapua.gateway.client.utils.InFlightWindow;
+import org.eclipse.kapua.gateway.client.utils.ReconnectPolicy;
+import org.eclipse.kapua.gateway.client.utils.Recycler;
+import org.eclipse.kapua.gateway.client.utils.SegmentedLog;
+import org.eclipse.kapua.gateway.client.utils.StripedExecutor;
+import org.eclipse.kapua.gateway.client.utils.TokenBucket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public abstract class MqttClient extends AbstractClient {
 
+    private static final Logger logger = LoggerFactory.getLogger(MqttClient.class);
+
     public abstract static class Builder<T extends Builder<T>> extends AbstractClient.Builder<T> {
 
         private MqttNamespace namespace;
@@ -38,6 +61,21 @@ public abstract class MqttClient extends AbstractClient {
         private UserAndPassword userAndPassword;
         private String clientId;
         private URI broker;
+        private int maxInFlight;
+        private InFlightWindow.Policy inFlightPolicy = InFlightWindow.Policy.BLOCK;
+        private Path storeAndForward;
+        private int drainRate = DEFAULT_DRAIN_RATE;
+        private Duration storeAndForwardSyncInterval = DEFAULT_STORE_AND_FORWARD_SYNC_INTERVAL;
+        private long storeAndForwardMaxSize;
+        private StoreOverflowPolicy storeAndForwardPolicy = StoreOverflowPolicy.FAIL;
+        private double publishRate;
+        private int publishBurst;
+        private ReconnectPolicy reconnectPolicy = new ExponentialBackoff();
+        private boolean cleanSession = true;
+        private int outboundQueueSize;
+        private int inboundThreads;
+        private boolean manualAcks;
+        private int maxUnackedMessages = DEFAULT_MAX_UNACKED_MESSAGES;
 
         public T codec(final BinaryPayloadCodec codec) {
             this.codec = codec;
@@ -90,48 +128,1052 @@ public abstract class MqttClient extends AbstractClient {
         public Object credentials() {
             return this.userAndPassword;
         }
+
+        /**
+         * Limit the number of published messages which are not yet acknowledged
+         *
+         * @param maxInFlight
+         *            the maximum number of messages in flight, zero for no limit
+         * @return the builder
+         */
+        public T maxInFlight(final int maxInFlight) {
+            if (maxInFlight < 0) {
+                throw new IllegalArgumentException("Maximum number of in-flight messages must not be negative");
+            }
+            this.maxInFlight = maxInFlight;
+            return builder();
+        }
+
+        public int maxInFlight() {
+            return this.maxInFlight;
+        }
+
+        /**
+         * Set the policy to apply once the maximum number of in-flight messages is reached
+         *
+         * @param inFlightPolicy
+         *            the policy, must not be {@code null}
+         * @return the builder
+         */
+        public T inFlightPolicy(final InFlightWindow.Policy inFlightPolicy) {
+            Objects.requireNonNull(inFlightPolicy);
+            this.inFlightPolicy = inFlightPolicy;
+            return builder();
+        }
+
+        public InFlightWindow.Policy inFlightPolicy() {
+            return this.inFlightPolicy;
+        }
+
+        /**
+         * Enable storing messages on disk while being disconnected
+         * <p>
+         * Messages published while the client is disconnected get stored in the
+         * directory and will be forwarded once the client is connected again. The
+         * stages of stored messages complete once the message was stored. While
+         * stored messages get forwarded, new messages of {@link Priority#LOW}
+         * priority are stored as well, all others are published directly.
+         * </p>
+         *
+         * @param storeAndForward
+         *            the directory to store messages in, {@code null} to disable
+         * @return the builder
+         */
+        public T storeAndForward(final Path storeAndForward) {
+            this.storeAndForward = storeAndForward;
+            return builder();
+        }
+
+        public Path storeAndForward() {
+            return this.storeAndForward;
+        }
+
+        /**
+         * Set the rate at which stored messages get forwarded after a reconnect
+         *
+         * @param drainRate
+         *            the maximum number of stored messages forwarded per second, must be positive
+         * @return the builder
+         */
+        public T drainRate(final int drainRate) {
+            if (drainRate <= 0) {
+                throw new IllegalArgumentException("Drain rate must be positive");
+            }
+            this.drainRate = drainRate;
+            return builder();
+        }
+
+        public int drainRate() {
+            return this.drainRate;
+        }
+
+        /**
+         * Set the maximum interval between syncing stored messages to the storage device
+         * <p>
+         * Messages stored after the last sync may get lost on a power failure, but survive
+         * a crash of the process.
+         * </p>
+         *
+         * @param storeAndForwardSyncInterval
+         *            the interval, must not be {@code null} or negative, zero to sync every
+         *            stored message, defaults to {@link MqttClient#DEFAULT_STORE_AND_FORWARD_SYNC_INTERVAL}
+         * @return the builder
+         */
+        public T storeAndForwardSyncInterval(final Duration storeAndForwardSyncInterval) {
+            Objects.requireNonNull(storeAndForwardSyncInterval);
+            if (storeAndForwardSyncInterval.isNegative()) {
+                throw new IllegalArgumentException("Sync interval must not be negative");
+            }
+            this.storeAndForwardSyncInterval = storeAndForwardSyncInterval;
+            return builder();
+        }
+
+        public Duration storeAndForwardSyncInterval() {
+            return this.storeAndForwardSyncInterval;
+        }
+
+        /**
+         * Limit the size of the store-and-forward log
+         *
+         * @param storeAndForwardMaxSize
+         *            the maximum number of bytes stored on disk, zero for no limit, which is the default
+         * @return the builder
+         * @see #storeAndForwardPolicy(StoreOverflowPolicy)
+         */
+        public T storeAndForwardMaxSize(final long storeAndForwardMaxSize) {
+            if (storeAndForwardMaxSize < 0) {
+                throw new IllegalArgumentException("Maximum size must not be negative");
+            }
+            this.storeAndForwardMaxSize = storeAndForwardMaxSize;
+            return builder();
+        }
+
+        public long storeAndForwardMaxSize() {
+            return this.storeAndForwardMaxSize;
+        }
+
+        /**
+         * Set the policy to apply once the store-and-forward log reached its maximum size
+         *
+         * @param storeAndForwardPolicy
+         *            the policy, must not be {@code null}, defaults to {@link StoreOverflowPolicy#FAIL}
+         * @return the builder
+         */
+        public T storeAndForwardPolicy(final StoreOverflowPolicy storeAndForwardPolicy) {
+            Objects.requireNonNull(storeAndForwardPolicy);
+            this.storeAndForwardPolicy = storeAndForwardPolicy;
+            return builder();
+        }
+
+        public StoreOverflowPolicy storeAndForwardPolicy() {
+            return this.storeAndForwardPolicy;
+        }
+
+        /**
+         * Limit the rate of outbound messages
+         * <p>
+         * Once the limit is reached, publishing messages blocks until the rate permits
+         * sending the next message. Messages of higher {@link Priority} go first. Stored
+         * messages are replayed with {@link Priority#LOW}, using only the capacity
+         * not required by live messages.
+         * </p>
+         *
+         * @param publishRate
+         *            the maximum number of messages per second, zero for no limit
+         * @return the builder
+         */
+        public T publishRate(final double publishRate) {
+            if (publishRate < 0) {
+                throw new IllegalArgumentException("Publish rate must not be negative");
+            }
+            this.publishRate = publishRate;
+            return builder();
+        }
+
+        public double publishRate() {
+            return this.publishRate;
+        }
+
+        /**
+         * Set the number of messages which may be sent in a burst, exceeding the publish rate
+         *
+         * @param publishBurst
+         *            the burst size, zero to use the publish rate, rounded up
+         * @return the builder
+         */
+        public T publishBurst(final int publishBurst) {
+            if (publishBurst < 0) {
+                throw new IllegalArgumentException("Publish burst must not be negative");
+            }
+            this.publishBurst = publishBurst;
+            return builder();
+        }
+
+        public int publishBurst() {
+            return this.publishBurst;
+        }
+
+        /**
+         * Set the policy for scheduling reconnect attempts
+         *
+         * @param reconnectPolicy
+         *            the policy, must not be {@code null}, defaults to {@link ExponentialBackoff}
+         *            with jitter
+         * @return the builder
+         */
+        public T reconnectPolicy(final ReconnectPolicy reconnectPolicy) {
+            Objects.requireNonNull(reconnectPolicy);
+            this.reconnectPolicy = reconnectPolicy;
+            return builder();
+        }
+
+        public ReconnectPolicy reconnectPolicy() {
+            return this.reconnectPolicy;
+        }
+
+        /**
+         * Set if the broker should discard the session when connecting
+         * <p>
+         * When using a persistent session, the broker keeps the subscriptions of the
+         * client between connections. If the broker reports an existing session when
+         * connecting, subscriptions don't need to be re-established.
+         * </p>
+         *
+         * @param cleanSession
+         *            {@code true} to start each connection with a new session
+         * @return the builder
+         */
+        public T cleanSession(final boolean cleanSession) {
+            this.cleanSession = cleanSession;
+            return builder();
+        }
+
+        public boolean cleanSession() {
+            return this.cleanSession;
+        }
+
+        /**
+         * Set the size of the outbound queue
+         * <p>
+         * If enabled, publishing threads only copy the message to a lock-free queue,
+         * and a single writer thread publishes the queued messages. This avoids the
+         * publishing threads contending on the locks of the MQTT library. Publishing
+         * threads wait while the queue is full.
+         * </p>
+         * <p>
+         * Publishing threads also wait for the {@link #publishRate(double)}, before
+         * queuing the message. So a message of low {@link Priority} waiting for the rate
+         * limit doesn't hold up messages of higher priority. Once queued, messages are
+         * published in order, waiting for the in-flight window if necessary.
+         * </p>
+         *
+         * @param outboundQueueSize
+         *            the maximum number of queued messages, zero to publish from
+         *            the calling thread, which is the default
+         * @return the builder
+         */
+        public T outboundQueueSize(final int outboundQueueSize) {
+            if (outboundQueueSize < 0) {
+                throw new IllegalArgumentException("Outbound queue size must not be negative");
+            }
+            this.outboundQueueSize = outboundQueueSize;
+            return builder();
+        }
+
+        public int outboundQueueSize() {
+            return this.outboundQueueSize;
+        }
+
+        /**
+         * Set the number of threads for handling received messages
+         * <p>
+         * If enabled, received messages are handed to a pool of worker threads, which
+         * decode the messages and call the message handlers. Messages of the same topic
+         * are handled one after the other, in the order they were received. This keeps
+         * slow handlers from blocking the thread of the MQTT library.
+         * </p>
+         *
+         * @param inboundThreads
+         *            the number of threads, zero to handle messages on the thread of
+         *            the MQTT library, which is the default
+         * @return the builder
+         */
+        public T inboundThreads(final int inboundThreads) {
+            if (inboundThreads < 0) {
+                throw new IllegalArgumentException("Number of inbound threads must not be negative");
+            }
+            this.inboundThreads = inboundThreads;
+            return builder();
+        }
+
+        public int inboundThreads() {
+            return this.inboundThreads;
+        }
+
+        /**
+         * Set if received messages are acknowledged only after they got processed
+         * <p>
+         * By default, a received message is acknowledged once it was handed over to
+         * the client. With manual acknowledgements, the message is acknowledged once
+         * all handlers returned. If a subscription uses a queue or a handler executor, this
+         * is when its handler returned or the message got dropped. When the number of unacknowledged messages reaches
+         * {@link #maxUnackedMessages(int)}, the client stops reading from the broker until
+         * half of them got acknowledged.
+         * </p>
+         * <p>
+         * Providers which can't defer the acknowledgement of a message reject this setting.
+         * </p>
+         *
+         * @param manualAcks
+         *            {@code true} to acknowledge messages after they got processed
+         * @return the builder
+         */
+        public T manualAcks(final boolean manualAcks) {
+            this.manualAcks = manualAcks;
+            return builder();
+        }
+
+        public boolean manualAcks() {
+            return this.manualAcks;
+        }
+
+        /**
+         * Set the maximum number of received messages waiting for their acknowledgement
+         *
+         * @param maxUnackedMessages
+         *            the number of messages, must be positive, defaults to
+         *            {@link MqttClient#DEFAULT_MAX_UNACKED_MESSAGES}
+         * @return the builder
+         * @see #manualAcks(boolean)
+         */
+        public T maxUnackedMessages(final int maxUnackedMessages) {
+            if (maxUnackedMessages <= 0) {
+                throw new IllegalArgumentException("Maximum number of unacknowledged messages must be positive");
+            }
+            this.maxUnackedMessages = maxUnackedMessages;
+            return builder();
+        }
+
+        public int maxUnackedMessages() {
+            return this.maxUnackedMessages;
+        }
+    }
+
+    /**
+     * The policy to apply once the store-and-forward log is full
+     */
+    public enum StoreOverflowPolicy {
+        /**
+         * Fail publishing by throwing a {@link java.util.concurrent.RejectedExecutionException}
+         */
+        FAIL,
+        /**
+         * Drop the new message, its stage completes exceptionally with a
+         * {@link java.util.concurrent.RejectedExecutionException}
+         */
+        DROP_NEWEST;
+    }
+
+    /**
+     * The acknowledgement of a received message
+     */
+    @FunctionalInterface
+    protected interface Acknowledgement {
+
+        /**
+         * Complete the processing of the message
+         *
+         * @param error
+         *            the error processing the message, {@code null} if the message got
+         *            processed successfully
+         */
+        public void complete(Throwable error);
     }
 
+    public static final int DEFAULT_DRAIN_RATE = 100;
+
+    public static final Duration DEFAULT_STORE_AND_FORWARD_SYNC_INTERVAL = Duration.ofSeconds(1);
+
+    public static final int DEFAULT_MAX_UNACKED_MESSAGES = 100;
+
+    /**
+     * Number of stripes per inbound thread, reducing the chance of unrelated topics
+     * sharing a stripe
+     */
+    private static final int INBOUND_STRIPES_PER_THREAD = 4;
+
+    private static final int MAX_POOLED_BUFFERS = 8;
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+    /**
+     * Buffers which grew beyond this size will not be pooled
+     */
+    private static final int MAX_POOLED_BUFFER_SIZE = 64 * 1024;
+
     private final String clientId;
     private final BinaryPayloadCodec codec;
     private MqttNamespace namespace;
+    private final InFlightWindow inFlightWindow;
+    private final StoreAndForward storeAndForward;
+    private final OutboundQueue outboundQueue;
+    private final ExecutorService inboundPool;
+    private final StripedExecutor inboundExecutor;
+    private ExecutorService queuePool;
+    private final boolean manualAcks;
+    private final int maxUnackedMessages;
+    private final AtomicInteger unackedMessages = new AtomicInteger();
+    private final Object flowLock = new Object();
+    private volatile boolean inboundSuspended;
+    private final TokenBucket rateLimiter;
+    private final ReconnectPolicy reconnectPolicy;
+
+    protected final MqttSubscriptions subscriptions = new MqttSubscriptions();
+
+    private final AtomicLong connectAttempts = new AtomicLong();
+    private final AtomicLong connectFailures = new AtomicLong();
+    private final AtomicLong connections = new AtomicLong();
+    private final AtomicInteger reconnectAttempt = new AtomicInteger();
+    private volatile Duration resubscribeTime;
+
+    private final Recycler<ByteBuffer> buffers = new Recycler<>(MAX_POOLED_BUFFERS, () -> ByteBuffer.allocate(INITIAL_BUFFER_SIZE), ByteBuffer::clear);
 
     public MqttClient(final ScheduledExecutorService executor, final BinaryPayloadCodec codec, final MqttNamespace namespace, final String clientId, final Set<Module> modules) {
-        super(executor, modules);
+        super(executor, true, null, null, clientId, modules);
+        this.clientId = clientId;
+        this.codec = codec;
+        this.namespace = namespace;
+        this.inFlightWindow = InFlightWindow.unbounded();
+        this.storeAndForward = null;
+        this.outboundQueue = null;
+        this.inboundPool = null;
+        this.inboundExecutor = null;
+        this.manualAcks = false;
+        this.maxUnackedMessages = DEFAULT_MAX_UNACKED_MESSAGES;
+        this.rateLimiter = null;
+        this.reconnectPolicy = new ExponentialBackoff();
+    }
+
+    /**
+     * Create a new client, applying the publishing options of the builder
+     *
+     * @throws IOException
+     *             if the store-and-forward log could not be opened
+     */
+    public MqttClient(final ScheduledExecutorService executor, final BinaryPayloadCodec codec, final MqttNamespace namespace, final String clientId, final Set<Module> modules,
+            final Builder<?> builder) throws IOException {
+        super(executor, builder.executor() == null, builder.createHandlerExecutor(clientId), builder.lingerExecutor(), clientId, modules);
         this.clientId = clientId;
         this.codec = codec;
         this.namespace = namespace;
+        this.inFlightWindow = new InFlightWindow(builder.maxInFlight(), builder.inFlightPolicy());
+        this.reconnectPolicy = builder.reconnectPolicy();
+
+        if (builder.publishRate() > 0) {
+            final int burst = builder.publishBurst() > 0 ? builder.publishBurst() : (int) Math.ceil(builder.publishRate());
+            this.rateLimiter = new TokenBucket(builder.publishRate(), burst);
+        } else {
+            this.rateLimiter = null;
+        }
+
+        if (builder.storeAndForward() != null) {
+            final SegmentedLog log = new SegmentedLog(builder.storeAndForward());
+            this.storeAndForward = new StoreAndForward(log, executor, this.inFlightWindow, builder.drainRate(),
+                    () -> this.rateLimiter == null || this.rateLimiter.tryAcquire(reserve(Priority.LOW)),
+                    this::publishMqtt, builder.storeAndForwardSyncInterval(), builder.storeAndForwardMaxSize(), builder.storeAndForwardPolicy());
+        } else {
+            this.storeAndForward = null;
+        }
+
+        if (builder.inboundThreads() > 0) {
+            final AtomicInteger counter = new AtomicInteger();
+            this.inboundPool = Executors.newFixedThreadPool(builder.inboundThreads(), r -> {
+                final Thread thread = new Thread(r, clientId + "-inbound-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.inboundExecutor = new StripedExecutor(this.inboundPool, builder.inboundThreads() * INBOUND_STRIPES_PER_THREAD);
+        } else {
+            this.inboundPool = null;
+            this.inboundExecutor = null;
+        }
+
+        this.manualAcks = builder.manualAcks();
+        this.maxUnackedMessages = builder.maxUnackedMessages();
+
+        if (builder.outboundQueueSize() > 0) {
+            this.outboundQueue = new OutboundQueue(clientId + "-writer", builder.outboundQueueSize(),
+                    (topic, payload, qos, retain, priority) -> publishDirect(topic, payload, qos, retain, priority, false));
+        } else {
+            this.outboundQueue = null;
+        }
+    }
+
+    protected CompletionStage<Void> publish(String applicationId, Topic topic, ByteBuffer buffer) throws Exception {
+        return publish(applicationId, topic, QoS.AT_LEAST_ONCE, false, buffer);
+    }
+
+    protected CompletionStage<Void> publish(String applicationId, Topic topic, QoS qos, boolean retain, ByteBuffer buffer) throws Exception {
+        return publish(applicationId, topic, qos, retain, Priority.NORMAL, buffer);
     }
 
-    protected void publish(String applicationId, Topic topic, ByteBuffer buffer) throws Exception {
-        final String mqttTopic = namespace.dataTopic(clientId, applicationId, topic);
-        publishMqtt(mqttTopic, buffer);
+    protected CompletionStage<Void> publish(String applicationId, Topic topic, QoS qos, boolean retain, Priority priority, ByteBuffer buffer) throws Exception {
+        if (topic.isWildcard()) {
+            throw new IllegalArgumentException("Unable to publish to a topic filter: " + topic);
+        }
+
+        return publish(dataTopic(applicationId, topic), qos, retain, priority, buffer);
     }
 
-    public abstract void publishMqtt(String topic, ByteBuffer payload) throws Exception;
+    /**
+     * Publish to an already rendered MQTT topic
+     *
+     * @param mqttTopic
+     *            the MQTT topic, as rendered by {@link #dataTopic(String, Topic)}
+     */
+    protected CompletionStage<Void> publish(final String mqttTopic, final QoS qos, final boolean retain, final Priority priority, final ByteBuffer buffer) throws Exception {
+        if (this.outboundQueue != null) {
+            // wait for the rate limit here, and not in the single writer thread
+            if (this.rateLimiter != null && (this.storeAndForward == null || !this.storeAndForward.isStoring(priority))) {
+                this.rateLimiter.acquire(reserve(priority));
+            }
+            return this.outboundQueue.offer(mqttTopic, buffer, qos, retain, priority);
+        }
+
+        return publishDirect(mqttTopic, buffer, qos, retain, priority, true);
+    }
+
+    private CompletionStage<Void> publishDirect(final String mqttTopic, final ByteBuffer buffer, final QoS qos, final boolean retain, final Priority priority, final boolean rateLimit)
+            throws Exception {
+        if (this.storeAndForward != null) {
+            final CompletionStage<Void> stored = this.storeAndForward.offer(mqttTopic, buffer, qos, retain, priority);
+            if (stored != null) {
+                return stored;
+            }
+        }
+
+        if (rateLimit && this.rateLimiter != null) {
+            this.rateLimiter.acquire(reserve(priority));
+        }
 
-    protected abstract CompletionStage<?> subscribeMqtt(String topic, MqttMessageHandler messageHandler) throws Exception;
+        return this.inFlightWindow.execute(
+                () -> publishMqtt(mqttTopic, buffer, qos, retain),
+                () -> {
+                    // the buffer is only valid during this call
+                    final ByteBuffer copy = ByteBuffer.wrap(Buffers.toByteArray(buffer));
+                    return () -> publishMqtt(mqttTopic, copy, qos, retain);
+                });
+    }
+
+    /**
+     * Get the number of tokens which must stay available for messages of higher priority
+     */
+    private int reserve(final Priority priority) {
+        switch (priority) {
+        case LOW:
+            return this.rateLimiter.getCapacity() / 2;
+        case NORMAL:
+            return this.rateLimiter.getCapacity() / 4;
+        default:
+            return 0;
+        }
+    }
+
+    /**
+     * Publish a message, using {@link QoS#AT_LEAST_ONCE} and not retaining the message
+     * 
+     * @see #publishMqtt(String, ByteBuffer, QoS, boolean)
+     */
+    public CompletionStage<Void> publishMqtt(final String topic, final ByteBuffer payload) throws Exception {
+        return publishMqtt(topic, payload, QoS.AT_LEAST_ONCE, false);
+    }
+
+    /**
+     * Publish a message
+     * <p>
+     * The payload buffer is only valid for the duration of the call. Implementations
+     * must copy the data if they need it after the call returned.
+     * </p>
+     * <p>
+     * The returned stage must complete once the broker acknowledged the message, or
+     * complete exceptionally if the message could not be delivered.
+     * </p>
+     * 
+     * @param topic
+     *            the MQTT topic
+     * @param payload
+     *            the payload to publish
+     * @param qos
+     *            the quality of service
+     * @param retain
+     *            whether the broker should retain the message
+     * @return the stage, completing once the message was acknowledged
+     * @throws Exception
+     *             if anything goes wrong
+     */
+    public abstract CompletionStage<Void> publishMqtt(String topic, ByteBuffer payload, QoS qos, boolean retain) throws Exception;
+
+    /**
+     * Acquire an empty buffer for encoding a payload
+     * <p>
+     * The buffer must be handed back by calling {@link #releaseBuffer(ByteBuffer)}.
+     * </p>
+     * 
+     * @return the buffer, never {@code null}
+     */
+    protected ByteBuffer acquireBuffer() {
+        return this.buffers.acquire();
+    }
+
+    /**
+     * Release a buffer acquired by {@link #acquireBuffer()}
+     * <p>
+     * It is also possible to release a buffer which was returned from
+     * {@link BinaryPayloadCodec#encode(org.eclipse.kapua.gateway.client.Payload, ByteBuffer)}
+     * instead of the original buffer, in case the codec had to allocate a larger buffer.
+     * </p>
+     * 
+     * @param buffer
+     *            the buffer to release, may be {@code null}
+     */
+    protected void releaseBuffer(final ByteBuffer buffer) {
+        if (buffer == null || !buffer.hasArray() || buffer.capacity() > MAX_POOLED_BUFFER_SIZE) {
+            return;
+        }
+        this.buffers.release(buffer);
+    }
+
+    protected abstract CompletionStage<?> subscribeMqtt(String topic, QoS qos, MqttMessageHandler messageHandler) throws Exception;
 
     protected CompletionStage<?> subscribe(final String applicationId, final Topic topic, final MqttMessageHandler messageHandler) throws Exception {
-        final String mqttTopic = namespace.dataTopic(clientId, applicationId, topic);
-        return subscribeMqtt(mqttTopic, messageHandler);
+        return subscribe(applicationId, topic, QoS.AT_LEAST_ONCE, messageHandler);
+    }
+
+    protected CompletionStage<?> subscribe(final String applicationId, final Topic topic, final QoS qos, final MqttMessageHandler messageHandler) throws Exception {
+        return subscribeMqtt(dataTopic(applicationId, topic), qos, messageHandler);
+    }
+
+    /**
+     * Check if received messages are handled by the inbound worker pool
+     *
+     * @return {@code true} if messages are handed to the worker pool, {@code false}
+     *         if they are handled on the calling thread
+     * @see Builder#inboundThreads(int)
+     */
+    protected boolean isInboundDispatch() {
+        return this.inboundExecutor != null;
+    }
+
+    /**
+     * Dispatch a received message to the subscribed handlers
+     * <p>
+     * If {@link #isInboundDispatch()} is enabled, the message is handled by the inbound
+     * worker pool, and the payload buffer must stay valid after the call returned.
+     * Otherwise the handlers are called directly.
+     * </p>
+     *
+     * @param topic
+     *            the MQTT topic of the message
+     * @param payload
+     *            the payload of the message
+     * @return {@code true} if the message got accepted, {@code false} if no subscription
+     *         matched the topic
+     * @throws Exception
+     *             if a handler, called directly, failed
+     */
+    protected boolean dispatchMessage(final String topic, final ByteBuffer payload) throws Exception {
+        if (this.inboundExecutor == null) {
+            return this.subscriptions.dispatch(topic, payload) > 0;
+        }
+
+        this.inboundExecutor.execute(topic, () -> {
+            try {
+                this.subscriptions.dispatch(topic, payload);
+            } catch (final Exception e) {
+                logger.warn("Failed to handle message for: {}", topic, e);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Check if received messages are acknowledged after they got processed
+     *
+     * @return {@code true} if providers must use {@link #dispatchMessage(String, ByteBuffer, Acknowledgement)}
+     * @see Builder#manualAcks(boolean)
+     */
+    protected boolean isManualAcks() {
+        return this.manualAcks;
+    }
+
+    /**
+     * Dispatch a received message, acknowledging it once it got processed
+     * <p>
+     * The acknowledgement is completed exactly once, after all handlers processed
+     * the message. This happens on the calling thread, on the inbound worker pool,
+     * or on the thread of a subscription which handed the message over. As long as too
+     * many messages are not yet acknowledged, {@link #suspendInbound()} takes effect.
+     * </p>
+     *
+     * @param topic
+     *            the MQTT topic of the message
+     * @param payload
+     *            the payload of the message, which must stay valid until the
+     *            acknowledgement is completed
+     * @param ack
+     *            the acknowledgement of the message
+     */
+    protected void dispatchMessage(final String topic, final ByteBuffer payload, final Acknowledgement ack) {
+        this.unackedMessages.incrementAndGet();
+        checkFlow();
+
+        final Runnable task = () -> {
+            final CompletionStage<?> processed;
+            try {
+                processed = this.subscriptions.dispatchAsync(topic, payload);
+            } catch (final Exception e) {
+                logger.warn("Failed to handle message for: {}", topic, e);
+                acknowledge(ack, e);
+                return;
+            }
+
+            if (processed == null) {
+                acknowledge(ack, null);
+                return;
+            }
+
+            // failures got reported by the handler which took over the message
+            processed.whenComplete((result, error) -> {
+                acknowledge(ack, error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+            });
+        };
+
+        if (this.inboundExecutor != null) {
+            this.inboundExecutor.execute(topic, task);
+        } else {
+            task.run();
+        }
+    }
+
+    private void acknowledge(final Acknowledgement ack, final Throwable error) {
+        // no longer counted once the acknowledgement is visible
+        this.unackedMessages.decrementAndGet();
+        try {
+            ack.complete(error);
+        } finally {
+            checkFlow();
+        }
+    }
+
+    private void checkFlow() {
+        final int unacked = this.unackedMessages.get();
+        final boolean suspend = unacked >= this.maxUnackedMessages;
+        final boolean resume = unacked <= this.maxUnackedMessages / 2;
+
+        if (suspend == this.inboundSuspended || !suspend && !resume) {
+            return;
+        }
+
+        synchronized (this.flowLock) {
+            final int current = this.unackedMessages.get();
+            if (!this.inboundSuspended && current >= this.maxUnackedMessages) {
+                logger.debug("Suspending inbound messages - unacked: {}", current);
+                this.inboundSuspended = true;
+                suspendInbound();
+            } else if (this.inboundSuspended && current <= this.maxUnackedMessages / 2) {
+                logger.debug("Resuming inbound messages - unacked: {}", current);
+                this.inboundSuspended = false;
+                resumeInbound();
+            }
+        }
+    }
+
+    /**
+     * Stop reading messages from the broker
+     * <p>
+     * Called when too many received messages are not yet acknowledged. The default
+     * implementation does nothing, relying on the provider to not read new messages
+     * while a message is being dispatched.
+     * </p>
+     */
+    protected void suspendInbound() {
+    }
+
+    /**
+     * Continue reading messages from the broker
+     *
+     * @see #suspendInbound()
+     */
+    protected void resumeInbound() {
+    }
+
+    /**
+     * Get the number of received messages which are not yet acknowledged
+     *
+     * @return the number of messages, zero if manual acknowledgements are not enabled
+     */
+    public int getUnackedMessages() {
+        return this.unackedMessages.get();
+    }
+
+    /**
+     * Get the executor for draining the queue of a subscription
+     * <p>
+     * This is the executor for message handlers, if configured, or else the inbound
+     * worker pool. If neither is configured, a dedicated pool is created on first use.
+     * Handlers must not run on the executor of the client, which also reconnects and
+     * drains the store-and-forward log.
+     * </p>
+     *
+     * @return the executor, never {@code null}
+     */
+    protected Executor getQueueExecutor() {
+        final Executor handlerExecutor = getHandlerExecutor();
+        if (handlerExecutor != null) {
+            return handlerExecutor;
+        }
+        if (this.inboundPool != null) {
+            return this.inboundPool;
+        }
+        synchronized (this) {
+            if (this.queuePool == null) {
+                final AtomicInteger counter = new AtomicInteger();
+                this.queuePool = Executors.newCachedThreadPool(r -> {
+                    final Thread thread = new Thread(r, this.clientId + "-queue-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            return this.queuePool;
+        }
+    }
+
+    /**
+     * Render the MQTT topic of a data topic
+     *
+     * @param applicationId
+     *            the application ID
+     * @param topic
+     *            the data topic
+     * @return the MQTT topic
+     */
+    protected String dataTopic(final String applicationId, final Topic topic) {
+        return this.namespace.dataTopic(this.clientId, applicationId, topic);
+    }
+
+    /**
+     * Render the common prefix of the MQTT topics of an application
+     *
+     * @param applicationId
+     *            the application ID
+     * @return the prefix, or {@code null} if the namespace doesn't support prefixes
+     * @see MqttNamespace#dataTopicPrefix(String, String)
+     */
+    protected String dataTopicPrefix(final String applicationId) {
+        return this.namespace.dataTopicPrefix(this.clientId, applicationId);
     }
 
     @Override
     protected void internalUnsubscribe(final String applicationId, final Collection<Topic> topics) throws Exception {
-        Set<String> mqttTopics = topics.stream().map(topic -> namespace.dataTopic(clientId, applicationId, topic)).collect(Collectors.toSet());
+        Set<String> mqttTopics = topics.stream().map(topic -> dataTopic(applicationId, topic)).collect(Collectors.toSet());
         unsubscribeMqtt(mqttTopics);
     }
 
     protected abstract void unsubscribeMqtt(Set<String> mqttTopics) throws Exception;
 
+    /**
+     * Get the window of published messages which are not yet acknowledged
+     * <p>
+     * The window can be used to monitor the occupancy of the window and the number of
+     * messages which got dropped or rejected.
+     * </p>
+     *
+     * @return the window, never {@code null}
+     */
+    public InFlightWindow getInFlightWindow() {
+        return this.inFlightWindow;
+    }
+
+    /**
+     * Get the number of messages in the store-and-forward log
+     *
+     * @return the number of stored messages which are not yet acknowledged, zero
+     *         if store-and-forward is not enabled
+     */
+    public long getStoredMessages() {
+        return this.storeAndForward != null ? this.storeAndForward.size() : 0;
+    }
+
+    /**
+     * Get the number of messages dropped because the store-and-forward log was full
+     *
+     * @return the total number of dropped messages, zero if store-and-forward is not enabled
+     * @see Builder#storeAndForwardPolicy(StoreOverflowPolicy)
+     */
+    public long getDroppedStoredMessages() {
+        return this.storeAndForward != null ? this.storeAndForward.dropped() : 0;
+    }
+
+    /**
+     * Get the number of messages in the outbound queue
+     *
+     * @return the number of messages waiting for the writer thread, zero if
+     *         the outbound queue is not enabled
+     */
+    public int getQueuedMessages() {
+        return this.outboundQueue != null ? this.outboundQueue.size() : 0;
+    }
+
+    /**
+     * Get the delay before the next connection attempt
+     * <p>
+     * Each call counts as a new attempt, until the client is connected again.
+     * </p>
+     *
+     * @return the delay, according to the reconnect policy
+     */
+    protected Duration nextReconnectDelay() {
+        return this.reconnectPolicy.nextDelay(this.reconnectAttempt.incrementAndGet());
+    }
+
+    /**
+     * Record that the provider started a connection attempt
+     */
+    protected void notifyConnectAttempt() {
+        this.connectAttempts.incrementAndGet();
+    }
+
+    /**
+     * Record that a connection attempt of the provider failed
+     */
+    protected void notifyConnectFailed() {
+        this.connectFailures.incrementAndGet();
+    }
+
+    /**
+     * Get the total number of connection attempts
+     *
+     * @return the number of attempts, zero if the provider does not report attempts
+     */
+    public long getConnectAttempts() {
+        return this.connectAttempts.get();
+    }
+
+    /**
+     * Get the total number of failed connection attempts
+     *
+     * @return the number of failed attempts, zero if the provider does not report attempts
+     */
+    public long getConnectFailures() {
+        return this.connectFailures.get();
+    }
+
+    /**
+     * Get the total number of successfully established connections
+     *
+     * @return the number of connections
+     */
+    public long getConnections() {
+        return this.connections.get();
+    }
+
+    /**
+     * Get the number of reconnect attempts since the connection was lost
+     *
+     * @return the number of attempts, zero while being connected
+     */
+    public int getReconnectAttempt() {
+        return this.reconnectAttempt.get();
+    }
+
+    /**
+     * Report that all subscriptions got re-established after a connect
+     *
+     * @param duration
+     *            the time between the connection being established and the broker
+     *            acknowledging the last subscription
+     */
+    protected void notifyResubscribed(final Duration duration) {
+        this.resubscribeTime = duration;
+    }
+
+    /**
+     * Get the time it took to re-establish all subscriptions after the last connect
+     * <p>
+     * Providers which restore subscriptions inside the MQTT library don't report
+     * this value.
+     * </p>
+     *
+     * @return the duration, or {@code null} if no subscriptions got re-established yet
+     */
+    public Duration getResubscribeTime() {
+        return this.resubscribeTime;
+    }
+
+    @Override
+    protected void handleConnected() {
+        this.reconnectAttempt.set(0);
+        this.connections.incrementAndGet();
+        super.handleConnected();
+        if (this.storeAndForward != null) {
+            this.storeAndForward.connected();
+        }
+    }
+
+    @Override
+    protected void handleDisconnected() {
+        if (this.storeAndForward != null) {
+            this.storeAndForward.disconnected();
+        }
+        super.handleDisconnected();
+    }
+
+    /**
+     * Close the store-and-forward log
+     * <p>
+     * Implementations must call this method when the client gets closed.
+     * </p>
+     */
+    protected void closeStoreAndForward() {
+        if (this.storeAndForward != null) {
+            this.storeAndForward.close();
+        }
+    }
+
+    @Override
+    protected void shutdownExecutor() {
+        try {
+            super.shutdownExecutor();
+        } finally {
+            if (this.inboundPool != null) {
+                this.inboundPool.shutdown();
+            }
+            synchronized (this) {
+                if (this.queuePool != null) {
+                    this.queuePool.shutdown();
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop the writer thread of the outbound queue
+     * <p>
+     * Implementations must call this method when the client gets closed, before
+     * disconnecting. Messages which are still queued will fail.
+     * </p>
+     */
+    protected void closeOutboundQueue() {
+        if (this.outboundQueue != null) {
+            this.outboundQueue.close();
+        }
+    }
+
     public String getMqttClientId() {
         return this.clientId;
     }
 
     @Override
     protected AbstractApplication internalCreateApplication(final Application.Builder builder, final String applicationId) {
-        return new MqttApplication(this, applicationId, this.executor);
+        return new MqttApplication(this, applicationId, this.eventExecutor, builder);
     }
 
     protected BinaryPayloadCodec getCodec() {
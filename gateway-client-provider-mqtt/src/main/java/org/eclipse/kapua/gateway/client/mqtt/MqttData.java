@@ -0,0 +1,31 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.mqtt;
+
+import org.eclipse.kapua.gateway.client.spi.AbstractData;
+
+/**
+ * A data instance holding its rendered MQTT topic
+ */
+final class MqttData extends AbstractData {
+
+    private final String mqttTopic;
+
+    MqttData(final Builder builder, final String mqttTopic) {
+        super(builder);
+        this.mqttTopic = mqttTopic;
+    }
+
+    String getMqttTopic() {
+        return this.mqttTopic;
+    }
+}
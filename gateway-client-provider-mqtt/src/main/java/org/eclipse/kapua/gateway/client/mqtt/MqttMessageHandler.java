@@ -12,9 +12,33 @@
 package org.eclipse.kapua.gateway.client.mqtt;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.CompletionStage;
 
 @FunctionalInterface
 public interface MqttMessageHandler {
 
     public void handleMessage(String topic, ByteBuffer payload) throws Exception;
+
+    /**
+     * Handle a message, reporting when it got processed
+     * <p>
+     * This is used when received messages are acknowledged manually. Handlers which
+     * hand the message over to another thread return a stage which completes once
+     * the message got processed or dropped. The payload buffer is only valid until
+     * this method returns.
+     * </p>
+     *
+     * @param topic
+     *            the topic of the message
+     * @param payload
+     *            the payload of the message
+     * @return the stage of the processing, {@code null} if the message got processed
+     *         before the method returned
+     * @throws Exception
+     *             if handling the message failed
+     */
+    public default CompletionStage<?> handleMessageAsync(final String topic, final ByteBuffer payload) throws Exception {
+        handleMessage(topic, payload);
+        return null;
+    }
 }
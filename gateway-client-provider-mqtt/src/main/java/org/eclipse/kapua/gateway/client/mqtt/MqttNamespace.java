@@ -30,4 +30,23 @@ public interface MqttNamespace {
      * @return The topic or {@code null} if no topic could be rendered for the provided input parameters
      */
     public String dataTopic(String clientId, String applicationId, Topic topic);
+
+    /**
+     * Render the common prefix of all data topics of an application
+     * <p>
+     * If a namespace supports prefixes, rendering a data topic must be equal to
+     * appending the segments of the data topic, separated by slashes, to the prefix.
+     * This allows clients to render the prefix only once per application.
+     * </p>
+     * 
+     * @param clientId
+     *            The MQTT client ID
+     * @param applicationId
+     *            The application ID
+     * @return The prefix, including the trailing slash, or {@code null} if the namespace
+     *         doesn't support prefixes
+     */
+    public default String dataTopicPrefix(final String clientId, final String applicationId) {
+        return null;
+    }
 }
@@ -0,0 +1,238 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.mqtt;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.kapua.gateway.client.QoS;
+import org.eclipse.kapua.gateway.client.utils.TopicTrie;
+
+/**
+ * A registry of MQTT subscriptions
+ * <p>
+ * The registry is safe for concurrent use and does not lock when looking up
+ * a subscription. Message dispatch does not contend with changes to the
+ * subscriptions or other activities of the client.
+ * </p>
+ * <p>
+ * Subscriptions may use MQTT wildcards. Received messages are routed to all
+ * subscriptions with a matching topic filter, using a {@link TopicTrie}. As long
+ * as there are no wildcard subscriptions, a message is routed by a single lookup
+ * of its topic.
+ * </p>
+ */
+public final class MqttSubscriptions {
+
+    /**
+     * A subscription to an MQTT topic
+     */
+    public static final class Subscription {
+
+        private final String topic;
+        private final QoS qos;
+        private final MqttMessageHandler handler;
+
+        private volatile boolean established;
+
+        private Subscription(final String topic, final QoS qos, final MqttMessageHandler handler) {
+            this.topic = topic;
+            this.qos = qos;
+            this.handler = handler;
+        }
+
+        public String getTopic() {
+            return this.topic;
+        }
+
+        public QoS getQos() {
+            return this.qos;
+        }
+
+        public MqttMessageHandler getHandler() {
+            return this.handler;
+        }
+
+        /**
+         * Test if the broker acknowledged the subscription
+         * <p>
+         * Established subscriptions are kept by the broker as part of a persistent
+         * session and don't need to be re-established if the session is still present.
+         * </p>
+         *
+         * @return {@code true} if the subscription is established
+         */
+        public boolean isEstablished() {
+            return this.established;
+        }
+
+        public void setEstablished(final boolean established) {
+            this.established = established;
+        }
+    }
+
+    private final ConcurrentMap<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+    private final TopicTrie<Subscription> filters = new TopicTrie<>();
+
+    private volatile int wildcards;
+
+    /**
+     * Add or replace a subscription
+     *
+     * @param topic
+     *            the MQTT topic
+     * @param qos
+     *            the quality of service
+     * @param handler
+     *            the handler for received messages
+     * @return the new subscription
+     */
+    public synchronized Subscription put(final String topic, final QoS qos, final MqttMessageHandler handler) {
+        Objects.requireNonNull(topic);
+        Objects.requireNonNull(qos);
+        Objects.requireNonNull(handler);
+
+        final Subscription subscription = new Subscription(topic, qos, handler);
+        if (this.subscriptions.put(topic, subscription) == null && isWildcard(topic)) {
+            this.wildcards++;
+        }
+        this.filters.put(topic, subscription);
+        return subscription;
+    }
+
+    /**
+     * Remove a subscription
+     *
+     * @param topic
+     *            the MQTT topic
+     * @return {@code true} if the subscription was present
+     */
+    public synchronized boolean remove(final String topic) {
+        if (this.subscriptions.remove(topic) == null) {
+            return false;
+        }
+
+        if (isWildcard(topic)) {
+            this.wildcards--;
+        }
+        this.filters.remove(topic);
+        return true;
+    }
+
+    /**
+     * Look up the subscription of a topic
+     *
+     * @param topic
+     *            the MQTT topic
+     * @return the subscription, or {@code null} if there is none
+     */
+    public Subscription get(final String topic) {
+        return this.subscriptions.get(topic);
+    }
+
+    /**
+     * Dispatch a received message
+     * <p>
+     * The message is handed to the handlers of all subscriptions whose topic filter
+     * matches the topic of the message. Each handler receives its own view of the
+     * payload buffer.
+     * </p>
+     *
+     * @param topic
+     *            the topic of the received message
+     * @param payload
+     *            the payload of the received message
+     * @return the number of handlers which received the message
+     * @throws Exception
+     *             if a handler failed, remaining handlers will not be called
+     */
+    public int dispatch(final String topic, final ByteBuffer payload) throws Exception {
+        if (this.wildcards == 0) {
+            final Subscription subscription = this.subscriptions.get(topic);
+            if (subscription == null) {
+                return 0;
+            }
+            subscription.getHandler().handleMessage(topic, payload);
+            return 1;
+        }
+
+        return this.filters.match(topic, subscription -> subscription.getHandler().handleMessage(topic, payload.duplicate()));
+    }
+
+    /**
+     * Dispatch a received message, reporting when all handlers processed it
+     * <p>
+     * This works like {@link #dispatch(String, ByteBuffer)}, but uses
+     * {@link MqttMessageHandler#handleMessageAsync(String, ByteBuffer)}.
+     * </p>
+     *
+     * @param topic
+     *            the topic of the received message
+     * @param payload
+     *            the payload of the received message
+     * @return the stage completing once all handlers processed the message,
+     *         {@code null} if they did so before the method returned
+     * @throws Exception
+     *             if a handler failed, remaining handlers will not be called
+     */
+    public CompletionStage<?> dispatchAsync(final String topic, final ByteBuffer payload) throws Exception {
+        if (this.wildcards == 0) {
+            final Subscription subscription = this.subscriptions.get(topic);
+            if (subscription == null) {
+                return null;
+            }
+            return subscription.getHandler().handleMessageAsync(topic, payload);
+        }
+
+        final List<CompletableFuture<?>> pending = new ArrayList<>();
+        this.filters.match(topic, subscription -> {
+            final CompletionStage<?> stage = subscription.getHandler().handleMessageAsync(topic, payload.duplicate());
+            if (stage != null) {
+                pending.add(stage.toCompletableFuture());
+            }
+        });
+
+        if (pending.isEmpty()) {
+            return null;
+        }
+        return CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[pending.size()]));
+    }
+
+    private static boolean isWildcard(final String topic) {
+        return topic.indexOf('+') >= 0 || topic.indexOf('#') >= 0;
+    }
+
+    /**
+     * Get all subscriptions
+     * <p>
+     * The returned collection is a weakly consistent, read-only view. It never
+     * fails when the subscriptions change concurrently.
+     * </p>
+     *
+     * @return all subscriptions
+     */
+    public Collection<Subscription> all() {
+        return Collections.unmodifiableCollection(this.subscriptions.values());
+    }
+
+    public boolean isEmpty() {
+        return this.subscriptions.isEmpty();
+    }
+}
@@ -0,0 +1,219 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.mqtt;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.eclipse.kapua.gateway.client.Priority;
+import org.eclipse.kapua.gateway.client.QoS;
+import org.eclipse.kapua.gateway.client.utils.Buffers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A queue of outbound messages, drained by a single writer thread
+ * <p>
+ * Producers copy the payload and append the message to a lock-free queue, without
+ * contending on the locks of the MQTT library. A single writer thread takes all
+ * queued messages and hands them to the publisher, one after the other, parking
+ * only when the queue is empty. This keeps the order of the messages, regardless
+ * of their priority. Waiting for the rate limit, which respects priorities, must
+ * therefore happen before messages get queued.
+ * </p>
+ * <p>
+ * If the queue is full, producers wait until the writer has caught up.
+ * </p>
+ */
+final class OutboundQueue implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutboundQueue.class);
+
+    /**
+     * Time a producer waits before checking a full queue again
+     */
+    private static final long FULL_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    @FunctionalInterface
+    interface Publisher {
+
+        public CompletionStage<Void> publish(String topic, ByteBuffer payload, QoS qos, boolean retain, Priority priority) throws Exception;
+    }
+
+    private static final class Message {
+
+        private final String topic;
+        private final byte[] payload;
+        private final QoS qos;
+        private final boolean retain;
+        private final Priority priority;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private Message(final String topic, final byte[] payload, final QoS qos, final boolean retain, final Priority priority) {
+            this.topic = topic;
+            this.payload = payload;
+            this.qos = qos;
+            this.retain = retain;
+            this.priority = priority;
+        }
+    }
+
+    private final Queue<Message> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicBoolean sleeping = new AtomicBoolean();
+
+    private final int capacity;
+    private final Publisher publisher;
+    private final Thread writer;
+
+    private volatile boolean closed;
+
+    /**
+     * Create a new queue and start the writer thread
+     *
+     * @param name
+     *            the name of the writer thread
+     * @param capacity
+     *            the maximum number of queued messages
+     * @param publisher
+     *            the publisher called by the writer thread
+     */
+    OutboundQueue(final String name, final int capacity, final Publisher publisher) {
+        this.capacity = capacity;
+        this.publisher = publisher;
+
+        this.writer = new Thread(this::run, name);
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Queue a message
+     *
+     * @param payload
+     *            the payload, which will be copied before the call returns
+     * @return the stage, completing once the message got published
+     * @throws InterruptedException
+     *             if the caller was interrupted while waiting for a full queue
+     */
+    CompletionStage<Void> offer(final String topic, final ByteBuffer payload, final QoS qos, final boolean retain, final Priority priority) throws InterruptedException {
+        // reserve a slot, concurrent producers must not exceed the capacity
+
+        while (true) {
+            checkClosed();
+
+            final int current = this.size.get();
+            if (current < this.capacity) {
+                if (this.size.compareAndSet(current, current + 1)) {
+                    break;
+                }
+                continue;
+            }
+
+            LockSupport.parkNanos(this, FULL_WAIT_NANOS);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+
+        final Message message = new Message(topic, Buffers.toByteArray(payload.duplicate()), qos, retain, priority);
+        this.queue.offer(message);
+
+        if (this.closed) {
+            // the writer may already be gone
+            failRemaining();
+        } else if (this.sleeping.get() && this.sleeping.compareAndSet(true, false)) {
+            LockSupport.unpark(this.writer);
+        }
+
+        return message.future;
+    }
+
+    private void checkClosed() {
+        if (this.closed) {
+            throw new IllegalStateException("Client is closed");
+        }
+    }
+
+    private void run() {
+        while (!this.closed) {
+            final Message message = this.queue.poll();
+
+            if (message == null) {
+                this.sleeping.set(true);
+                if (this.queue.isEmpty() && !this.closed) {
+                    LockSupport.park(this);
+                }
+                this.sleeping.set(false);
+                continue;
+            }
+
+            this.size.decrementAndGet();
+            publish(message);
+        }
+
+        failRemaining();
+    }
+
+    private void publish(final Message message) {
+        try {
+            this.publisher.publish(message.topic, ByteBuffer.wrap(message.payload), message.qos, message.retain, message.priority)
+                    .whenComplete((v, error) -> {
+                        if (error != null) {
+                            message.future.completeExceptionally(error);
+                        } else {
+                            message.future.complete(null);
+                        }
+                    });
+        } catch (final Exception e) {
+            logger.debug("Failed to publish message", e);
+            message.future.completeExceptionally(e);
+        }
+    }
+
+    private void failRemaining() {
+        Message message;
+        while ((message = this.queue.poll()) != null) {
+            this.size.decrementAndGet();
+            message.future.completeExceptionally(new IllegalStateException("Client is closed"));
+        }
+    }
+
+    /**
+     * Get the number of queued messages
+     *
+     * @return the number of messages not yet handed to the publisher
+     */
+    int size() {
+        return this.size.get();
+    }
+
+    /**
+     * Stop the writer thread
+     * <p>
+     * Messages which are still queued will fail. The writer thread gets interrupted
+     * in case it is blocked publishing a message.
+     * </p>
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        this.writer.interrupt();
+    }
+}
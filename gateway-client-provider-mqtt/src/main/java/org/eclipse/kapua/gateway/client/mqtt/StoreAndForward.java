@@ -0,0 +1,299 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.mqtt;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.eclipse.kapua.gateway.client.Priority;
+import org.eclipse.kapua.gateway.client.QoS;
+import org.eclipse.kapua.gateway.client.mqtt.MqttClient.StoreOverflowPolicy;
+import org.eclipse.kapua.gateway.client.utils.InFlightWindow;
+import org.eclipse.kapua.gateway.client.utils.SegmentedLog;
+import org.eclipse.kapua.gateway.client.utils.SegmentedLog.Record;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Store messages on disk while being disconnected, and forward them once connected
+ * <p>
+ * While the client is disconnected, new messages get appended to the log. While
+ * connected, messages of {@link Priority#HIGH} and {@link Priority#NORMAL} priority are
+ * published directly, ahead of the stored messages, and only messages of
+ * {@link Priority#LOW} priority get appended while stored messages are still waiting
+ * to be forwarded. This keeps the order of low priority messages.
+ * Once the client is connected, stored messages get forwarded at a limited rate,
+ * respecting the in-flight window of the client. A stored message gets committed once
+ * it was acknowledged. Messages which were forwarded, but not acknowledged, will be
+ * forwarded again after the next reconnect.
+ * </p>
+ * <p>
+ * Stored messages are synced to the storage device at most once per sync interval,
+ * triggered by storing a message, and by a timer, which covers the last messages
+ * stored before a pause. A sync interval of zero syncs every stored message.
+ * </p>
+ */
+final class StoreAndForward implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(StoreAndForward.class);
+
+    private static final long DRAIN_INTERVAL_MILLIS = 100;
+
+    private static final CompletionStage<Void> COMPLETED = CompletableFuture.completedFuture(null);
+
+    private static final CompletionStage<Void> STORED = CompletableFuture.completedFuture(null);
+
+    @FunctionalInterface
+    interface Publisher {
+
+        public CompletionStage<?> publish(String topic, ByteBuffer payload, QoS qos, boolean retain) throws Exception;
+    }
+
+    private final SegmentedLog log;
+    private final ScheduledExecutorService executor;
+    private final InFlightWindow window;
+    private final BooleanSupplier permit;
+    private final Publisher publisher;
+    private final int messagesPerDrain;
+    private final long syncIntervalNanos;
+    private final long maxSize;
+    private final StoreOverflowPolicy overflowPolicy;
+
+    private ByteBuffer encodeBuffer = ByteBuffer.allocate(1024);
+
+    private boolean connected;
+    private boolean closed;
+    private ScheduledFuture<?> drain;
+    private final ScheduledFuture<?> syncTimer;
+    private long lastSync = System.nanoTime();
+    private long dropped;
+
+    /**
+     * @param permit
+     *            asked for every message before it gets forwarded, in order to
+     *            apply additional rate limiting
+     * @param syncInterval
+     *            the maximum interval between syncs to the storage device
+     * @param maxSize
+     *            the maximum number of bytes stored in the log, zero for no limit
+     * @param overflowPolicy
+     *            the policy to apply when the log is full
+     */
+    StoreAndForward(final SegmentedLog log, final ScheduledExecutorService executor, final InFlightWindow window, final int drainRate, final BooleanSupplier permit,
+            final Publisher publisher, final Duration syncInterval, final long maxSize, final StoreOverflowPolicy overflowPolicy) {
+        this.log = log;
+        this.executor = executor;
+        this.window = window;
+        this.permit = permit;
+        this.publisher = publisher;
+        this.messagesPerDrain = Math.max(1, (int) (drainRate * DRAIN_INTERVAL_MILLIS / 1000));
+        this.syncIntervalNanos = syncInterval.toNanos();
+        this.maxSize = maxSize;
+        this.overflowPolicy = overflowPolicy;
+
+        if (this.syncIntervalNanos > 0) {
+            this.syncTimer = executor.scheduleWithFixedDelay(this::syncExpired, this.syncIntervalNanos, this.syncIntervalNanos, TimeUnit.NANOSECONDS);
+        } else {
+            this.syncTimer = null;
+        }
+    }
+
+    /**
+     * Store a message, if required
+     *
+     * @return the stage of the stored or dropped message, or {@code null} if the message
+     *         should be published directly
+     * @throws RejectedExecutionException
+     *             if the log is full, and the overflow policy is {@link StoreOverflowPolicy#FAIL}
+     */
+    synchronized CompletionStage<Void> offer(final String topic, final ByteBuffer payload, final QoS qos, final boolean retain, final Priority priority) throws IOException {
+        if (!isStoring(priority)) {
+            return null;
+        }
+
+        final byte[] topicBytes = topic.getBytes(UTF_8);
+        final int size = 2 + topicBytes.length + 2 + payload.remaining();
+
+        if (this.maxSize > 0 && this.log.storedBytes() + size > this.maxSize) {
+            if (this.overflowPolicy == StoreOverflowPolicy.DROP_NEWEST) {
+                this.dropped++;
+                final CompletableFuture<Void> result = new CompletableFuture<>();
+                result.completeExceptionally(new RejectedExecutionException("Store-and-forward log is full, message dropped"));
+                return result;
+            }
+            throw new RejectedExecutionException("Store-and-forward log is full");
+        }
+
+        if (this.encodeBuffer.capacity() < size) {
+            this.encodeBuffer = ByteBuffer.allocate(Integer.highestOneBit(size) << 1);
+        }
+
+        final ByteBuffer buffer = this.encodeBuffer;
+        buffer.clear();
+        buffer.putShort((short) topicBytes.length);
+        buffer.put(topicBytes);
+        buffer.put((byte) qos.level());
+        buffer.put(retain ? (byte) 1 : (byte) 0);
+        buffer.put(payload.duplicate());
+        buffer.flip();
+
+        this.log.append(buffer);
+        maybeSync();
+
+        return STORED;
+    }
+
+    /**
+     * Check if a message would currently be stored, instead of being published directly
+     */
+    synchronized boolean isStoring(final Priority priority) {
+        return !this.closed && (!this.connected || priority == Priority.LOW && this.log.hasNext());
+    }
+
+    private void maybeSync() {
+        final long now = System.nanoTime();
+        if (now - this.lastSync >= this.syncIntervalNanos) {
+            this.lastSync = now;
+            this.log.sync();
+        }
+    }
+
+    private synchronized void syncExpired() {
+        if (this.closed) {
+            return;
+        }
+
+        try {
+            this.lastSync = System.nanoTime();
+            this.log.sync();
+        } catch (final Exception e) {
+            logger.warn("Failed to sync store-and-forward log", e);
+        }
+    }
+
+    synchronized void connected() {
+        if (this.closed) {
+            return;
+        }
+
+        this.connected = true;
+        this.log.rewind();
+
+        if (this.drain == null) {
+            this.drain = this.executor.scheduleWithFixedDelay(this::drain, 0, DRAIN_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    synchronized void disconnected() {
+        this.connected = false;
+
+        if (this.drain != null) {
+            this.drain.cancel(false);
+            this.drain = null;
+        }
+    }
+
+    synchronized long size() {
+        return this.closed ? 0 : this.log.size();
+    }
+
+    synchronized long dropped() {
+        return this.dropped;
+    }
+
+    private void drain() {
+        try {
+            for (int i = 0; i < this.messagesPerDrain; i++) {
+                synchronized (this) {
+                    if (!this.connected || !this.log.hasNext()) {
+                        return;
+                    }
+                }
+                if (!this.permit.getAsBoolean()) {
+                    // rate limit reached, try again later
+                    return;
+                }
+                if (this.window.tryExecute(this::forwardNext) == null) {
+                    // window is full, try again later
+                    return;
+                }
+            }
+        } catch (final Exception e) {
+            logger.warn("Failed to forward stored message", e);
+        }
+    }
+
+    private CompletionStage<?> forwardNext() throws Exception {
+        final Record record;
+        synchronized (this) {
+            record = this.connected ? this.log.next() : null;
+        }
+
+        if (record == null) {
+            return COMPLETED;
+        }
+
+        final ByteBuffer data = record.getData();
+        final byte[] topicBytes = new byte[data.getShort() & 0xFFFF];
+        data.get(topicBytes);
+        final QoS qos = toQoS(data.get());
+        final boolean retain = data.get() != 0;
+
+        return this.publisher.publish(new String(topicBytes, UTF_8), data, qos, retain)
+                .whenComplete((v, ex) -> {
+                    if (ex == null) {
+                        commit(record);
+                    } else {
+                        logger.debug("Failed to forward stored message, will retry after reconnect", ex);
+                    }
+                });
+    }
+
+    private synchronized void commit(final Record record) {
+        if (!this.closed) {
+            this.log.commit(record);
+        }
+    }
+
+    private static QoS toQoS(final int level) {
+        for (final QoS qos : QoS.values()) {
+            if (qos.level() == level) {
+                return qos;
+            }
+        }
+        return QoS.AT_LEAST_ONCE;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (this.closed) {
+            return;
+        }
+
+        disconnected();
+        if (this.syncTimer != null) {
+            this.syncTimer.cancel(false);
+        }
+        this.closed = true;
+        this.log.close();
+    }
+}
@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.mqtt;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.eclipse.kapua.gateway.client.QoS;
+import org.eclipse.kapua.gateway.client.utils.Buffers;
+
+/**
+ * An MQTT client which does not perform any I/O
+ * <p>
+ * Published messages are recorded as {@code topic:payload}. Subscriptions get
+ * registered, and received messages can be simulated by calling the dispatch methods.
+ * </p>
+ */
+public class MockMqttClient extends MqttClient {
+
+    public static class Builder extends MqttClient.Builder<Builder> {
+
+        public Builder() {
+            clientId("mock");
+            namespace((clientId, applicationId, topic) -> applicationId + "/" + topic);
+        }
+
+        @Override
+        protected Builder builder() {
+            return this;
+        }
+
+        @Override
+        public MockMqttClient build() throws IOException {
+            final ScheduledExecutorService executor = executor() != null ? executor() : Executors.newSingleThreadScheduledExecutor();
+            return new MockMqttClient(executor, this);
+        }
+    }
+
+    private static final CompletionStage<Void> COMPLETED = CompletableFuture.completedFuture(null);
+
+    private final List<String> published = Collections.synchronizedList(new ArrayList<>());
+
+    private MockMqttClient(final ScheduledExecutorService executor, final Builder builder) throws IOException {
+        super(executor, builder.codec(), builder.namespace(), builder.clientId(), builder.modules(), builder);
+    }
+
+    @Override
+    public CompletionStage<Void> publishMqtt(final String topic, final ByteBuffer payload, final QoS qos, final boolean retain) throws Exception {
+        this.published.add(topic + ":" + new String(Buffers.toByteArray(payload), UTF_8));
+        return COMPLETED;
+    }
+
+    @Override
+    protected CompletionStage<?> subscribeMqtt(final String topic, final QoS qos, final MqttMessageHandler messageHandler) throws Exception {
+        this.subscriptions.put(topic, qos, messageHandler).setEstablished(true);
+        return COMPLETED;
+    }
+
+    @Override
+    protected void unsubscribeMqtt(final Set<String> mqttTopics) throws Exception {
+        for (final String topic : mqttTopics) {
+            this.subscriptions.remove(topic);
+        }
+    }
+
+    /**
+     * Simulate the arrival of a message
+     * <p>
+     * Like an MQTT library re-using its frame buffer, the payload buffer gets
+     * overwritten once this method returned.
+     * </p>
+     *
+     * @return {@code true} if the message got accepted
+     */
+    public boolean receive(final String topic, final String payload) throws Exception {
+        final ByteBuffer frame = ByteBuffer.wrap(payload.getBytes(UTF_8));
+        try {
+            final ByteBuffer buffer = isInboundDispatch() ? ByteBuffer.wrap(Buffers.toByteArray(frame.duplicate())) : frame;
+            return dispatchMessage(topic, buffer);
+        } finally {
+            Arrays.fill(frame.array(), (byte) 0);
+        }
+    }
+
+    /**
+     * Simulate the arrival of a message, which is acknowledged manually
+     *
+     * @return the stage completing once the message got acknowledged, failing if
+     *         processing the message failed
+     */
+    public CompletableFuture<Void> receiveAcked(final String topic, final String payload) {
+        final CompletableFuture<Void> acked = new CompletableFuture<>();
+        dispatchMessage(topic, ByteBuffer.wrap(payload.getBytes(UTF_8)), error -> {
+            if (error == null) {
+                acked.complete(null);
+            } else {
+                acked.completeExceptionally(error);
+            }
+        });
+        return acked;
+    }
+
+    /**
+     * Get the published messages
+     *
+     * @return a copy of the messages, in the order they were published
+     */
+    public List<String> getPublished() {
+        synchronized (this.published) {
+            return new ArrayList<>(this.published);
+        }
+    }
+
+    @Override
+    public void close() {
+        closeOutboundQueue();
+        closeStoreAndForward();
+        shutdownExecutor();
+    }
+}
@@ -0,0 +1,259 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.mqtt;
+
+import java.time.Duration;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.kapua.gateway.client.Application;
+import org.eclipse.kapua.gateway.client.Data;
+import org.eclipse.kapua.gateway.client.OverflowPolicy;
+import org.eclipse.kapua.gateway.client.Payload;
+import org.eclipse.kapua.gateway.client.Topic;
+import org.eclipse.kapua.gateway.client.spi.HandlerExecution;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MqttApplicationTest {
+
+    private static void await(final CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    public void testHandlerExecutorCopiesPayload() throws Exception {
+        try (MockMqttClient client = new MockMqttClient.Builder()
+                .codec(new StringPayloadCodec())
+                .handlerExecution(HandlerExecution.VIRTUAL_THREADS)
+                .build();
+                Application application = client.buildApplication("app").build()) {
+
+            final CountDownLatch first = new CountDownLatch(1);
+            final CountDownLatch release = new CountDownLatch(1);
+            final BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+
+            application.data(Topic.of("foo")).subscribe(payload -> {
+                first.countDown();
+                await(release);
+                received.add(payload.getValues().get(StringPayloadCodec.KEY));
+            });
+
+            client.receive("app/foo", "one");
+            Assert.assertTrue(first.await(5, TimeUnit.SECONDS));
+
+            // handled once the first handler returns, after the frame buffer got re-used
+
+            client.receive("app/foo", "two");
+            release.countDown();
+
+            Assert.assertEquals("one", received.poll(5, TimeUnit.SECONDS));
+            Assert.assertEquals("two", received.poll(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testQueueUsesDedicatedExecutor() throws Exception {
+        try (MockMqttClient client = new MockMqttClient.Builder()
+                .codec(new StringPayloadCodec())
+                .build();
+                Application application = client.buildApplication("app").build()) {
+
+            final BlockingQueue<String> threads = new LinkedBlockingQueue<>();
+
+            application.buildData(Topic.of("foo")).queueCapacity(4).build().subscribe(payload -> {
+                threads.add(Thread.currentThread().getName());
+            });
+
+            client.receive("app/foo", "one");
+
+            Assert.assertEquals("mock-queue-1", threads.poll(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testManualAckAfterQueuedHandler() throws Exception {
+        try (MockMqttClient client = new MockMqttClient.Builder()
+                .codec(new StringPayloadCodec())
+                .manualAcks(true)
+                .build();
+                Application application = client.buildApplication("app").build()) {
+
+            final CountDownLatch release = new CountDownLatch(1);
+
+            application.buildData(Topic.of("foo")).queueCapacity(4).build().subscribe(payload -> await(release));
+
+            final CompletableFuture<Void> acked = client.receiveAcked("app/foo", "one");
+
+            // queued, but not yet processed
+
+            Thread.sleep(50);
+            Assert.assertFalse(acked.isDone());
+            Assert.assertEquals(1, client.getUnackedMessages());
+
+            release.countDown();
+            acked.get(5, TimeUnit.SECONDS);
+            Assert.assertEquals(0, client.getUnackedMessages());
+        }
+    }
+
+    @Test
+    public void testManualAckOnDrop() throws Exception {
+        try (MockMqttClient client = new MockMqttClient.Builder()
+                .codec(new StringPayloadCodec())
+                .manualAcks(true)
+                .build();
+                Application application = client.buildApplication("app").build()) {
+
+            final CountDownLatch first = new CountDownLatch(1);
+            final CountDownLatch release = new CountDownLatch(1);
+
+            application.buildData(Topic.of("foo")).queueCapacity(1).overflowPolicy(OverflowPolicy.DROP_NEWEST).build().subscribe(payload -> {
+                first.countDown();
+                await(release);
+            });
+
+            final CompletableFuture<Void> acked1 = client.receiveAcked("app/foo", "one");
+            Assert.assertTrue(first.await(5, TimeUnit.SECONDS));
+
+            final CompletableFuture<Void> acked2 = client.receiveAcked("app/foo", "two");
+            final CompletableFuture<Void> acked3 = client.receiveAcked("app/foo", "three");
+
+            // the third message got dropped, the others are still processed
+
+            acked3.get(5, TimeUnit.SECONDS);
+            Assert.assertFalse(acked1.isDone());
+            Assert.assertFalse(acked2.isDone());
+
+            release.countDown();
+            acked1.get(5, TimeUnit.SECONDS);
+            acked2.get(5, TimeUnit.SECONDS);
+            Assert.assertEquals(0, client.getUnackedMessages());
+        }
+    }
+
+    @Test
+    public void testManualAckAfterHandlerExecutor() throws Exception {
+        try (MockMqttClient client = new MockMqttClient.Builder()
+                .codec(new StringPayloadCodec())
+                .manualAcks(true)
+                .handlerExecution(HandlerExecution.VIRTUAL_THREADS)
+                .build();
+                Application application = client.buildApplication("app").build()) {
+
+            final CountDownLatch release = new CountDownLatch(1);
+            final BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+
+            application.data(Topic.of("foo")).subscribe(payload -> {
+                await(release);
+                received.add(payload.getValues().get(StringPayloadCodec.KEY));
+            });
+
+            final CompletableFuture<Void> acked = client.receiveAcked("app/foo", "one");
+
+            Thread.sleep(50);
+            Assert.assertFalse(acked.isDone());
+
+            release.countDown();
+            acked.get(5, TimeUnit.SECONDS);
+            Assert.assertEquals("one", received.poll());
+        }
+    }
+
+    @Test
+    public void testFilterTopic() throws Exception {
+        try (MockMqttClient client = new MockMqttClient.Builder()
+                .codec(new StringPayloadCodec())
+                .build();
+                Application application = client.buildApplication("app").build()) {
+
+            final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+
+            application.data(Topic.filter("sensors", "+")).subscribe((topic, payload) -> {
+                received.add(topic + "=" + payload.getValues().get(StringPayloadCodec.KEY));
+            });
+            application.data(Topic.of("status")).subscribe((topic, payload) -> {
+                received.add(topic + "=" + payload.getValues().get(StringPayloadCodec.KEY));
+            });
+
+            client.receive("app/sensors/s1", "one");
+            client.receive("app/sensors/s2", "two");
+            client.receive("app/status", "three");
+
+            Assert.assertEquals("sensors/s1=one", received.poll(5, TimeUnit.SECONDS));
+            Assert.assertEquals("sensors/s2=two", received.poll(5, TimeUnit.SECONDS));
+            Assert.assertEquals("status=three", received.poll(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testFilterTopicQueued() throws Exception {
+        try (MockMqttClient client = new MockMqttClient.Builder()
+                .codec(new StringPayloadCodec())
+                .build();
+                Application application = client.buildApplication("app").build()) {
+
+            final BlockingQueue<Topic> received = new LinkedBlockingQueue<>();
+
+            application.buildData(Topic.filter("sensors", "#")).queueCapacity(4).build().subscribe((topic, payload) -> received.add(topic));
+
+            client.receive("app/sensors/building/s1", "one");
+
+            Assert.assertEquals(Topic.of("sensors", "building", "s1"), received.poll(5, TimeUnit.SECONDS));
+        }
+    }
+
+    private static String flushThread(final MockMqttClient client) throws Exception {
+        final BlockingQueue<String> threads = new LinkedBlockingQueue<>();
+
+        // long enough to register the callback before the flush
+        try (Application application = client.buildApplication("app").linger(Duration.ofMillis(200)).build()) {
+            final Data data = application.data(Topic.of("bar"));
+            data.sendAsync(Payload.of(StringPayloadCodec.KEY, "one")).thenRun(() -> threads.add(Thread.currentThread().getName()));
+            return threads.poll(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testLingerThread() throws Exception {
+        try (MockMqttClient client = new MockMqttClient.Builder()
+                .codec(new StringPayloadCodec())
+                .build()) {
+
+            Assert.assertEquals("mock-linger", flushThread(client));
+        }
+    }
+
+    @Test
+    public void testLingerSharedScheduler() throws Exception {
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "shared-linger"));
+        try (MockMqttClient client = new MockMqttClient.Builder()
+                .codec(new StringPayloadCodec())
+                .lingerExecutor(scheduler)
+                .build()) {
+
+            Assert.assertEquals("shared-linger", flushThread(client));
+        } finally {
+            Assert.assertFalse(scheduler.isShutdown());
+            scheduler.shutdown();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.mqtt;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import org.eclipse.kapua.gateway.client.QoS;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MqttSubscriptionsTest {
+
+    private final MqttSubscriptions subscriptions = new MqttSubscriptions();
+
+    private final List<String> received = new ArrayList<>();
+
+    private final List<ByteBuffer> buffers = new ArrayList<>();
+
+    private MqttMessageHandler handler(final String name) {
+        return (topic, payload) -> {
+            this.received.add(name + ":" + topic);
+            this.buffers.add(payload);
+        };
+    }
+
+    private static MqttMessageHandler asyncHandler(final CompletionStage<?> stage) {
+        return new MqttMessageHandler() {
+
+            @Override
+            public void handleMessage(final String topic, final ByteBuffer payload) throws Exception {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public CompletionStage<?> handleMessageAsync(final String topic, final ByteBuffer payload) throws Exception {
+                return stage;
+            }
+        };
+    }
+
+    /**
+     * Dispatch a message and test if it took the exact match fast path
+     * <p>
+     * Only the fast path hands the original buffer to the handler, the
+     * topic trie hands each handler its own duplicate.
+     * </p>
+     */
+    private boolean dispatchFast(final String topic) throws Exception {
+        final ByteBuffer payload = ByteBuffer.allocate(1);
+        this.buffers.clear();
+
+        Assert.assertEquals(1, this.subscriptions.dispatch(topic, payload));
+        Assert.assertEquals(1, this.buffers.size());
+        return this.buffers.get(0) == payload;
+    }
+
+    @Test
+    public void testExactFastPath() throws Exception {
+        this.subscriptions.put("foo/bar", QoS.AT_MOST_ONCE, handler("a"));
+
+        Assert.assertTrue(dispatchFast("foo/bar"));
+        Assert.assertEquals(0, this.subscriptions.dispatch("foo/baz", ByteBuffer.allocate(1)));
+        Assert.assertEquals(0, this.subscriptions.dispatch("foo", ByteBuffer.allocate(1)));
+
+        Assert.assertEquals(1, this.received.size());
+        Assert.assertEquals("a:foo/bar", this.received.get(0));
+    }
+
+    @Test
+    public void testWildcardTrie() throws Exception {
+        this.subscriptions.put("foo/bar", QoS.AT_MOST_ONCE, handler("a"));
+        this.subscriptions.put("foo/+", QoS.AT_MOST_ONCE, handler("b"));
+        this.subscriptions.put("#", QoS.AT_MOST_ONCE, handler("c"));
+
+        final ByteBuffer payload = ByteBuffer.allocate(1);
+        Assert.assertEquals(3, this.subscriptions.dispatch("foo/bar", payload));
+        Assert.assertEquals(2, this.subscriptions.dispatch("foo/baz", payload));
+        Assert.assertEquals(1, this.subscriptions.dispatch("bar", payload));
+
+        Assert.assertTrue(this.received.contains("a:foo/bar"));
+        Assert.assertTrue(this.received.contains("b:foo/bar"));
+        Assert.assertTrue(this.received.contains("c:foo/bar"));
+        Assert.assertTrue(this.received.contains("b:foo/baz"));
+        Assert.assertTrue(this.received.contains("c:foo/baz"));
+        Assert.assertTrue(this.received.contains("c:bar"));
+        Assert.assertEquals(6, this.received.size());
+
+        for (final ByteBuffer buffer : this.buffers) {
+            Assert.assertNotSame(payload, buffer);
+        }
+    }
+
+    @Test
+    public void testRemoveWildcard() throws Exception {
+        this.subscriptions.put("foo/bar", QoS.AT_MOST_ONCE, handler("a"));
+        this.subscriptions.put("foo/+", QoS.AT_MOST_ONCE, handler("b"));
+
+        Assert.assertFalse(dispatchFast("foo/baz"));
+
+        Assert.assertTrue(this.subscriptions.remove("foo/+"));
+
+        Assert.assertTrue(dispatchFast("foo/bar"));
+        Assert.assertEquals(0, this.subscriptions.dispatch("foo/baz", ByteBuffer.allocate(1)));
+    }
+
+    @Test
+    public void testReplaceWildcard() throws Exception {
+        this.subscriptions.put("foo/bar", QoS.AT_MOST_ONCE, handler("a"));
+        this.subscriptions.put("foo/#", QoS.AT_MOST_ONCE, handler("b"));
+        this.subscriptions.put("foo/#", QoS.AT_LEAST_ONCE, handler("c"));
+
+        this.received.clear();
+        Assert.assertFalse(dispatchFast("foo/baz"));
+        Assert.assertEquals("c:foo/baz", this.received.get(0));
+        Assert.assertEquals(QoS.AT_LEAST_ONCE, this.subscriptions.get("foo/#").getQos());
+
+        // replacing must not count the wildcard twice
+        Assert.assertTrue(this.subscriptions.remove("foo/#"));
+        Assert.assertTrue(dispatchFast("foo/bar"));
+    }
+
+    @Test
+    public void testRemoveMissingWildcard() throws Exception {
+        this.subscriptions.put("foo/+", QoS.AT_MOST_ONCE, handler("a"));
+
+        Assert.assertFalse(this.subscriptions.remove("bar/+"));
+        Assert.assertFalse(this.subscriptions.remove("bar/+"));
+
+        Assert.assertFalse(dispatchFast("foo/bar"));
+    }
+
+    @Test
+    public void testDispatchAsyncCombined() throws Exception {
+        final CompletableFuture<?> first = new CompletableFuture<>();
+        final CompletableFuture<?> second = new CompletableFuture<>();
+
+        this.subscriptions.put("foo/+", QoS.AT_MOST_ONCE, asyncHandler(first));
+        this.subscriptions.put("foo/#", QoS.AT_MOST_ONCE, asyncHandler(second));
+        this.subscriptions.put("foo/bar", QoS.AT_MOST_ONCE, asyncHandler(null));
+
+        final CompletionStage<?> stage = this.subscriptions.dispatchAsync("foo/bar", ByteBuffer.allocate(1));
+        Assert.assertNotNull(stage);
+
+        final CompletableFuture<?> future = stage.toCompletableFuture();
+        Assert.assertFalse(future.isDone());
+
+        first.complete(null);
+        Assert.assertFalse(future.isDone());
+
+        second.complete(null);
+        Assert.assertTrue(future.isDone());
+        Assert.assertFalse(future.isCompletedExceptionally());
+    }
+
+    @Test
+    public void testDispatchAsyncFailed() throws Exception {
+        final CompletableFuture<?> first = new CompletableFuture<>();
+        final CompletableFuture<?> second = new CompletableFuture<>();
+
+        this.subscriptions.put("foo/+", QoS.AT_MOST_ONCE, asyncHandler(first));
+        this.subscriptions.put("foo/#", QoS.AT_MOST_ONCE, asyncHandler(second));
+
+        final CompletableFuture<?> future = this.subscriptions.dispatchAsync("foo/bar", ByteBuffer.allocate(1)).toCompletableFuture();
+
+        first.completeExceptionally(new Exception());
+        Assert.assertFalse(future.isDone());
+
+        second.complete(null);
+        Assert.assertTrue(future.isCompletedExceptionally());
+    }
+
+    @Test
+    public void testDispatchAsyncSynchronous() throws Exception {
+        this.subscriptions.put("foo/+", QoS.AT_MOST_ONCE, handler("a"));
+        this.subscriptions.put("foo/#", QoS.AT_MOST_ONCE, handler("b"));
+
+        Assert.assertNull(this.subscriptions.dispatchAsync("foo/bar", ByteBuffer.allocate(1)));
+        Assert.assertEquals(2, this.received.size());
+    }
+
+    @Test
+    public void testDispatchAsyncFastPath() throws Exception {
+        final CompletableFuture<?> future = new CompletableFuture<>();
+        this.subscriptions.put("foo/bar", QoS.AT_MOST_ONCE, asyncHandler(future));
+
+        Assert.assertSame(future, this.subscriptions.dispatchAsync("foo/bar", ByteBuffer.allocate(1)));
+        Assert.assertNull(this.subscriptions.dispatchAsync("foo/baz", ByteBuffer.allocate(1)));
+    }
+}
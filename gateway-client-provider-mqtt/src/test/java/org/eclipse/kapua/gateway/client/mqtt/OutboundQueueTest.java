@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.mqtt;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.kapua.gateway.client.Priority;
+import org.eclipse.kapua.gateway.client.QoS;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OutboundQueueTest {
+
+    private static final ByteBuffer PAYLOAD = ByteBuffer.wrap("payload".getBytes(UTF_8));
+
+    @Test
+    public void testCapacity() throws Exception {
+        final int capacity = 4;
+        final CountDownLatch publishing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        try (OutboundQueue queue = new OutboundQueue("writer", capacity, (topic, payload, qos, retain, priority) -> {
+            publishing.countDown();
+            release.await();
+            return CompletableFuture.completedFuture(null);
+        })) {
+
+            // the writer blocks on the first message
+
+            queue.offer("first", PAYLOAD, QoS.AT_LEAST_ONCE, false, Priority.NORMAL);
+            Assert.assertTrue(publishing.await(5, TimeUnit.SECONDS));
+
+            final List<Thread> producers = new ArrayList<>();
+            for (int i = 0; i < capacity * 4; i++) {
+                final Thread producer = new Thread(() -> {
+                    try {
+                        queue.offer("topic", PAYLOAD, QoS.AT_LEAST_ONCE, false, Priority.NORMAL);
+                    } catch (final InterruptedException e) {
+                        // expected
+                    }
+                });
+                producer.start();
+                producers.add(producer);
+            }
+
+            final long timeout = System.currentTimeMillis() + 5_000;
+            while (queue.size() < capacity && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(50);
+
+            Assert.assertEquals(capacity, queue.size());
+
+            for (final Thread producer : producers) {
+                producer.interrupt();
+                producer.join(5_000);
+            }
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testRateLimitKeepsPriority() throws Exception {
+        try (MockMqttClient client = new MockMqttClient.Builder()
+                .outboundQueueSize(16)
+                .publishRate(0.5)
+                .publishBurst(4)
+                .build()) {
+
+            // take the tokens low priority messages may use
+
+            client.publish("low1", QoS.AT_LEAST_ONCE, false, Priority.LOW, PAYLOAD.duplicate());
+            client.publish("low2", QoS.AT_LEAST_ONCE, false, Priority.LOW, PAYLOAD.duplicate());
+
+            final Thread low = new Thread(() -> {
+                try {
+                    client.publish("low3", QoS.AT_LEAST_ONCE, false, Priority.LOW, PAYLOAD.duplicate());
+                } catch (final InterruptedException e) {
+                    // expected
+                } catch (final Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            low.start();
+
+            try {
+                client.publish("high", QoS.AT_LEAST_ONCE, false, Priority.HIGH, PAYLOAD.duplicate()).toCompletableFuture().get(1, TimeUnit.SECONDS);
+                Assert.assertFalse(client.getPublished().contains("low3:payload"));
+            } finally {
+                low.interrupt();
+                low.join(5_000);
+            }
+        }
+    }
+}
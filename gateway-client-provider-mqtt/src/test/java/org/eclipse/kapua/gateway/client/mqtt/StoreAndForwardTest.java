@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.mqtt;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.eclipse.kapua.gateway.client.Priority;
+import org.eclipse.kapua.gateway.client.QoS;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class StoreAndForwardTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ScheduledExecutorService executor;
+
+    @Before
+    public void setup() {
+        this.executor = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+    }
+
+    private static void publish(final MockMqttClient client, final String topic, final Priority priority) throws Exception {
+        client.publish(topic, QoS.AT_LEAST_ONCE, false, priority, ByteBuffer.wrap(priority.name().getBytes(UTF_8)));
+    }
+
+    private static void waitForPublished(final MockMqttClient client, final int count) throws InterruptedException {
+        final long timeout = System.currentTimeMillis() + 5_000;
+        while (client.getPublished().size() < count && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testLiveAheadOfReplay() throws Exception {
+        try (MockMqttClient client = new MockMqttClient.Builder()
+                .executor(this.executor)
+                .storeAndForward(this.folder.getRoot().toPath())
+                .build()) {
+
+            // disconnected, all messages get stored
+
+            publish(client, "stored1", Priority.HIGH);
+            publish(client, "stored2", Priority.LOW);
+
+            Assert.assertEquals(2, client.getStoredMessages());
+            Assert.assertTrue(client.getPublished().isEmpty());
+
+            // keep the executor from draining the log
+
+            final CountDownLatch release = new CountDownLatch(1);
+            this.executor.execute(() -> {
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+
+            client.handleConnected();
+
+            publish(client, "live1", Priority.HIGH);
+            publish(client, "live2", Priority.NORMAL);
+            publish(client, "low", Priority.LOW);
+
+            Assert.assertEquals(Arrays.asList("live1:HIGH", "live2:NORMAL"), client.getPublished());
+            Assert.assertEquals(3, client.getStoredMessages());
+
+            release.countDown();
+            waitForPublished(client, 5);
+
+            Assert.assertEquals(Arrays.asList("live1:HIGH", "live2:NORMAL", "stored1:HIGH", "stored2:LOW", "low:LOW"), client.getPublished());
+        }
+    }
+
+    @Test
+    public void testLowWithoutBacklog() throws Exception {
+        try (MockMqttClient client = new MockMqttClient.Builder()
+                .executor(this.executor)
+                .storeAndForward(this.folder.getRoot().toPath())
+                .build()) {
+
+            client.handleConnected();
+
+            publish(client, "low", Priority.LOW);
+
+            Assert.assertEquals(Arrays.asList("low:LOW"), client.getPublished());
+            Assert.assertEquals(0, client.getStoredMessages());
+        }
+    }
+}
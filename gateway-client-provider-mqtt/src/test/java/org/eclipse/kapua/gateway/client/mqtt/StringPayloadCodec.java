@@ -0,0 +1,46 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.mqtt;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.nio.ByteBuffer;
+
+import org.eclipse.kapua.gateway.client.BinaryPayloadCodec;
+import org.eclipse.kapua.gateway.client.Payload;
+import org.eclipse.kapua.gateway.client.utils.Buffers;
+
+/**
+ * A codec encoding the value {@code "value"} of a payload as a string
+ */
+public class StringPayloadCodec implements BinaryPayloadCodec {
+
+    public static final String KEY = "value";
+
+    @Override
+    public ByteBuffer encode(final Payload payload, final ByteBuffer buffer) throws Exception {
+        final byte[] data = String.valueOf(payload.getValues().get(KEY)).getBytes(UTF_8);
+        if (buffer == null) {
+            return ByteBuffer.allocate(data.length).put(data);
+        }
+        if (buffer.remaining() < data.length) {
+            buffer.flip();
+            return ByteBuffer.allocate(buffer.remaining() + data.length).put(buffer).put(data);
+        }
+        return buffer.put(data);
+    }
+
+    @Override
+    public Payload decode(final ByteBuffer buffer) throws Exception {
+        return Payload.of(KEY, new String(Buffers.toByteArray(buffer), UTF_8));
+    }
+}
@@ -11,9 +11,14 @@
  *******************************************************************************/
 package org.eclipse.kapua.gateway.client.spi;
 
+import java.time.Duration;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
 
 import org.eclipse.kapua.gateway.client.Application;
@@ -22,20 +27,53 @@ import org.eclipse.kapua.gateway.client.MessageHandler;
 import org.eclipse.kapua.gateway.client.Payload;
 import org.eclipse.kapua.gateway.client.Topic;
 import org.eclipse.kapua.gateway.client.Transport;
+import org.eclipse.kapua.gateway.client.utils.Batches;
+import org.eclipse.kapua.gateway.client.utils.Coalescer;
 import org.eclipse.kapua.gateway.client.utils.TransportAsync;
 
 public abstract class AbstractApplication implements Application {
 
+    /**
+     * The maximum number of data instances cached by {@link #data(Topic)}
+     */
+    private static final int MAX_CACHED_DATA = 256;
+
     private final AbstractClient client;
     protected final Set<Topic> subscriptions = new HashSet<>();
     protected final String applicationId;
     protected final TransportAsync transport;
+    private final Coalescer<AbstractData> coalescer;
+    private final ConcurrentMap<Topic, AbstractData> data = new ConcurrentHashMap<>();
     private boolean closed;
 
     public AbstractApplication(final AbstractClient client, final String applicationId, final Executor executor) {
+        this(client, applicationId, executor, null);
+    }
+
+    /**
+     * Create a new application
+     * 
+     * @param client
+     *            the client the application belongs to
+     * @param applicationId
+     *            the application ID
+     * @param executor
+     *            the executor for transport events
+     * @param builder
+     *            the builder holding the application options, may be {@code null}
+     *            in which case default options are used
+     */
+    public AbstractApplication(final AbstractClient client, final String applicationId, final Executor executor, final Application.Builder builder) {
         this.client = client;
         this.applicationId = applicationId;
         this.transport = new TransportAsync(executor);
+
+        final Duration linger = builder != null ? builder.linger() : null;
+        if (linger != null && !linger.isZero()) {
+            this.coalescer = new Coalescer<>(client.getLingerExecutor(), linger, builder.maxBatchMetrics(), this::publishBatch);
+        } else {
+            this.coalescer = null;
+        }
     }
 
     protected synchronized void handleConnected() {
@@ -64,8 +102,52 @@ public abstract class AbstractApplication implements Application {
         return this.transport;
     }
 
+    /**
+     * Lookup a data controller to an application topic
+     * <p>
+     * Data controllers with the default options are cached per topic, so that looking
+     * up the same topic again returns the same instance.
+     * </p>
+     */
     @Override
-    public abstract AbstractData data(Topic topic);
+    public AbstractData data(final Topic topic) {
+        final AbstractData cached = this.data.get(topic);
+        if (cached != null) {
+            return cached;
+        }
+
+        final AbstractData result = buildData(topic).build();
+        if (this.data.size() < MAX_CACHED_DATA) {
+            final AbstractData existing = this.data.putIfAbsent(topic, result);
+            if (existing != null) {
+                return existing;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public AbstractData.Builder buildData(final Topic topic) {
+        return new AbstractData.Builder(this, topic);
+    }
+
+    /**
+     * Create a new data instance
+     * <p>
+     * Called by {@link AbstractData.Builder#build()}. Implementations may override this
+     * in order to return their own data implementation.
+     * </p>
+     */
+    protected AbstractData createData(final AbstractData.Builder builder) {
+        return new AbstractData(builder);
+    }
+
+    @Override
+    public void flush() throws Exception {
+        if (this.coalescer != null) {
+            this.coalescer.flush();
+        }
+    }
 
     @Override
     public void close() throws Exception {
@@ -76,19 +158,118 @@ public abstract class AbstractApplication implements Application {
             closed = true;
         }
 
-        client.internalCloseApplication(applicationId, subscriptions, this);
+        try {
+            if (this.coalescer != null) {
+                this.coalescer.close();
+            }
+        } finally {
+            client.internalCloseApplication(applicationId, subscriptions, this);
+        }
+    }
+
+    /**
+     * Send a payload, coalescing it if enabled
+     * 
+     * @return the stage, completing once the payload was delivered
+     */
+    protected CompletionStage<Void> send(final AbstractData data, final Payload payload) throws Exception {
+        if (this.coalescer != null) {
+            return this.coalescer.add(data, payload);
+        } else {
+            return publish(data, payload);
+        }
+    }
+
+    /**
+     * Send the current state of a payload builder, coalescing it if enabled
+     * 
+     * @return the stage, completing once the payload was delivered
+     */
+    protected CompletionStage<Void> send(final AbstractData data, final Payload.Builder payload) throws Exception {
+        if (this.coalescer != null) {
+            return this.coalescer.add(data, payload.build());
+        } else {
+            return publish(data, payload);
+        }
+    }
+
+    /**
+     * Send a batch of payloads, coalescing it if enabled
+     * 
+     * @return the stage, completing once all payloads were delivered
+     */
+    protected CompletionStage<Void> sendBatch(final AbstractData data, final Collection<Payload> payloads) throws Exception {
+        if (this.coalescer == null) {
+            return publishBatch(data, payloads);
+        }
+
+        CompletionStage<Void> result = null;
+        for (final Payload payload : payloads) {
+            final CompletionStage<Void> stage = this.coalescer.add(data, payload);
+            result = result == null || result == stage ? stage : result.thenCombine(stage, (a, b) -> null);
+        }
+        return result != null ? result : CompletableFuture.completedFuture(null);
     }
 
-    protected abstract void publish(Topic topic, Payload payload) throws Exception;
+    /**
+     * Publish a payload
+     * 
+     * @param data
+     *            the data instance, providing the topic and options
+     * @param payload
+     *            the payload to publish
+     * @return the stage, completing once the payload was delivered
+     */
+    protected abstract CompletionStage<Void> publish(AbstractData data, Payload payload) throws Exception;
 
-    public CompletionStage<?> subscribe(Topic topic, MessageHandler handler, ErrorHandler<? extends Throwable> errorHandler) throws Exception {
-        recordSubscription(topic);
-        return internalSubscribe(topic, handler, errorHandler);
+    /**
+     * Publish the current state of a payload builder
+     * <p>
+     * The default implementation builds the payload and calls {@link #publish(AbstractData, Payload)}.
+     * Implementations may override this in order to publish without building the payload first.
+     * </p>
+     */
+    protected CompletionStage<Void> publish(final AbstractData data, final Payload.Builder payload) throws Exception {
+        return publish(data, payload.build());
+    }
+
+    /**
+     * Publish a batch of payloads as a single message
+     * <p>
+     * The default implementation combines the payloads using {@link Batches#merge(Collection)}.
+     * A batch with a single payload is published as it is.
+     * </p>
+     */
+    protected CompletionStage<Void> publishBatch(final AbstractData data, final Collection<Payload> payloads) throws Exception {
+        if (payloads.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        if (payloads.size() == 1) {
+            return publish(data, payloads.iterator().next());
+        }
+
+        return publish(data, Batches.merge(payloads));
+    }
+
+    public CompletionStage<?> subscribe(AbstractData data, MessageHandler handler, ErrorHandler<? extends Throwable> errorHandler) throws Exception {
+        recordSubscription(data.getTopic());
+        return internalSubscribe(data, handler, errorHandler);
     }
 
     private void recordSubscription(final Topic topic) {
         subscriptions.add(topic);
     }
 
-    protected abstract CompletionStage<?> internalSubscribe(Topic topic, MessageHandler handler, ErrorHandler<? extends Throwable> errorHandler) throws Exception;
+    /**
+     * Create an executor for the message handler of a single subscription
+     *
+     * @return the executor, or {@code null} if handlers should be executed directly
+     * @see AbstractClient#createSubscriptionExecutor()
+     */
+    protected Executor createSubscriptionExecutor() {
+        return this.client.createSubscriptionExecutor();
+    }
+
+    protected abstract CompletionStage<?> internalSubscribe(AbstractData data, MessageHandler handler, ErrorHandler<? extends Throwable> errorHandler) throws Exception;
 }
\ No newline at end of file
@@ -11,12 +11,16 @@
  *******************************************************************************/
 package org.eclipse.kapua.gateway.client.spi;
 
+import java.time.Duration;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.function.Consumer;
 
@@ -26,7 +30,9 @@ import org.eclipse.kapua.gateway.client.Module;
 import org.eclipse.kapua.gateway.client.ModuleContext;
 import org.eclipse.kapua.gateway.client.Topic;
 import org.eclipse.kapua.gateway.client.Transport;
+import org.eclipse.kapua.gateway.client.utils.SerialExecutor;
 import org.eclipse.kapua.gateway.client.utils.TransportAsync;
+import org.eclipse.kapua.gateway.client.utils.VirtualThreads;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -40,6 +46,12 @@ public abstract class AbstractClient implements Client {
 
         private final Set<Module> modules = new HashSet<>();
 
+        private ScheduledExecutorService executor;
+        private ScheduledExecutorService lingerExecutor;
+
+        private HandlerExecution handlerExecution = HandlerExecution.DIRECT;
+        private int handlerThreads = DEFAULT_HANDLER_THREADS;
+
         public T module(final Module module) {
             Objects.requireNonNull(module);
 
@@ -50,20 +62,240 @@ public abstract class AbstractClient implements Client {
         public Set<Module> modules() {
             return this.modules;
         }
+
+        /**
+         * Use a shared executor instead of creating a dedicated one
+         * <p>
+         * The executor may be shared by many client instances and may use multiple
+         * threads. Closing the client will not shut down the executor, this is the
+         * responsibility of the caller, after all clients have been closed.
+         * </p>
+         *
+         * @param executor
+         *            the shared executor, {@code null} to let the client create its own
+         * @return the builder
+         */
+        public T executor(final ScheduledExecutorService executor) {
+            this.executor = executor;
+            return builder();
+        }
+
+        public ScheduledExecutorService executor() {
+            return this.executor;
+        }
+
+        /**
+         * Use a shared scheduler for flushing coalesced payloads
+         * <p>
+         * Flushing may block while the client is disconnected, so this should not be the
+         * executor of the clients. The scheduler may be shared by many client instances.
+         * Closing the client will not shut it down, this is the responsibility of the caller.
+         * </p>
+         *
+         * @param lingerExecutor
+         *            the shared scheduler, {@code null} to let the client create a thread
+         *            on first use
+         * @return the builder
+         * @see Application.Builder#linger(Duration)
+         */
+        public T lingerExecutor(final ScheduledExecutorService lingerExecutor) {
+            this.lingerExecutor = lingerExecutor;
+            return builder();
+        }
+
+        public ScheduledExecutorService lingerExecutor() {
+            return this.lingerExecutor;
+        }
+
+        /**
+         * Set how message handlers and transport events are executed
+         *
+         * @param handlerExecution
+         *            the execution mode, must not be {@code null}, defaults to {@link HandlerExecution#DIRECT}
+         * @return the builder
+         */
+        public T handlerExecution(final HandlerExecution handlerExecution) {
+            Objects.requireNonNull(handlerExecution);
+            this.handlerExecution = handlerExecution;
+            return builder();
+        }
+
+        public HandlerExecution handlerExecution() {
+            return this.handlerExecution;
+        }
+
+        /**
+         * Set the number of threads to use if virtual threads are not supported
+         *
+         * @param handlerThreads
+         *            the maximum number of handler threads, must be positive
+         * @return the builder
+         */
+        public T handlerThreads(final int handlerThreads) {
+            if (handlerThreads <= 0) {
+                throw new IllegalArgumentException("Number of handler threads must be positive");
+            }
+            this.handlerThreads = handlerThreads;
+            return builder();
+        }
+
+        public int handlerThreads() {
+            return this.handlerThreads;
+        }
+
+        /**
+         * Create the executor for message handlers
+         *
+         * @param name
+         *            the name of the client, used for naming threads
+         * @return the new executor, or {@code null} if handlers should be executed directly
+         */
+        public ExecutorService createHandlerExecutor(final String name) {
+            switch (this.handlerExecution) {
+            case VIRTUAL_THREADS:
+                return VirtualThreads.newExecutor(this.handlerThreads, name + "-handler");
+            default:
+                return null;
+            }
+        }
+    }
+
+    public static final int DEFAULT_MAX_BATCH_METRICS = 500;
+
+    public static final int DEFAULT_HANDLER_THREADS = 16;
+
+    protected class ApplicationBuilder implements Application.Builder {
+
+        private final String applicationId;
+
+        private Duration linger;
+        private int maxBatchMetrics = DEFAULT_MAX_BATCH_METRICS;
+
+        protected ApplicationBuilder(final String applicationId) {
+            this.applicationId = applicationId;
+        }
+
+        @Override
+        public ApplicationBuilder linger(final Duration linger) {
+            if (linger != null && linger.isNegative()) {
+                throw new IllegalArgumentException("Linger time must not be negative");
+            }
+            this.linger = linger;
+            return this;
+        }
+
+        @Override
+        public Duration linger() {
+            return this.linger;
+        }
+
+        @Override
+        public ApplicationBuilder maxBatchMetrics(final int maxBatchMetrics) {
+            if (maxBatchMetrics <= 0) {
+                throw new IllegalArgumentException("Maximum number of batch metrics must be positive");
+            }
+            this.maxBatchMetrics = maxBatchMetrics;
+            return this;
+        }
+
+        @Override
+        public int maxBatchMetrics() {
+            return this.maxBatchMetrics;
+        }
+
+        @Override
+        public Application build() {
+            return internalBuildApplication(this, this.applicationId);
+        }
     }
 
     protected final ScheduledExecutorService executor;
+    /**
+     * Runs events of this client in order, even if the executor is shared
+     */
+    protected final Executor eventExecutor;
+    private final boolean ownsExecutor;
+    private final ExecutorService handlerExecutor;
     private final Set<Module> modules;
+    private final String name;
+    private final ScheduledExecutorService sharedLingerExecutor;
+    private ScheduledExecutorService lingerExecutor;
 
     private final TransportAsync transport;
 
     private final Map<String, AbstractApplication> applications = new HashMap<>();
 
     public AbstractClient(final ScheduledExecutorService executor, final Set<Module> modules) {
+        this(executor, true, modules);
+    }
+
+    /**
+     * Create a new client
+     *
+     * @param executor
+     *            the executor to use
+     * @param ownsExecutor
+     *            {@code true} if the executor is dedicated to this client and will be shut down
+     *            by {@link #shutdownExecutor()}, {@code false} if it is shared
+     * @param modules
+     *            the modules to use
+     */
+    public AbstractClient(final ScheduledExecutorService executor, final boolean ownsExecutor, final Set<Module> modules) {
+        this(executor, ownsExecutor, null, modules);
+    }
+
+    /**
+     * Create a new client
+     *
+     * @param executor
+     *            the executor to use
+     * @param ownsExecutor
+     *            {@code true} if the executor is dedicated to this client and will be shut down
+     *            by {@link #shutdownExecutor()}, {@code false} if it is shared
+     * @param handlerExecutor
+     *            the executor for message handlers and transport events, {@code null} to run
+     *            handlers directly. The client takes ownership of this executor.
+     * @param modules
+     *            the modules to use
+     */
+    public AbstractClient(final ScheduledExecutorService executor, final boolean ownsExecutor, final ExecutorService handlerExecutor, final Set<Module> modules) {
+        this(executor, ownsExecutor, handlerExecutor, null, "kapua-gateway", modules);
+    }
+
+    /**
+     * Create a new client
+     *
+     * @param executor
+     *            the executor to use
+     * @param ownsExecutor
+     *            {@code true} if the executor is dedicated to this client and will be shut down
+     *            by {@link #shutdownExecutor()}, {@code false} if it is shared
+     * @param handlerExecutor
+     *            the executor for message handlers and transport events, {@code null} to run
+     *            handlers directly. The client takes ownership of this executor.
+     * @param lingerExecutor
+     *            the shared scheduler for flushing coalesced payloads, {@code null} to create
+     *            a dedicated thread on first use
+     * @param name
+     *            the name of the client, used for naming threads
+     * @param modules
+     *            the modules to use
+     */
+    public AbstractClient(final ScheduledExecutorService executor, final boolean ownsExecutor, final ExecutorService handlerExecutor,
+            final ScheduledExecutorService lingerExecutor, final String name, final Set<Module> modules) {
         this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        this.handlerExecutor = handlerExecutor;
+        if (handlerExecutor != null) {
+            this.eventExecutor = new SerialExecutor(handlerExecutor);
+        } else {
+            this.eventExecutor = ownsExecutor ? executor : new SerialExecutor(executor);
+        }
         this.modules = new HashSet<>(modules);
+        this.name = name;
+        this.sharedLingerExecutor = lingerExecutor;
 
-        this.transport = new TransportAsync(executor);
+        this.transport = new TransportAsync(this.eventExecutor);
 
         fireModuleEvent(module -> module.initialize(new ModuleContext() {
 
@@ -74,6 +306,73 @@ public abstract class AbstractClient implements Client {
         }));
     }
 
+    /**
+     * Shut down the executor, unless it is shared
+     * <p>
+     * Implementations must call this method when the client gets closed.
+     * </p>
+     */
+    protected void shutdownExecutor() {
+        if (this.handlerExecutor != null) {
+            this.handlerExecutor.shutdown();
+        }
+        if (this.ownsExecutor) {
+            this.executor.shutdown();
+        }
+        synchronized (this) {
+            if (this.lingerExecutor != null) {
+                this.lingerExecutor.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Get the executor for flushing coalesced payloads once their linger time expired
+     * <p>
+     * Flushing may block until the client reconnected, which is performed by the
+     * executor of the client. So this is the shared scheduler provided to the builder,
+     * or else a dedicated thread, created on first use.
+     * </p>
+     *
+     * @return the executor, never {@code null}
+     * @see Builder#lingerExecutor(ScheduledExecutorService)
+     */
+    protected synchronized ScheduledExecutorService getLingerExecutor() {
+        if (this.sharedLingerExecutor != null) {
+            return this.sharedLingerExecutor;
+        }
+        if (this.lingerExecutor == null) {
+            this.lingerExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, this.name + "-linger");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return this.lingerExecutor;
+    }
+
+    /**
+     * Create an executor for the message handler of a single subscription
+     * <p>
+     * The executor runs the messages of the subscription one after the other.
+     * </p>
+     *
+     * @return the executor, or {@code null} if handlers should be executed directly
+     */
+    protected Executor createSubscriptionExecutor() {
+        return this.handlerExecutor != null ? new SerialExecutor(this.handlerExecutor) : null;
+    }
+
+    /**
+     * Get the executor for message handlers
+     *
+     * @return the executor, or {@code null} if handlers are executed directly
+     * @see Builder#handlerExecution(HandlerExecution)
+     */
+    protected Executor getHandlerExecutor() {
+        return this.handlerExecutor;
+    }
+
     @Override
     public Transport transport() {
         return this.transport;
@@ -127,13 +426,7 @@ public abstract class AbstractClient implements Client {
 
     @Override
     public Application.Builder buildApplication(final String applicationId) {
-        return new Application.Builder() {
-
-            @Override
-            public Application build() {
-                return internalBuildApplication(this, applicationId);
-            }
-        };
+        return new ApplicationBuilder(applicationId);
     }
 
     protected AbstractApplication internalBuildApplication(final Application.Builder builder, final String applicationId) {
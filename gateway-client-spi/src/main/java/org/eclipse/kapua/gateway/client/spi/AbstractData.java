@@ -13,31 +13,259 @@ package org.eclipse.kapua.gateway.client.spi;
 
 import static java.util.Objects.requireNonNull;
 
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 
 import org.eclipse.kapua.gateway.client.Data;
 import org.eclipse.kapua.gateway.client.ErrorHandler;
 import org.eclipse.kapua.gateway.client.MessageHandler;
+import org.eclipse.kapua.gateway.client.OverflowPolicy;
 import org.eclipse.kapua.gateway.client.Payload;
+import org.eclipse.kapua.gateway.client.Priority;
+import org.eclipse.kapua.gateway.client.QoS;
 import org.eclipse.kapua.gateway.client.Topic;
+import org.eclipse.kapua.gateway.client.utils.InboundQueue;
+import org.eclipse.kapua.gateway.client.utils.Recycler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Default implementation of {@link Data}
+ * <p>
+ * Instances are equal if they belong to the same application, and have the same topic
+ * and options.
+ * </p>
+ */
 public class AbstractData implements Data {
 
     private static final Logger logger = LoggerFactory.getLogger(AbstractData.class);
 
-    private AbstractApplication application;
-    private Topic topic;
+    private static final int MAX_POOLED_PAYLOADS = 4;
+
+    public static class Builder implements Data.Builder {
+
+        private final AbstractApplication application;
+        private final Topic topic;
+
+        private QoS qos = QoS.AT_LEAST_ONCE;
+        private boolean retain;
+        private Priority priority = Priority.NORMAL;
+        private int queueCapacity;
+        private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+
+        public Builder(final AbstractApplication application, final Topic topic) {
+            requireNonNull(application);
+            requireNonNull(topic);
+
+            this.application = application;
+            this.topic = topic;
+        }
+
+        public AbstractApplication application() {
+            return this.application;
+        }
+
+        public Topic topic() {
+            return this.topic;
+        }
+
+        @Override
+        public Builder qos(final QoS qos) {
+            requireNonNull(qos);
+
+            this.qos = qos;
+            return this;
+        }
+
+        @Override
+        public QoS qos() {
+            return this.qos;
+        }
+
+        @Override
+        public Builder retain(final boolean retain) {
+            this.retain = retain;
+            return this;
+        }
+
+        @Override
+        public boolean retain() {
+            return this.retain;
+        }
+
+        @Override
+        public Builder priority(final Priority priority) {
+            requireNonNull(priority);
+
+            this.priority = priority;
+            return this;
+        }
+
+        @Override
+        public Priority priority() {
+            return this.priority;
+        }
+
+        @Override
+        public Builder queueCapacity(final int queueCapacity) {
+            if (queueCapacity < 0) {
+                throw new IllegalArgumentException("Queue capacity must not be negative");
+            }
+
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        @Override
+        public int queueCapacity() {
+            return this.queueCapacity;
+        }
+
+        @Override
+        public Builder overflowPolicy(final OverflowPolicy overflowPolicy) {
+            requireNonNull(overflowPolicy);
+
+            this.overflowPolicy = overflowPolicy;
+            return this;
+        }
+
+        @Override
+        public OverflowPolicy overflowPolicy() {
+            return this.overflowPolicy;
+        }
+
+        @Override
+        public AbstractData build() {
+            return this.application.createData(this);
+        }
+    }
+
+    private final AbstractApplication application;
+    private final Topic topic;
+    private final QoS qos;
+    private final boolean retain;
+    private final Priority priority;
+    private final int queueCapacity;
+    private final OverflowPolicy overflowPolicy;
+
+    private volatile InboundQueue<?, ?> inboundQueue;
+
+    private final Recycler<Payload.Builder> payloads = new Recycler<>(MAX_POOLED_PAYLOADS, Payload.Builder::new, Payload.Builder::clear);
 
     public AbstractData(final AbstractApplication application, final Topic topic) {
-        this.application = application;
-        this.topic = topic;
+        this(new Builder(application, topic));
+    }
+
+    public AbstractData(final Builder builder) {
+        this.application = builder.application();
+        this.topic = builder.topic();
+        this.qos = builder.qos();
+        this.retain = builder.retain();
+        this.priority = builder.priority();
+        this.queueCapacity = builder.queueCapacity();
+        this.overflowPolicy = builder.overflowPolicy();
+    }
+
+    public Topic getTopic() {
+        return this.topic;
+    }
+
+    public QoS getQos() {
+        return this.qos;
+    }
+
+    public boolean isRetain() {
+        return this.retain;
+    }
+
+    public Priority getPriority() {
+        return this.priority;
+    }
+
+    public int getQueueCapacity() {
+        return this.queueCapacity;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return this.overflowPolicy;
+    }
+
+    /**
+     * Set the queue of received messages, providing the queue metrics
+     * <p>
+     * This is called by the provider when it subscribes with a queue.
+     * </p>
+     *
+     * @param inboundQueue
+     *            the queue of the current subscription
+     */
+    public void setInboundQueue(final InboundQueue<?, ?> inboundQueue) {
+        this.inboundQueue = inboundQueue;
+    }
+
+    /**
+     * Get the number of received messages waiting for the handler
+     *
+     * @return the number of queued messages, zero if there is no queue
+     */
+    public int getQueuedMessages() {
+        final InboundQueue<?, ?> queue = this.inboundQueue;
+        return queue != null ? queue.getQueued() : 0;
+    }
+
+    /**
+     * Get the number of received messages dropped due to a full queue
+     *
+     * @return the number of dropped messages, zero if there is no queue
+     */
+    public long getDroppedMessages() {
+        final InboundQueue<?, ?> queue = this.inboundQueue;
+        return queue != null ? queue.getDropped() : 0;
     }
 
     @Override
     public void send(final Payload payload) throws Exception {
-        this.application.publish(this.topic, payload);
+        this.application.send(this, payload);
+    }
+
+    @Override
+    public CompletionStage<Void> sendAsync(final Payload payload) {
+        requireNonNull(payload);
+
+        try {
+            return this.application.send(this, payload);
+        } catch (final Exception e) {
+            final CompletableFuture<Void> result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+            return result;
+        }
+    }
+
+    @Override
+    public void send(final Payload.Builder payload) throws Exception {
+        requireNonNull(payload);
+
+        this.application.send(this, payload);
+    }
+
+    @Override
+    public void sendBatch(final Collection<Payload> payloads) throws Exception {
+        requireNonNull(payloads);
+
+        this.application.sendBatch(this, payloads);
+    }
+
+    @Override
+    public Payload.Builder acquirePayload() {
+        return this.payloads.acquire().timestamp(Instant.now());
+    }
+
+    @Override
+    public void releasePayload(final Payload.Builder payload) {
+        this.payloads.release(payload);
     }
 
     @Override
@@ -47,7 +275,36 @@ public class AbstractData implements Data {
 
         logger.debug("Setting subscription for: {}", this.topic);
 
-        final CompletionStage<?> future = application.subscribe(this.topic, handler, errorHandler );
+        final CompletionStage<?> future = application.subscribe(this, handler, errorHandler);
         future.toCompletableFuture().get();
     }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(this.application, this.topic, this.qos, this.retain, this.priority, this.queueCapacity, this.overflowPolicy);
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        final AbstractData other = (AbstractData) obj;
+        return this.application == other.application
+                && this.topic.equals(other.topic)
+                && this.qos == other.qos
+                && this.retain == other.retain
+                && this.priority == other.priority
+                && this.queueCapacity == other.queueCapacity
+                && this.overflowPolicy == other.overflowPolicy;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[Data - topic: %s, qos: %s, retain: %s, priority: %s, queueCapacity: %s, overflowPolicy: %s]", this.topic, this.qos, this.retain, this.priority,
+                this.queueCapacity, this.overflowPolicy);
+    }
 }
@@ -0,0 +1,34 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.spi;
+
+/**
+ * The way message handlers and transport events are executed
+ */
+public enum HandlerExecution {
+    /**
+     * Run handlers on the thread of the transport, or the executor of the client
+     * <p>
+     * A slow handler delays all other handlers and events of the client.
+     * </p>
+     */
+    DIRECT,
+    /**
+     * Run handlers on virtual threads, or on a bounded thread pool if virtual threads
+     * are not supported by the JVM
+     * <p>
+     * Messages of the same subscription are still handled one after the other, in the
+     * order they were received. Handlers may block without delaying other subscriptions.
+     * </p>
+     */
+    VIRTUAL_THREADS;
+}
@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.utils;
+
+import java.util.Collection;
+import java.util.Objects;
+
+import org.eclipse.kapua.gateway.client.Payload;
+
+/**
+ * Combine a batch of payloads into a single payload
+ * <p>
+ * Each value of the payload at position {@code n} in the batch is stored
+ * using the metric name {@code <name>.<n>}. The timestamp of each payload is
+ * stored as metric {@code _timestamp.<n>}, as milliseconds since the epoch.
+ * The timestamp of the combined payload is the timestamp of the last payload in
+ * the batch.
+ * </p>
+ */
+public final class Batches {
+
+    public static final String TIMESTAMP_METRIC = "_timestamp";
+    public static final char SEPARATOR = '.';
+
+    private Batches() {
+    }
+
+    /**
+     * Combine a batch of payloads
+     *
+     * @param payloads
+     *            the payloads to combine, must not be {@code null} or empty
+     * @return a builder, holding the combined payload, never {@code null}
+     * @throws IllegalArgumentException
+     *             if the collection is empty
+     */
+    public static Payload.Builder merge(final Collection<Payload> payloads) {
+        Objects.requireNonNull(payloads);
+
+        if (payloads.isEmpty()) {
+            throw new IllegalArgumentException("Batch must not be empty");
+        }
+
+        int size = 0;
+        for (final Payload payload : payloads) {
+            size += payload.getValues().size() + 1;
+        }
+
+        final Payload.Builder result = new Payload.Builder(size);
+
+        int index = 0;
+        for (final Payload payload : payloads) {
+            final String suffix = SEPARATOR + Integer.toString(index++);
+
+            result.timestamp(payload.getTimestamp());
+            result.putLong(TIMESTAMP_METRIC + suffix, payload.getTimestamp().toEpochMilli());
+
+            payload.visitValues(new Payload.ValueVisitor<RuntimeException>() {
+
+                @Override
+                public void visitInt(final String key, final int value) {
+                    result.putInt(key + suffix, value);
+                }
+
+                @Override
+                public void visitLong(final String key, final long value) {
+                    result.putLong(key + suffix, value);
+                }
+
+                @Override
+                public void visitFloat(final String key, final float value) {
+                    result.putFloat(key + suffix, value);
+                }
+
+                @Override
+                public void visitDouble(final String key, final double value) {
+                    result.putDouble(key + suffix, value);
+                }
+
+                @Override
+                public void visitBoolean(final String key, final boolean value) {
+                    result.putBoolean(key + suffix, value);
+                }
+
+                @Override
+                public void visitObject(final String key, final Object value) {
+                    result.put(key + suffix, value);
+                }
+            });
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,312 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.utils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.eclipse.kapua.gateway.client.Payload;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesce payloads per key, flushing them as a batch
+ * <p>
+ * Payloads get collected per key until either the linger time, starting with the
+ * first payload of a batch, expired or the number of collected metrics reached the
+ * configured threshold. The batch is then handed over to the {@link Flusher}.
+ * </p>
+ * <p>
+ * Flushing because of the threshold is performed by the thread adding the payload.
+ * Flushing because of the linger time is performed by the executor, which therefore
+ * should not be shared with tasks the flusher may wait for. Batches of the same
+ * coalescer are never flushed concurrently, which keeps the order of payloads.
+ * Errors which occur when flushing from the executor will be logged.
+ * </p>
+ * <p>
+ * The flusher is called without holding the lock which protects the pending
+ * payloads. So a flusher which blocks, e.g. waiting for capacity, only delays
+ * threads which have to flush as well, not threads which merely add a payload.
+ * </p>
+ * <p>
+ * Adding a payload returns a {@link CompletionStage}, which completes once the
+ * batch the payload is part of was flushed, and the stage returned by the
+ * {@link Flusher} completed.
+ * </p>
+ *
+ * @param <K>
+ *            the type of the key
+ */
+public class Coalescer<K> {
+
+    private static final Logger logger = LoggerFactory.getLogger(Coalescer.class);
+
+    @FunctionalInterface
+    public interface Flusher<K> {
+
+        public CompletionStage<?> flush(K key, Collection<Payload> payloads) throws Exception;
+    }
+
+    private static final class Pending {
+
+        private List<Payload> payloads = new ArrayList<>();
+        private CompletableFuture<Void> result = new CompletableFuture<>();
+        private int metrics;
+        private ScheduledFuture<?> timer;
+        /**
+         * Incremented with every flush, in order to detect outdated timers
+         */
+        private long generation;
+    }
+
+    /**
+     * A batch, taken out of the pending payloads
+     */
+    private static final class Batch<K> {
+
+        private final K key;
+        private final List<Payload> payloads;
+        private final CompletableFuture<Void> result;
+
+        private Batch(final K key, final List<Payload> payloads, final CompletableFuture<Void> result) {
+            this.key = key;
+            this.payloads = payloads;
+            this.result = result;
+        }
+    }
+
+    private final ScheduledExecutorService executor;
+    private final long lingerNanos;
+    private final int maxMetrics;
+    private final Flusher<K> flusher;
+
+    /**
+     * Held while calling the flusher, keeping the order of batches
+     */
+    private final Object flushLock = new Object();
+
+    private final Map<K, Pending> pending = new HashMap<>();
+    private boolean closed;
+
+    /**
+     * Create a new coalescer
+     *
+     * @param executor
+     *            the executor to use for flushing after the linger time, must not be {@code null}
+     * @param linger
+     *            the time to wait for more payloads, must not be {@code null} or negative
+     * @param maxMetrics
+     *            the number of metrics which trigger a flush, must be positive
+     * @param flusher
+     *            the receiver of flushed batches, must not be {@code null}
+     */
+    public Coalescer(final ScheduledExecutorService executor, final Duration linger, final int maxMetrics, final Flusher<K> flusher) {
+        Objects.requireNonNull(executor);
+        Objects.requireNonNull(linger);
+        Objects.requireNonNull(flusher);
+
+        if (linger.isNegative()) {
+            throw new IllegalArgumentException("Linger time must not be negative");
+        }
+        if (maxMetrics <= 0) {
+            throw new IllegalArgumentException("Maximum number of metrics must be positive");
+        }
+
+        this.executor = executor;
+        this.lingerNanos = linger.toNanos();
+        this.maxMetrics = maxMetrics;
+        this.flusher = flusher;
+    }
+
+    /**
+     * Add a payload
+     *
+     * @param key
+     *            the key to add the payload to
+     * @param payload
+     *            the payload to add
+     * @return the stage, completing when the payload was flushed
+     * @throws Exception
+     *             if adding the payload triggered a flush, and flushing failed
+     * @throws IllegalStateException
+     *             if the coalescer is already closed
+     */
+    public CompletionStage<Void> add(final K key, final Payload payload) throws Exception {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(payload);
+
+        final CompletionStage<Void> result;
+        final boolean full;
+
+        synchronized (this) {
+            if (this.closed) {
+                throw new IllegalStateException("Coalescer is closed");
+            }
+
+            final Pending entry = this.pending.computeIfAbsent(key, k -> new Pending());
+
+            result = entry.result;
+
+            entry.payloads.add(payload);
+            entry.metrics += payload.getValues().size();
+
+            full = entry.metrics >= this.maxMetrics;
+            if (!full && entry.timer == null) {
+                final long generation = entry.generation;
+                entry.timer = this.executor.schedule(() -> lingerExpired(key, entry, generation), this.lingerNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        if (full) {
+            synchronized (this.flushLock) {
+                // another thread may have flushed the batch in the meantime
+                flush(take(key, entry -> entry.metrics >= this.maxMetrics));
+            }
+        }
+
+        return result;
+    }
+
+    private void lingerExpired(final K key, final Pending entry, final long generation) {
+        try {
+            synchronized (this.flushLock) {
+                flush(take(key, current -> current == entry && current.generation == generation));
+            }
+        } catch (final Exception e) {
+            logger.warn("Failed to flush batch for: {}", key, e);
+        }
+    }
+
+    /**
+     * Take the pending batch of a key, if the condition holds
+     *
+     * @return the batch, or {@code null} if there was nothing to take
+     */
+    private synchronized Batch<K> take(final K key, final Predicate<Pending> condition) {
+        final Pending entry = this.pending.get(key);
+        if (entry == null || !condition.test(entry)) {
+            return null;
+        }
+        return take(key, entry);
+    }
+
+    private Batch<K> take(final K key, final Pending entry) {
+        entry.generation++;
+
+        if (entry.timer != null) {
+            entry.timer.cancel(false);
+            entry.timer = null;
+        }
+
+        if (entry.payloads.isEmpty()) {
+            return null;
+        }
+
+        final Batch<K> batch = new Batch<>(key, entry.payloads, entry.result);
+        entry.payloads = new ArrayList<>();
+        entry.result = new CompletableFuture<>();
+        entry.metrics = 0;
+
+        return batch;
+    }
+
+    private void flush(final Batch<K> batch) throws Exception {
+        if (batch == null) {
+            return;
+        }
+
+        final CompletableFuture<Void> result = batch.result;
+
+        try {
+            this.flusher.flush(batch.key, batch.payloads).whenComplete((v, e) -> {
+                if (e != null) {
+                    result.completeExceptionally(e);
+                } else {
+                    result.complete(null);
+                }
+            });
+        } catch (final Exception e) {
+            result.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Flush all pending batches
+     * <p>
+     * All batches will be flushed, even if flushing one of them failed. In this case
+     * the first error will be thrown, after all batches have been processed.
+     * </p>
+     *
+     * @throws Exception
+     *             if flushing failed
+     */
+    public void flush() throws Exception {
+        synchronized (this.flushLock) {
+            final List<Batch<K>> batches = new ArrayList<>();
+            synchronized (this) {
+                for (final Map.Entry<K, Pending> entry : this.pending.entrySet()) {
+                    final Batch<K> batch = take(entry.getKey(), entry.getValue());
+                    if (batch != null) {
+                        batches.add(batch);
+                    }
+                }
+            }
+
+            Exception error = null;
+
+            for (final Batch<K> batch : batches) {
+                try {
+                    flush(batch);
+                } catch (final Exception e) {
+                    if (error == null) {
+                        error = e;
+                    } else {
+                        error.addSuppressed(e);
+                    }
+                }
+            }
+
+            if (error != null) {
+                throw error;
+            }
+        }
+    }
+
+    /**
+     * Flush all pending batches and stop accepting new payloads
+     *
+     * @throws Exception
+     *             if flushing failed
+     */
+    public void close() throws Exception {
+        synchronized (this) {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+        }
+
+        flush();
+    }
+}
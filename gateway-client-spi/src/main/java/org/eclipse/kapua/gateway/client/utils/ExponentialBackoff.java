@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.utils;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff, with optional full jitter
+ * <p>
+ * The delay for attempt {@code n} is {@code min(maxDelay, initialDelay * multiplier^(n-1))}.
+ * With jitter enabled, the actual delay is chosen randomly between zero and this value.
+ * This spreads reconnect attempts of many clients, which lost their connection at the
+ * same time, e.g. because of a broker restart.
+ * </p>
+ */
+public class ExponentialBackoff implements ReconnectPolicy {
+
+    public static final Duration DEFAULT_INITIAL_DELAY = Duration.ofSeconds(1);
+    public static final Duration DEFAULT_MAX_DELAY = Duration.ofMinutes(1);
+    public static final double DEFAULT_MULTIPLIER = 2.0;
+
+    private final long initialDelayNanos;
+    private final long maxDelayNanos;
+    private final double multiplier;
+    private final boolean jitter;
+
+    /**
+     * Create a new policy using the default values, with jitter
+     */
+    public ExponentialBackoff() {
+        this(DEFAULT_INITIAL_DELAY, DEFAULT_MAX_DELAY, DEFAULT_MULTIPLIER, true);
+    }
+
+    /**
+     * Create a new policy
+     *
+     * @param initialDelay
+     *            the delay of the first attempt, must be positive
+     * @param maxDelay
+     *            the maximum delay, must not be less than the initial delay
+     * @param multiplier
+     *            the factor the delay grows with each attempt, must be at least 1
+     * @param jitter
+     *            whether to randomize the delay
+     */
+    public ExponentialBackoff(final Duration initialDelay, final Duration maxDelay, final double multiplier, final boolean jitter) {
+        Objects.requireNonNull(initialDelay);
+        Objects.requireNonNull(maxDelay);
+
+        if (initialDelay.isNegative() || initialDelay.isZero()) {
+            throw new IllegalArgumentException("Initial delay must be positive");
+        }
+        if (maxDelay.compareTo(initialDelay) < 0) {
+            throw new IllegalArgumentException("Maximum delay must not be less than the initial delay");
+        }
+        if (multiplier < 1.0) {
+            throw new IllegalArgumentException("Multiplier must be at least 1");
+        }
+
+        this.initialDelayNanos = initialDelay.toNanos();
+        this.maxDelayNanos = maxDelay.toNanos();
+        this.multiplier = multiplier;
+        this.jitter = jitter;
+    }
+
+    public Duration getInitialDelay() {
+        return Duration.ofNanos(this.initialDelayNanos);
+    }
+
+    public Duration getMaxDelay() {
+        return Duration.ofNanos(this.maxDelayNanos);
+    }
+
+    public double getMultiplier() {
+        return this.multiplier;
+    }
+
+    public boolean isJitter() {
+        return this.jitter;
+    }
+
+    @Override
+    public Duration nextDelay(final int attempt) {
+        final double delay = this.initialDelayNanos * Math.pow(this.multiplier, Math.max(0, attempt - 1));
+        final long cap = delay >= this.maxDelayNanos ? this.maxDelayNanos : (long) delay;
+
+        if (!this.jitter) {
+            return Duration.ofNanos(cap);
+        }
+
+        return Duration.ofNanos(ThreadLocalRandom.current().nextLong(cap + 1));
+    }
+}
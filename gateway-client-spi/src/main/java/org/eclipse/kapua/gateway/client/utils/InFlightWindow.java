@@ -0,0 +1,308 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.utils;
+
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * A bounded window of in-flight operations
+ * <p>
+ * An operation is considered in-flight from the moment it was started until the
+ * {@link CompletionStage} it returned completed. Once the window is full, new operations
+ * are handled according to the configured {@link Policy}.
+ * </p>
+ * <p>
+ * The {@link Policy#DROP_NEWEST} and {@link Policy#DROP_OLDEST} policies keep a backlog
+ * of operations, which will be started once a slot in the window becomes available. The
+ * backlog is bounded to the same size as the window. Once the backlog is full as well,
+ * operations get dropped and their stages complete exceptionally with a
+ * {@link RejectedExecutionException}.
+ * </p>
+ * <p>
+ * A window with a maximum size of zero is unbounded, but still tracks the number
+ * of operations in flight.
+ * </p>
+ */
+public class InFlightWindow {
+
+    /**
+     * The policy to apply when the window is full
+     */
+    public enum Policy {
+        /**
+         * Block the caller until a slot becomes available
+         */
+        BLOCK,
+        /**
+         * Fail the call by throwing a {@link RejectedExecutionException}
+         */
+        FAIL,
+        /**
+         * Queue the new operation, dropping the new operation if the backlog is full
+         */
+        DROP_NEWEST,
+        /**
+         * Queue the new operation, dropping the oldest queued operation if the backlog is full
+         */
+        DROP_OLDEST;
+    }
+
+    private static final class Deferred {
+
+        private final Callable<? extends CompletionStage<?>> operation;
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        private Deferred(final Callable<? extends CompletionStage<?>> operation) {
+            this.operation = operation;
+        }
+    }
+
+    private final int maxInFlight;
+    private final Policy policy;
+
+    private final ArrayDeque<Deferred> backlog = new ArrayDeque<>();
+
+    private int inFlight;
+    private long dropped;
+    private long rejected;
+
+    /**
+     * Create a new window
+     *
+     * @param maxInFlight
+     *            the maximum number of operations in flight, zero for an unbounded window
+     * @param policy
+     *            the policy to apply when the window is full, must not be {@code null}
+     */
+    public InFlightWindow(final int maxInFlight, final Policy policy) {
+        if (maxInFlight < 0) {
+            throw new IllegalArgumentException("Maximum number of in-flight operations must not be negative");
+        }
+        Objects.requireNonNull(policy);
+
+        this.maxInFlight = maxInFlight;
+        this.policy = policy;
+    }
+
+    /**
+     * Create an unbounded window
+     *
+     * @return a new window which never applies backpressure
+     */
+    public static InFlightWindow unbounded() {
+        return new InFlightWindow(0, Policy.BLOCK);
+    }
+
+    /**
+     * Run an operation within the window
+     * <p>
+     * If the operation can be started right away, {@code operation} will be called
+     * by the calling thread. Otherwise, if the operation needs to be queued,
+     * {@code deferred} will be called in order to create a detached version of
+     * the operation, which must not reference any resources only valid during this call.
+     * </p>
+     *
+     * @param operation
+     *            the operation to run immediately
+     * @param deferred
+     *            the supplier of the operation to queue
+     * @return the stage, completing once the operation completed
+     * @throws RejectedExecutionException
+     *             if the window is full and the policy is {@link Policy#FAIL}
+     * @throws InterruptedException
+     *             if the caller was interrupted waiting for a slot
+     * @throws Exception
+     *             if starting the operation failed
+     */
+    public CompletionStage<Void> execute(final Callable<? extends CompletionStage<?>> operation, final Supplier<Callable<? extends CompletionStage<?>>> deferred) throws Exception {
+
+        Deferred drop = null;
+        Deferred queued = null;
+
+        synchronized (this) {
+            if (!isFull()) {
+                this.inFlight++;
+            } else {
+                switch (this.policy) {
+                case BLOCK:
+                    while (isFull()) {
+                        wait();
+                    }
+                    this.inFlight++;
+                    break;
+                case FAIL:
+                    this.rejected++;
+                    throw new RejectedExecutionException("In-flight window is full");
+                case DROP_NEWEST:
+                    if (this.backlog.size() >= this.maxInFlight) {
+                        this.dropped++;
+                        return failed(new RejectedExecutionException("In-flight window is full, operation dropped"));
+                    }
+                    queued = new Deferred(deferred.get());
+                    this.backlog.add(queued);
+                    break;
+                case DROP_OLDEST:
+                    if (this.backlog.size() >= this.maxInFlight) {
+                        this.dropped++;
+                        drop = this.backlog.poll();
+                    }
+                    queued = new Deferred(deferred.get());
+                    this.backlog.add(queued);
+                    break;
+                }
+            }
+        }
+
+        if (drop != null) {
+            drop.result.completeExceptionally(new RejectedExecutionException("In-flight window is full, operation dropped"));
+        }
+
+        if (queued != null) {
+            return queued.result;
+        }
+
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+        start(operation, result);
+        return result;
+    }
+
+    /**
+     * Run an operation within the window, if a slot is available
+     * <p>
+     * This method never blocks and does not apply the policy of the window. An
+     * operation which cannot be started is neither queued nor counted as dropped.
+     * </p>
+     *
+     * @param operation
+     *            the operation to run
+     * @return the stage, completing once the operation completed, or {@code null}
+     *         if the window is full
+     * @throws Exception
+     *             if starting the operation failed
+     */
+    public CompletionStage<Void> tryExecute(final Callable<? extends CompletionStage<?>> operation) throws Exception {
+        synchronized (this) {
+            if (isFull() || !this.backlog.isEmpty()) {
+                return null;
+            }
+            this.inFlight++;
+        }
+
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+        start(operation, result);
+        return result;
+    }
+
+    private void start(final Callable<? extends CompletionStage<?>> operation, final CompletableFuture<Void> result) throws Exception {
+        final CompletionStage<?> stage;
+        try {
+            stage = operation.call();
+        } catch (final Exception e) {
+            release();
+            throw e;
+        }
+
+        stage.whenComplete((v, ex) -> {
+            release();
+            if (ex != null) {
+                result.completeExceptionally(ex);
+            } else {
+                result.complete(null);
+            }
+        });
+    }
+
+    private void release() {
+        Deferred next;
+        synchronized (this) {
+            next = this.backlog.poll();
+            if (next == null) {
+                this.inFlight--;
+                notifyAll();
+                return;
+            }
+            // the slot is handed over to the next operation
+        }
+
+        try {
+            start(next.operation, next.result);
+        } catch (final Exception e) {
+            // start already released the slot
+            next.result.completeExceptionally(e);
+        }
+    }
+
+    private boolean isFull() {
+        return this.maxInFlight > 0 && this.inFlight >= this.maxInFlight;
+    }
+
+    private static CompletionStage<Void> failed(final Throwable e) {
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+        result.completeExceptionally(e);
+        return result;
+    }
+
+    /**
+     * Get the maximum number of operations in flight
+     *
+     * @return the maximum number, zero if the window is unbounded
+     */
+    public int getMaxInFlight() {
+        return this.maxInFlight;
+    }
+
+    public Policy getPolicy() {
+        return this.policy;
+    }
+
+    /**
+     * Get the number of operations currently in flight
+     *
+     * @return the current number of operations in flight
+     */
+    public synchronized int getInFlight() {
+        return this.inFlight;
+    }
+
+    /**
+     * Get the number of operations waiting in the backlog
+     *
+     * @return the current number of queued operations
+     */
+    public synchronized int getQueued() {
+        return this.backlog.size();
+    }
+
+    /**
+     * Get the number of operations which got dropped
+     *
+     * @return the total number of dropped operations
+     */
+    public synchronized long getDropped() {
+        return this.dropped;
+    }
+
+    /**
+     * Get the number of operations which got rejected
+     *
+     * @return the total number of rejected operations
+     */
+    public synchronized long getRejected() {
+        return this.rejected;
+    }
+}
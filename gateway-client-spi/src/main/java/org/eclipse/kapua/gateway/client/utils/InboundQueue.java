@@ -0,0 +1,283 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.utils;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+import org.eclipse.kapua.gateway.client.OverflowPolicy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded queue of received messages, handed to a handler one after the other
+ * <p>
+ * Messages are offered by the transport and handled by tasks running on the
+ * executor, in the order they were queued. No thread is occupied while the queue
+ * is empty. When the queue is full, the {@link OverflowPolicy} decides which
+ * message gets dropped, or if the transport has to wait. Messages are identified
+ * by their key, e.g. the topic, for conflation.
+ * </p>
+ * <p>
+ * Exceptions thrown by the handler are logged and do not affect later messages.
+ * Messages dropped by the overflow policy are reported to the drop handler, e.g.
+ * to acknowledge them.
+ * </p>
+ *
+ * @param <K>
+ *            the type of the message key
+ * @param <V>
+ *            the type of the message
+ */
+public class InboundQueue<K, V> {
+
+    private static final Logger logger = LoggerFactory.getLogger(InboundQueue.class);
+
+    private static final int MAX_MESSAGES_PER_RUN = 64;
+
+    /**
+     * A handler of queued messages
+     */
+    @FunctionalInterface
+    public interface Handler<K, V> {
+
+        public void handle(K key, V value) throws Exception;
+    }
+
+    private static final class Entry<K, V> {
+
+        private final K key;
+        private V value;
+
+        private Entry(final K key, final V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private final Executor executor;
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final Handler<? super K, ? super V> handler;
+    private final Consumer<? super V> dropHandler;
+
+    private final Deque<Entry<K, V>> entries = new ArrayDeque<>();
+    private final Map<K, Entry<K, V>> latest;
+
+    private boolean scheduled;
+    private long dropped;
+
+    /**
+     * Create a new queue
+     *
+     * @param executor
+     *            the executor running the handler
+     * @param capacity
+     *            the maximum number of queued messages, must be positive
+     * @param policy
+     *            the policy when the queue is full
+     * @param handler
+     *            the handler of the messages
+     */
+    public InboundQueue(final Executor executor, final int capacity, final OverflowPolicy policy, final Handler<? super K, ? super V> handler) {
+        this(executor, capacity, policy, handler, value -> {
+        });
+    }
+
+    /**
+     * Create a new queue, reporting dropped messages
+     *
+     * @param executor
+     *            the executor running the handler
+     * @param capacity
+     *            the maximum number of queued messages, must be positive
+     * @param policy
+     *            the policy when the queue is full
+     * @param handler
+     *            the handler of the messages
+     * @param dropHandler
+     *            called with each message which got dropped or replaced, on the
+     *            thread offering the new message
+     */
+    public InboundQueue(final Executor executor, final int capacity, final OverflowPolicy policy, final Handler<? super K, ? super V> handler,
+            final Consumer<? super V> dropHandler) {
+        Objects.requireNonNull(executor);
+        Objects.requireNonNull(policy);
+        Objects.requireNonNull(handler);
+        Objects.requireNonNull(dropHandler);
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+
+        this.executor = executor;
+        this.capacity = capacity;
+        this.policy = policy;
+        this.handler = handler;
+        this.dropHandler = dropHandler;
+        this.latest = policy == OverflowPolicy.CONFLATE ? new HashMap<>() : null;
+    }
+
+    /**
+     * Queue a message
+     *
+     * @param key
+     *            the key of the message, must not be {@code null}
+     * @param value
+     *            the message
+     * @return {@code true} if the message was queued, {@code false} if it was dropped
+     * @throws InterruptedException
+     *             if the caller was interrupted while waiting for the queue
+     */
+    public boolean offer(final K key, final V value) throws InterruptedException {
+        Objects.requireNonNull(key);
+
+        boolean queued = true;
+        boolean dropping = false;
+        V drop = null;
+        boolean schedule = false;
+
+        synchronized (this) {
+            final Entry<K, V> current = this.latest != null ? this.latest.get(key) : null;
+            if (current != null) {
+                // replace the queued message, keeping its position
+                drop = current.value;
+                dropping = true;
+                current.value = value;
+                this.dropped++;
+            } else {
+                while (queued && this.entries.size() >= this.capacity) {
+                    switch (this.policy) {
+                    case BLOCK:
+                        wait();
+                        break;
+                    case DROP_NEWEST:
+                        drop = value;
+                        dropping = true;
+                        queued = false;
+                        this.dropped++;
+                        break;
+                    default:
+                        drop = removeFirst().value;
+                        dropping = true;
+                        this.dropped++;
+                        break;
+                    }
+                }
+
+                if (queued) {
+                    final Entry<K, V> entry = new Entry<>(key, value);
+                    this.entries.addLast(entry);
+                    if (this.latest != null) {
+                        this.latest.put(key, entry);
+                    }
+
+                    schedule = !this.scheduled;
+                    this.scheduled = true;
+                }
+            }
+        }
+
+        if (schedule) {
+            schedule();
+        }
+        if (dropping) {
+            this.dropHandler.accept(drop);
+        }
+        return queued;
+    }
+
+    private Entry<K, V> removeFirst() {
+        final Entry<K, V> entry = this.entries.pollFirst();
+        if (entry != null && this.latest != null) {
+            this.latest.remove(entry.key);
+        }
+        return entry;
+    }
+
+    private void schedule() {
+        try {
+            this.executor.execute(this::run);
+        } catch (final RuntimeException e) {
+            synchronized (this) {
+                this.scheduled = false;
+            }
+            throw e;
+        }
+    }
+
+    private void run() {
+        for (int i = 0; i < MAX_MESSAGES_PER_RUN; i++) {
+            final K key;
+            final V value;
+
+            synchronized (this) {
+                final Entry<K, V> entry = removeFirst();
+                if (entry == null) {
+                    this.scheduled = false;
+                    return;
+                }
+                key = entry.key;
+                value = entry.value;
+                if (this.policy == OverflowPolicy.BLOCK) {
+                    notifyAll();
+                }
+            }
+
+            try {
+                this.handler.handle(key, value);
+            } catch (final Exception e) {
+                logger.warn("Failed to handle message: {}", key, e);
+            }
+        }
+
+        // hand back the thread, and continue later
+
+        synchronized (this) {
+            if (this.entries.isEmpty()) {
+                this.scheduled = false;
+                return;
+            }
+        }
+        schedule();
+    }
+
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    public OverflowPolicy getPolicy() {
+        return this.policy;
+    }
+
+    /**
+     * Get the number of queued messages
+     *
+     * @return the number of messages waiting for the handler
+     */
+    public synchronized int getQueued() {
+        return this.entries.size();
+    }
+
+    /**
+     * Get the number of dropped messages
+     *
+     * @return the number of messages dropped or replaced due to the overflow policy
+     */
+    public synchronized long getDropped() {
+        return this.dropped;
+    }
+}
@@ -0,0 +1,42 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.utils;
+
+import java.time.Duration;
+
+/**
+ * A policy for scheduling reconnect attempts
+ */
+@FunctionalInterface
+public interface ReconnectPolicy {
+
+    /**
+     * Get the delay before the next connection attempt
+     *
+     * @param attempt
+     *            the number of the attempt since the connection was lost, or since
+     *            the client was started, starting with 1
+     * @return the delay, never {@code null}
+     */
+    public Duration nextDelay(int attempt);
+
+    /**
+     * Create a policy which always uses the same delay
+     *
+     * @param delay
+     *            the delay
+     * @return the new policy
+     */
+    public static ReconnectPolicy fixed(final Duration delay) {
+        return attempt -> delay;
+    }
+}
@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.utils;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * A bounded, lock-free pool of reusable instances
+ * <p>
+ * Instances get acquired using {@link #acquire()} and must be handed back using
+ * {@link #release(Object)} once they are no longer used. After an instance was released
+ * it must not be used anymore by the caller. If the pool is empty, a new instance
+ * is created. If the pool is full, released instances are dropped and left for
+ * the garbage collector.
+ * </p>
+ * <p>
+ * Acquiring and releasing instances does not allocate memory.
+ * </p>
+ *
+ * @param <T>
+ *            the type of the pooled instances
+ */
+public class Recycler<T> {
+
+    private final AtomicReferenceArray<T> slots;
+    private final Supplier<? extends T> factory;
+    private final Consumer<? super T> reset;
+
+    /**
+     * Create a new recycler
+     *
+     * @param capacity
+     *            the maximum number of idle instances to keep, must be positive
+     * @param factory
+     *            the factory for new instances, must not be {@code null}
+     * @param reset
+     *            called on an instance before it is put back into the pool, must not be {@code null}
+     */
+    public Recycler(final int capacity, final Supplier<? extends T> factory, final Consumer<? super T> reset) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+
+        Objects.requireNonNull(factory);
+        Objects.requireNonNull(reset);
+
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.factory = factory;
+        this.reset = reset;
+    }
+
+    private int start() {
+        // spread threads over the slots, reducing contention
+        return (int) (Thread.currentThread().getId() % this.slots.length());
+    }
+
+    /**
+     * Acquire an instance
+     *
+     * @return a pooled or new instance, never {@code null}
+     */
+    public T acquire() {
+        final int length = this.slots.length();
+        final int start = start();
+
+        for (int i = 0; i < length; i++) {
+            final int slot = (start + i) % length;
+            if (this.slots.get(slot) != null) {
+                final T result = this.slots.getAndSet(slot, null);
+                if (result != null) {
+                    return result;
+                }
+            }
+        }
+
+        return this.factory.get();
+    }
+
+    /**
+     * Release an instance back into the pool
+     *
+     * @param instance
+     *            the instance to release, may be {@code null}, in which case the call has no effect
+     */
+    public void release(final T instance) {
+        if (instance == null) {
+            return;
+        }
+
+        this.reset.accept(instance);
+
+        final int length = this.slots.length();
+        final int start = start();
+
+        for (int i = 0; i < length; i++) {
+            final int slot = (start + i) % length;
+            if (this.slots.get(slot) == null && this.slots.compareAndSet(slot, null, instance)) {
+                return;
+            }
+        }
+    }
+}
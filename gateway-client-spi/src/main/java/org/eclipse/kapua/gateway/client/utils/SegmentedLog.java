@@ -0,0 +1,494 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only log of records, stored in memory mapped segment files
+ * <p>
+ * Records get appended to the current segment, rolling over to a new segment once
+ * the current one is full. Records are read in the order they were appended, and
+ * must be committed once they got processed. A segment file gets deleted once all
+ * of its records got committed.
+ * </p>
+ * <p>
+ * Reading a record does not commit it. When the log gets re-opened, or {@link #rewind()}
+ * gets called, all records which have not been committed will be read again.
+ * </p>
+ * <p>
+ * Each record is stored with a checksum, and its length is written last. A record
+ * which was only partially written, e.g. because the process crashed, will be
+ * ignored when the log gets re-opened. Data is not explicitly synced to the disk, except
+ * when {@link #sync()} is called or the log is closed.
+ * </p>
+ * <p>
+ * Segment files are not unmapped explicitly, the mapped memory is left to the
+ * garbage collector. The mapped memory does not count towards the heap.
+ * </p>
+ */
+public class SegmentedLog implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentedLog.class);
+
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    private static final String SUFFIX = ".log";
+
+    /**
+     * The record header: length, checksum, flags
+     */
+    private static final int HEADER_SIZE = 4 + 4 + 1;
+
+    private static final byte FLAG_COMMITTED = 1;
+
+    /**
+     * A record read from the log
+     */
+    public static final class Record {
+
+        private final Segment segment;
+        private final int position;
+        private final ByteBuffer data;
+
+        private Record(final Segment segment, final int position, final ByteBuffer data) {
+            this.segment = segment;
+            this.position = position;
+            this.data = data;
+        }
+
+        /**
+         * Get the data of the record
+         * <p>
+         * The data is only valid until the record got committed.
+         * </p>
+         *
+         * @return a read-only buffer of the record data
+         */
+        public ByteBuffer getData() {
+            return this.data.duplicate();
+        }
+    }
+
+    private static final class Segment {
+
+        private final long id;
+        private final Path path;
+        private final MappedByteBuffer buffer;
+
+        /**
+         * The position where the next record will be written
+         */
+        private int limit;
+        /**
+         * The number of records which are not committed
+         */
+        private int pending;
+        /**
+         * Modified since the last sync
+         */
+        private boolean dirty;
+        private boolean deleted;
+
+        private Segment(final long id, final Path path, final MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+
+    private final List<Segment> segments = new ArrayList<>();
+
+    private Segment readSegment;
+    private int readPosition;
+
+    private boolean closed;
+
+    /**
+     * Open a log, using the default segment size
+     *
+     * @param directory
+     *            the directory to store the segments in
+     * @throws IOException
+     *             if opening the log failed
+     */
+    public SegmentedLog(final Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Open a log
+     * <p>
+     * If the directory already contains segments, their records which are not yet
+     * committed will be available for reading.
+     * </p>
+     *
+     * @param directory
+     *            the directory to store the segments in, will be created if necessary
+     * @param segmentSize
+     *            the size of a segment file in bytes, this limits the maximum size of a record
+     * @throws IOException
+     *             if opening the log failed
+     */
+    public SegmentedLog(final Path directory, final int segmentSize) throws IOException {
+        Objects.requireNonNull(directory);
+        if (segmentSize <= HEADER_SIZE) {
+            throw new IllegalArgumentException(String.format("Segment size must be greater than %s", HEADER_SIZE));
+        }
+
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+
+        Files.createDirectories(directory);
+
+        final List<Long> ids = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (final Path path : stream) {
+                final String name = path.getFileName().toString();
+                try {
+                    ids.add(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())));
+                } catch (final NumberFormatException e) {
+                    logger.debug("Ignoring unknown file: {}", path);
+                }
+            }
+        }
+        ids.sort(null);
+
+        for (int i = 0; i < ids.size(); i++) {
+            final Segment segment = openSegment(ids.get(i));
+            scan(segment);
+            if (segment.pending == 0 && i < ids.size() - 1) {
+                deleteSegment(segment);
+            } else {
+                this.segments.add(segment);
+            }
+        }
+
+        if (this.segments.isEmpty()) {
+            this.segments.add(openSegment(0));
+        }
+
+        rewind();
+    }
+
+    private Path segmentPath(final long id) {
+        return this.directory.resolve(String.format("%020d%s", id, SUFFIX));
+    }
+
+    private Segment openSegment(final long id) throws IOException {
+        final Path path = segmentPath(id);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return new Segment(id, path, channel.map(MapMode.READ_WRITE, 0, this.segmentSize));
+        }
+    }
+
+    private static void deleteSegment(final Segment segment) {
+        segment.deleted = true;
+        try {
+            Files.deleteIfExists(segment.path);
+        } catch (final IOException e) {
+            logger.warn("Failed to delete segment: {}", segment.path, e);
+        }
+    }
+
+    /**
+     * Find the end of the valid records and count the records not yet committed
+     */
+    private void scan(final Segment segment) {
+        final ByteBuffer buffer = segment.buffer;
+
+        int position = 0;
+        while (position + HEADER_SIZE <= this.segmentSize) {
+            final int length = buffer.getInt(position);
+            if (length <= 0 || length > this.segmentSize - position - HEADER_SIZE) {
+                break;
+            }
+
+            final ByteBuffer data = slice(buffer, position + HEADER_SIZE, length);
+            if (checksum(data) != buffer.getInt(position + 4)) {
+                logger.info("Ignoring corrupted record at {} of {}", position, segment.path);
+                break;
+            }
+
+            if (buffer.get(position + 8) != FLAG_COMMITTED) {
+                segment.pending++;
+            }
+
+            position += HEADER_SIZE + length;
+        }
+
+        segment.limit = position;
+    }
+
+    private static ByteBuffer slice(final ByteBuffer buffer, final int position, final int length) {
+        final ByteBuffer result = buffer.duplicate();
+        result.limit(position + length);
+        result.position(position);
+        return result.slice();
+    }
+
+    private static int checksum(final ByteBuffer data) {
+        final CRC32 crc = new CRC32();
+        crc.update(data.duplicate());
+        return (int) crc.getValue();
+    }
+
+    private void checkOpen() {
+        if (this.closed) {
+            throw new IllegalStateException("Log is closed");
+        }
+    }
+
+    private Segment writeSegment() {
+        return this.segments.get(this.segments.size() - 1);
+    }
+
+    /**
+     * Append a record
+     *
+     * @param data
+     *            the data of the record, must not be empty. The remaining bytes of the buffer
+     *            will be consumed.
+     * @return the appended record
+     * @throws IOException
+     *             if a new segment could not be created
+     * @throws IllegalArgumentException
+     *             if the record is empty or does not fit into a segment
+     */
+    public synchronized Record append(final ByteBuffer data) throws IOException {
+        checkOpen();
+
+        final int length = data.remaining();
+        if (length <= 0) {
+            throw new IllegalArgumentException("Record must not be empty");
+        }
+        if (length > this.segmentSize - HEADER_SIZE) {
+            throw new IllegalArgumentException(String.format("Record size of %s bytes exceeds the segment size", length));
+        }
+
+        Segment segment = writeSegment();
+        if (segment.limit + HEADER_SIZE + length > this.segmentSize) {
+            segment = openSegment(segment.id + 1);
+            this.segments.add(segment);
+        }
+
+        final ByteBuffer buffer = segment.buffer;
+        final int position = segment.limit;
+
+        final int checksum = checksum(data);
+
+        final ByteBuffer target = buffer.duplicate();
+        target.position(position + HEADER_SIZE);
+        target.put(data);
+
+        buffer.put(position + 8, (byte) 0);
+        buffer.putInt(position + 4, checksum);
+        // writing the length last marks the record as complete
+        buffer.putInt(position, length);
+
+        segment.limit = position + HEADER_SIZE + length;
+        segment.pending++;
+        segment.dirty = true;
+
+        // terminate the segment, in case of left-overs from a previous run
+        if (segment.limit + 4 <= this.segmentSize) {
+            buffer.putInt(segment.limit, 0);
+        }
+
+        return new Record(segment, position, slice(buffer, position + HEADER_SIZE, length).asReadOnlyBuffer());
+    }
+
+    /**
+     * Read the next record
+     *
+     * @return the next record which is not committed, or {@code null} if there are no more records
+     */
+    public synchronized Record next() {
+        return read(true);
+    }
+
+    /**
+     * Check if there are more records to read
+     *
+     * @return {@code true} if the next call to {@link #next()} would return a record
+     */
+    public synchronized boolean hasNext() {
+        return read(false) != null;
+    }
+
+    private Record read(final boolean advance) {
+        checkOpen();
+
+        Segment segment = this.readSegment;
+        int position = this.readPosition;
+
+        try {
+            while (true) {
+                if (position < segment.limit) {
+                    final int length = segment.buffer.getInt(position);
+                    final int current = position;
+                    position += HEADER_SIZE + length;
+
+                    if (segment.buffer.get(current + 8) == FLAG_COMMITTED) {
+                        continue;
+                    }
+
+                    return new Record(segment, current, slice(segment.buffer, current + HEADER_SIZE, length).asReadOnlyBuffer());
+                }
+
+                final int index = this.segments.indexOf(segment);
+                if (index < 0 || index >= this.segments.size() - 1) {
+                    return null;
+                }
+
+                segment = this.segments.get(index + 1);
+                position = 0;
+            }
+        } finally {
+            if (advance) {
+                this.readSegment = segment;
+                this.readPosition = position;
+            }
+        }
+    }
+
+    /**
+     * Commit a record
+     * <p>
+     * Committing a record more than once has no effect.
+     * </p>
+     *
+     * @param record
+     *            the record to commit
+     */
+    public synchronized void commit(final Record record) {
+        checkOpen();
+
+        final Segment segment = record.segment;
+        if (segment.deleted || segment.buffer.get(record.position + 8) == FLAG_COMMITTED) {
+            return;
+        }
+
+        segment.buffer.put(record.position + 8, FLAG_COMMITTED);
+        segment.pending--;
+        segment.dirty = true;
+
+        if (segment.pending > 0 || segment == writeSegment()) {
+            return;
+        }
+
+        final int index = this.segments.indexOf(segment);
+        if (segment == this.readSegment) {
+            this.readSegment = this.segments.get(index + 1);
+            this.readPosition = 0;
+        }
+        this.segments.remove(index);
+        deleteSegment(segment);
+    }
+
+    /**
+     * Move the read position back to the first record which is not committed
+     */
+    public synchronized void rewind() {
+        checkOpen();
+
+        this.readSegment = this.segments.get(0);
+        this.readPosition = 0;
+    }
+
+    /**
+     * Get the number of records which are not committed
+     *
+     * @return the number of records
+     */
+    public synchronized long size() {
+        long result = 0;
+        for (final Segment segment : this.segments) {
+            result += segment.pending;
+        }
+        return result;
+    }
+
+    /**
+     * Get the number of bytes occupied by the records of all segments
+     * <p>
+     * This includes the record headers, and committed records of segments which are
+     * not yet deleted.
+     * </p>
+     *
+     * @return the number of bytes
+     */
+    public synchronized long storedBytes() {
+        long result = 0;
+        for (final Segment segment : this.segments) {
+            result += segment.limit;
+        }
+        return result;
+    }
+
+    /**
+     * Check if all records are committed
+     *
+     * @return {@code true} if there are no records which are not committed
+     */
+    public synchronized boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Sync all modified segments to disk
+     */
+    public synchronized void sync() {
+        checkOpen();
+
+        for (final Segment segment : this.segments) {
+            if (segment.dirty) {
+                segment.dirty = false;
+                segment.buffer.force();
+            }
+        }
+    }
+
+    /**
+     * Close the log, syncing all segments to disk
+     */
+    @Override
+    public synchronized void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+
+        for (final Segment segment : this.segments) {
+            segment.buffer.force();
+        }
+        this.segments.clear();
+    }
+}
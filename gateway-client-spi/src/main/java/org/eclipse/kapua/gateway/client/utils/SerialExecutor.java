@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.utils;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An executor running tasks one after the other, in the order they were submitted
+ * <p>
+ * The tasks are run by a delegate executor, which may be shared with other
+ * instances and may use multiple threads. No thread is occupied while there are
+ * no tasks. In order to be fair to other users of the delegate, the thread is
+ * handed back to the delegate after a limited number of tasks.
+ * </p>
+ * <p>
+ * Exceptions thrown by a task are logged and do not affect later tasks.
+ * </p>
+ */
+public class SerialExecutor implements Executor {
+
+    private static final Logger logger = LoggerFactory.getLogger(SerialExecutor.class);
+
+    private static final int MAX_TASKS_PER_RUN = 64;
+
+    private final Executor delegate;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    public SerialExecutor(final Executor delegate) {
+        Objects.requireNonNull(delegate);
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        Objects.requireNonNull(command);
+
+        this.tasks.add(command);
+        schedule();
+    }
+
+    private void schedule() {
+        if (this.scheduled.compareAndSet(false, true)) {
+            try {
+                this.delegate.execute(this::run);
+            } catch (final RejectedExecutionException e) {
+                this.scheduled.set(false);
+                this.tasks.clear();
+                throw e;
+            }
+        }
+    }
+
+    private void run() {
+        try {
+            for (int i = 0; i < MAX_TASKS_PER_RUN; i++) {
+                final Runnable task = this.tasks.poll();
+                if (task == null) {
+                    break;
+                }
+                try {
+                    task.run();
+                } catch (final RuntimeException e) {
+                    logger.warn("Failed to run task", e);
+                }
+            }
+        } finally {
+            this.scheduled.set(false);
+        }
+
+        if (!this.tasks.isEmpty()) {
+            try {
+                schedule();
+            } catch (final RejectedExecutionException e) {
+                logger.debug("Delegate executor rejected remaining tasks", e);
+            }
+        }
+    }
+}
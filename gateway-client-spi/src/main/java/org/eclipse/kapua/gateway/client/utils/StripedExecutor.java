@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.utils;
+
+import java.util.Objects;
+import java.util.concurrent.Executor;
+
+/**
+ * An executor running tasks with the same key one after the other
+ * <p>
+ * Tasks are assigned to a fixed number of stripes, using the hash code of
+ * their key. Each stripe is a {@link SerialExecutor}, so tasks of the same key
+ * run in the order they were submitted, while tasks of different stripes run in
+ * parallel on the delegate executor. Tasks of different keys which share a
+ * stripe run one after the other as well.
+ * </p>
+ */
+public class StripedExecutor {
+
+    private final SerialExecutor[] stripes;
+
+    /**
+     * Create a new executor
+     *
+     * @param delegate
+     *            the executor running the tasks
+     * @param stripes
+     *            the number of stripes, must be positive
+     */
+    public StripedExecutor(final Executor delegate, final int stripes) {
+        Objects.requireNonNull(delegate);
+        if (stripes <= 0) {
+            throw new IllegalArgumentException("Number of stripes must be positive");
+        }
+
+        this.stripes = new SerialExecutor[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new SerialExecutor(delegate);
+        }
+    }
+
+    /**
+     * Execute a task
+     *
+     * @param key
+     *            the key of the task, must not be {@code null}
+     * @param task
+     *            the task to execute
+     */
+    public void execute(final Object key, final Runnable task) {
+        stripe(key).execute(task);
+    }
+
+    /**
+     * Get the executor of the stripe a key is assigned to
+     *
+     * @param key
+     *            the key, must not be {@code null}
+     * @return the executor, running tasks one after the other
+     */
+    public Executor stripe(final Object key) {
+        final int hash = key.hashCode();
+        // spread the higher bits, as keys may differ only in those
+        final int index = (hash ^ hash >>> 16) & 0x7FFFFFFF;
+        return this.stripes[index % this.stripes.length];
+    }
+
+    public int getStripes() {
+        return this.stripes.length;
+    }
+}
@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket rate limiter
+ * <p>
+ * The bucket gets refilled at a constant rate, up to its capacity. Each operation
+ * takes one token. The capacity limits the size of a burst after the bucket was
+ * idle for a while.
+ * </p>
+ * <p>
+ * Callers may request a reserve: a token will only be handed out if at least the
+ * reserved number of tokens stays in the bucket. This allows to give operations which
+ * request a smaller reserve precedence over operations which request a larger reserve.
+ * </p>
+ */
+public class TokenBucket {
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final double tokensPerNano;
+    private final int capacity;
+
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * Create a new, full token bucket
+     *
+     * @param rate
+     *            the number of tokens added per second, must be positive
+     * @param capacity
+     *            the maximum number of tokens in the bucket, must be positive
+     */
+    public TokenBucket(final double rate, final int capacity) {
+        if (rate <= 0) {
+            throw new IllegalArgumentException("Rate must be positive");
+        }
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+
+        this.tokensPerNano = rate / NANOS_PER_SECOND;
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    private void refill() {
+        final long now = System.nanoTime();
+        this.tokens = Math.min(this.capacity, this.tokens + (now - this.lastRefill) * this.tokensPerNano);
+        this.lastRefill = now;
+    }
+
+    /**
+     * Try to take a token, without waiting
+     *
+     * @param reserve
+     *            the number of tokens which must stay in the bucket
+     * @return {@code true} if a token was taken, {@code false} otherwise
+     */
+    public synchronized boolean tryAcquire(final int reserve) {
+        return tryTake(reserve) == 0;
+    }
+
+    /**
+     * Take a token, waiting until one is available
+     *
+     * @param reserve
+     *            the number of tokens which must stay in the bucket
+     * @throws InterruptedException
+     *             if the caller was interrupted while waiting
+     */
+    public void acquire(final int reserve) throws InterruptedException {
+        while (true) {
+            final long waitNanos;
+            synchronized (this) {
+                waitNanos = tryTake(reserve);
+            }
+            if (waitNanos == 0) {
+                return;
+            }
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Take a token if available
+     *
+     * @return zero if a token was taken, otherwise the estimated time in nanoseconds
+     *         until a token becomes available
+     */
+    private long tryTake(final int reserve) {
+        refill();
+
+        final double required = Math.min(reserve, this.capacity - 1) + 1;
+        if (this.tokens >= required) {
+            this.tokens -= 1;
+            return 0;
+        }
+
+        return Math.max(1, (long) Math.ceil((required - this.tokens) / this.tokensPerNano));
+    }
+
+    /**
+     * Get the number of available tokens
+     *
+     * @return the number of tokens currently in the bucket
+     */
+    public synchronized double getTokens() {
+        refill();
+        return this.tokens;
+    }
+}
@@ -0,0 +1,252 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.utils;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A trie of MQTT topic filters
+ * <p>
+ * The trie stores one value per topic filter and finds all values whose filter
+ * matches a topic name. Filters may contain the wildcards {@code +} and {@code #},
+ * following the rules of MQTT 3.1.1. Matching a topic takes time proportional to
+ * the number of segments of the topic, and not to the number of filters.
+ * </p>
+ * <p>
+ * Lookups do not lock and may run concurrently to modifications. Modifications
+ * are serialized.
+ * </p>
+ *
+ * @param <T>
+ *            the type of the values
+ */
+public class TopicTrie<T> {
+
+    /**
+     * A visitor of matching values
+     *
+     * @param <T>
+     *            the type of the values
+     */
+    @FunctionalInterface
+    public interface Visitor<T> {
+
+        public void visit(T value) throws Exception;
+    }
+
+    private static final String SINGLE_LEVEL_WILDCARD = "+";
+    private static final String MULTI_LEVEL_WILDCARD = "#";
+
+    private static final class Node<T> {
+
+        private final ConcurrentMap<String, Node<T>> children = new ConcurrentHashMap<>();
+        private volatile T value;
+
+        private boolean isEmpty() {
+            return this.value == null && this.children.isEmpty();
+        }
+    }
+
+    private final Node<T> root = new Node<>();
+
+    private int size;
+
+    /**
+     * Add or replace the value of a filter
+     *
+     * @param filter
+     *            the topic filter, must not be {@code null}
+     * @param value
+     *            the value, must not be {@code null}
+     * @return the previous value of the filter, or {@code null} if there was none
+     */
+    public synchronized T put(final String filter, final T value) {
+        Objects.requireNonNull(filter);
+        Objects.requireNonNull(value);
+
+        Node<T> node = this.root;
+        int offset = 0;
+        while (offset <= filter.length()) {
+            final int end = segmentEnd(filter, offset);
+            node = node.children.computeIfAbsent(filter.substring(offset, end), k -> new Node<>());
+            offset = end + 1;
+        }
+
+        final T result = node.value;
+        node.value = value;
+        if (result == null) {
+            this.size++;
+        }
+        return result;
+    }
+
+    /**
+     * Remove the value of a filter
+     *
+     * @param filter
+     *            the topic filter, must not be {@code null}
+     * @return the removed value, or {@code null} if there was none
+     */
+    public synchronized T remove(final String filter) {
+        Objects.requireNonNull(filter);
+
+        final Deque<Node<T>> path = new ArrayDeque<>();
+        final Deque<String> segments = new ArrayDeque<>();
+
+        Node<T> node = this.root;
+        int offset = 0;
+        while (offset <= filter.length()) {
+            final int end = segmentEnd(filter, offset);
+            final String segment = filter.substring(offset, end);
+            final Node<T> child = node.children.get(segment);
+            if (child == null) {
+                return null;
+            }
+            path.push(node);
+            segments.push(segment);
+            node = child;
+            offset = end + 1;
+        }
+
+        final T result = node.value;
+        if (result == null) {
+            return null;
+        }
+
+        node.value = null;
+        this.size--;
+
+        // prune nodes which are no longer in use
+
+        while (node.isEmpty() && !path.isEmpty()) {
+            final Node<T> parent = path.pop();
+            parent.children.remove(segments.pop(), node);
+            node = parent;
+        }
+
+        return result;
+    }
+
+    /**
+     * Get the value of a filter
+     * <p>
+     * This looks up the filter itself, without evaluating wildcards.
+     * </p>
+     *
+     * @param filter
+     *            the topic filter, must not be {@code null}
+     * @return the value, or {@code null} if there is none
+     */
+    public T get(final String filter) {
+        Objects.requireNonNull(filter);
+
+        Node<T> node = this.root;
+        int offset = 0;
+        while (offset <= filter.length()) {
+            final int end = segmentEnd(filter, offset);
+            node = node.children.get(filter.substring(offset, end));
+            if (node == null) {
+                return null;
+            }
+            offset = end + 1;
+        }
+        return node.value;
+    }
+
+    /**
+     * Visit all values whose filter matches a topic
+     * <p>
+     * Each matching value is visited once. Topics starting with {@code $} are not
+     * matched by filters starting with a wildcard. If the visitor throws an
+     * exception, the remaining values will not be visited.
+     * </p>
+     *
+     * @param topic
+     *            the topic name, must not be {@code null}
+     * @param visitor
+     *            the visitor to call for each matching value
+     * @return the number of matching values
+     * @throws Exception
+     *             if the visitor throws an exception
+     */
+    public int match(final String topic, final Visitor<? super T> visitor) throws Exception {
+        Objects.requireNonNull(topic);
+        Objects.requireNonNull(visitor);
+
+        final boolean system = topic.startsWith("$");
+        return match(this.root, topic, 0, system, visitor);
+    }
+
+    private static <T> int match(final Node<T> node, final String topic, final int offset, final boolean noWildcards, final Visitor<? super T> visitor) throws Exception {
+        int result = 0;
+
+        if (!noWildcards) {
+            result += visit(node.children.get(MULTI_LEVEL_WILDCARD), visitor);
+        }
+
+        if (offset > topic.length()) {
+            return result + visit(node, visitor);
+        }
+
+        final int end = segmentEnd(topic, offset);
+
+        final Node<T> child = node.children.get(topic.substring(offset, end));
+        if (child != null) {
+            result += match(child, topic, end + 1, false, visitor);
+        }
+
+        if (!noWildcards) {
+            final Node<T> wildcard = node.children.get(SINGLE_LEVEL_WILDCARD);
+            if (wildcard != null) {
+                result += match(wildcard, topic, end + 1, false, visitor);
+            }
+        }
+
+        return result;
+    }
+
+    private static <T> int visit(final Node<T> node, final Visitor<? super T> visitor) throws Exception {
+        if (node == null) {
+            return 0;
+        }
+
+        final T value = node.value;
+        if (value == null) {
+            return 0;
+        }
+
+        visitor.visit(value);
+        return 1;
+    }
+
+    private static int segmentEnd(final String topic, final int offset) {
+        final int end = topic.indexOf('/', offset);
+        return end < 0 ? topic.length() : end;
+    }
+
+    /**
+     * Get the number of filters in the trie
+     *
+     * @return the number of filters
+     */
+    public synchronized int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+}
@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.utils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Create executors using virtual threads, when supported by the JVM
+ * <p>
+ * Virtual threads are looked up at runtime, so that the code can still be compiled
+ * for, and run on, older Java versions. If virtual threads are not available, a
+ * bounded pool of platform threads is used instead.
+ * </p>
+ */
+public final class VirtualThreads {
+
+    private static final Logger logger = LoggerFactory.getLogger(VirtualThreads.class);
+
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = lookup();
+
+    private VirtualThreads() {
+    }
+
+    private static Method lookup() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (final NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Check if virtual threads are supported
+     *
+     * @return {@code true} if the JVM supports virtual threads
+     */
+    public static boolean isSupported() {
+        return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+    }
+
+    /**
+     * Create a new executor, running each task on its own virtual thread
+     * <p>
+     * If virtual threads are not supported, the executor will use a pool of
+     * daemon threads. Idle threads of the pool will be terminated.
+     * </p>
+     *
+     * @param fallbackThreads
+     *            the maximum number of threads of the fallback pool
+     * @param name
+     *            the name prefix for threads of the fallback pool
+     * @return the new executor
+     */
+    public static ExecutorService newExecutor(final int fallbackThreads, final String name) {
+        if (fallbackThreads <= 0) {
+            throw new IllegalArgumentException("Number of fallback threads must be positive");
+        }
+
+        if (NEW_VIRTUAL_THREAD_EXECUTOR != null) {
+            try {
+                return (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null);
+            } catch (final Exception e) {
+                logger.info("Failed to create virtual thread executor, falling back to thread pool", e);
+            }
+        }
+
+        final AtomicInteger counter = new AtomicInteger();
+        final ThreadPoolExecutor result = new ThreadPoolExecutor(fallbackThreads, fallbackThreads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            final Thread thread = new Thread(r, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        result.allowCoreThreadTimeOut(true);
+        return result;
+    }
+}
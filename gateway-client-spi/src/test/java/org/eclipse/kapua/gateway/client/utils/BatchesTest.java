@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.utils;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.kapua.gateway.client.Payload;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BatchesTest {
+
+    @Test(expected = NullPointerException.class)
+    public void testNull() {
+        Batches.merge(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmpty() {
+        Batches.merge(Collections.emptyList());
+    }
+
+    @Test
+    public void testMerge() {
+        final Payload p1 = new Payload.Builder().timestamp(Instant.ofEpochMilli(1)).putDouble("temp", 1.5).put("unit", "C").build();
+        final Payload p2 = Payload.of(Instant.ofEpochMilli(2), "temp", 2.5);
+
+        final Payload result = Batches.merge(Arrays.asList(p1, p2)).build();
+
+        final Map<String, Object> expected = new HashMap<>();
+        expected.put("_timestamp.0", 1L);
+        expected.put("temp.0", 1.5);
+        expected.put("unit.0", "C");
+        expected.put("_timestamp.1", 2L);
+        expected.put("temp.1", 2.5);
+
+        Assert.assertEquals(Instant.ofEpochMilli(2), result.getTimestamp());
+        Assert.assertEquals(expected, result.getValues());
+    }
+}
@@ -0,0 +1,227 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.utils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.kapua.gateway.client.Payload;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CoalescerTest {
+
+    private ScheduledExecutorService executor;
+
+    private final List<String> keys = new ArrayList<>();
+    private final List<Collection<Payload>> batches = new ArrayList<>();
+
+    @Before
+    public void setup() {
+        this.executor = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        this.executor.shutdown();
+    }
+
+    private synchronized CompletionStage<?> flush(final String key, final Collection<Payload> payloads) {
+        this.keys.add(key);
+        this.batches.add(payloads);
+        notifyAll();
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private synchronized void waitForBatches(final int count) throws InterruptedException {
+        final long timeout = System.currentTimeMillis() + 5_000;
+        while (this.batches.size() < count && System.currentTimeMillis() < timeout) {
+            wait(100);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMaxMetrics() {
+        new Coalescer<String>(this.executor, Duration.ofMillis(1), 0, this::flush);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLinger() {
+        new Coalescer<String>(this.executor, Duration.ofMillis(-1), 1, this::flush);
+    }
+
+    @Test
+    public void testThreshold() throws Exception {
+        final Coalescer<String> coalescer = new Coalescer<>(this.executor, Duration.ofHours(1), 3, this::flush);
+
+        coalescer.add("foo", Payload.of("a", 1));
+        coalescer.add("bar", Payload.of("a", 1));
+        coalescer.add("foo", Payload.of("a", 2));
+
+        synchronized (this) {
+            Assert.assertTrue(this.batches.isEmpty());
+        }
+
+        coalescer.add("foo", Payload.of("a", 3));
+
+        synchronized (this) {
+            Assert.assertEquals(1, this.batches.size());
+            Assert.assertEquals("foo", this.keys.get(0));
+            Assert.assertEquals(3, this.batches.get(0).size());
+        }
+    }
+
+    @Test
+    public void testLinger() throws Exception {
+        final Coalescer<String> coalescer = new Coalescer<>(this.executor, Duration.ofMillis(50), 100, this::flush);
+
+        coalescer.add("foo", Payload.of("a", 1));
+        coalescer.add("foo", Payload.of("a", 2));
+
+        waitForBatches(1);
+
+        synchronized (this) {
+            Assert.assertEquals(1, this.batches.size());
+            Assert.assertEquals(2, this.batches.get(0).size());
+        }
+    }
+
+    @Test
+    public void testFlushAndClose() throws Exception {
+        final Coalescer<String> coalescer = new Coalescer<>(this.executor, Duration.ofHours(1), 100, this::flush);
+
+        coalescer.add("foo", Payload.of("a", 1));
+        coalescer.add("bar", Payload.of("a", 1));
+
+        coalescer.flush();
+
+        synchronized (this) {
+            Assert.assertEquals(2, this.batches.size());
+        }
+
+        // nothing pending
+        coalescer.flush();
+
+        coalescer.add("foo", Payload.of("a", 2));
+        coalescer.close();
+
+        synchronized (this) {
+            Assert.assertEquals(3, this.batches.size());
+        }
+
+        // the timers have been cancelled
+        this.executor.shutdown();
+        Assert.assertTrue(this.executor.awaitTermination(1, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testClosed() throws Exception {
+        final Coalescer<String> coalescer = new Coalescer<>(this.executor, Duration.ofMillis(1), 1, this::flush);
+        coalescer.close();
+        coalescer.add("foo", Payload.of("a", 1));
+    }
+
+    @Test
+    public void testFlushError() throws Exception {
+        final Coalescer<String> coalescer = new Coalescer<>(this.executor, Duration.ofHours(1), 100, (key, payloads) -> {
+            throw new Exception(key);
+        });
+
+        coalescer.add("foo", Payload.of("a", 1));
+        coalescer.add("bar", Payload.of("a", 1));
+
+        try {
+            coalescer.flush();
+            Assert.fail();
+        } catch (final Exception e) {
+            Assert.assertEquals(1, e.getSuppressed().length);
+        }
+    }
+
+    @Test
+    public void testCompletion() throws Exception {
+        final CompletableFuture<Void> ack = new CompletableFuture<>();
+        final Coalescer<String> coalescer = new Coalescer<>(this.executor, Duration.ofHours(1), 100, (key, payloads) -> ack);
+
+        final CompletableFuture<Void> s1 = coalescer.add("foo", Payload.of("a", 1)).toCompletableFuture();
+        final CompletableFuture<Void> s2 = coalescer.add("foo", Payload.of("a", 2)).toCompletableFuture();
+
+        Assert.assertSame(s1, s2);
+
+        coalescer.flush();
+        Assert.assertFalse(s1.isDone());
+
+        final CompletableFuture<Void> s3 = coalescer.add("foo", Payload.of("a", 3)).toCompletableFuture();
+        Assert.assertNotSame(s1, s3);
+
+        ack.complete(null);
+        Assert.assertTrue(s1.isDone());
+        Assert.assertFalse(s3.isDone());
+    }
+
+    @Test
+    public void testCompletionError() throws Exception {
+        final Coalescer<String> coalescer = new Coalescer<>(this.executor, Duration.ofHours(1), 1, (key, payloads) -> {
+            throw new Exception(key);
+        });
+
+        final List<CompletionStage<Void>> stages = new ArrayList<>();
+        try {
+            stages.add(coalescer.add("foo", Payload.of("a", 1)));
+            Assert.fail();
+        } catch (final Exception e) {
+            Assert.assertEquals("foo", e.getMessage());
+        }
+
+        Assert.assertTrue(stages.isEmpty());
+    }
+
+    @Test
+    public void testAddWhileFlushBlocks() throws Exception {
+        final CountDownLatch flushing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final Coalescer<String> coalescer = new Coalescer<>(this.executor, Duration.ofMillis(1), 100, (key, payloads) -> {
+            flushing.countDown();
+            release.await();
+            return CompletableFuture.completedFuture(null);
+        });
+
+        try {
+            coalescer.add("foo", Payload.of("a", 1));
+            Assert.assertTrue(flushing.await(5, TimeUnit.SECONDS));
+
+            // the linger flush is blocked, adding must not be
+
+            final CompletableFuture<Void> added = CompletableFuture.runAsync(() -> {
+                try {
+                    coalescer.add("foo", Payload.of("a", 2));
+                } catch (final Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            added.get(5, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.utils;
+
+import java.time.Duration;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ExponentialBackoffTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidInitialDelay() {
+        new ExponentialBackoff(Duration.ZERO, Duration.ofSeconds(1), 2, false);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMaxDelay() {
+        new ExponentialBackoff(Duration.ofSeconds(2), Duration.ofSeconds(1), 2, false);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMultiplier() {
+        new ExponentialBackoff(Duration.ofSeconds(1), Duration.ofSeconds(1), 0.5, false);
+    }
+
+    @Test
+    public void testWithoutJitter() {
+        final ReconnectPolicy policy = new ExponentialBackoff(Duration.ofSeconds(1), Duration.ofSeconds(10), 2, false);
+
+        Assert.assertEquals(Duration.ofSeconds(1), policy.nextDelay(1));
+        Assert.assertEquals(Duration.ofSeconds(2), policy.nextDelay(2));
+        Assert.assertEquals(Duration.ofSeconds(4), policy.nextDelay(3));
+        Assert.assertEquals(Duration.ofSeconds(8), policy.nextDelay(4));
+        Assert.assertEquals(Duration.ofSeconds(10), policy.nextDelay(5));
+        Assert.assertEquals(Duration.ofSeconds(10), policy.nextDelay(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testWithJitter() {
+        final ReconnectPolicy policy = new ExponentialBackoff(Duration.ofSeconds(1), Duration.ofSeconds(10), 2, true);
+
+        boolean differs = false;
+        for (int i = 0; i < 100; i++) {
+            final Duration delay = policy.nextDelay(3);
+            Assert.assertFalse(delay.isNegative());
+            Assert.assertTrue(delay.compareTo(Duration.ofSeconds(4)) <= 0);
+            differs |= !delay.equals(policy.nextDelay(3));
+        }
+
+        Assert.assertTrue(differs);
+    }
+
+    @Test
+    public void testFixed() {
+        final ReconnectPolicy policy = ReconnectPolicy.fixed(Duration.ofSeconds(5));
+
+        Assert.assertEquals(Duration.ofSeconds(5), policy.nextDelay(1));
+        Assert.assertEquals(Duration.ofSeconds(5), policy.nextDelay(100));
+    }
+}
@@ -0,0 +1,213 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.kapua.gateway.client.utils.InFlightWindow.Policy;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class InFlightWindowTest {
+
+    /**
+     * Operations which complete when asked to
+     */
+    private static class Operations {
+
+        private final List<String> started = new ArrayList<>();
+        private final List<CompletableFuture<Void>> pending = new ArrayList<>();
+
+        public synchronized Callable<CompletionStage<?>> operation(final String name) {
+            return () -> {
+                synchronized (Operations.this) {
+                    this.started.add(name);
+                    final CompletableFuture<Void> result = new CompletableFuture<>();
+                    this.pending.add(result);
+                    return result;
+                }
+            };
+        }
+
+        public CompletionStage<Void> execute(final InFlightWindow window, final String name) throws Exception {
+            return window.execute(operation(name), () -> operation(name));
+        }
+
+        public void complete(final int index) {
+            final CompletableFuture<Void> future;
+            synchronized (this) {
+                future = this.pending.get(index);
+            }
+            future.complete(null);
+        }
+
+        public synchronized List<String> started() {
+            return new ArrayList<>(this.started);
+        }
+    }
+
+    private static boolean isRejected(final CompletionStage<Void> stage) {
+        final CompletableFuture<Void> future = stage.toCompletableFuture();
+        if (!future.isCompletedExceptionally()) {
+            return false;
+        }
+        try {
+            future.join();
+        } catch (final Exception e) {
+            return e.getCause() instanceof RejectedExecutionException;
+        }
+        return false;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegative() {
+        new InFlightWindow(-1, Policy.BLOCK);
+    }
+
+    @Test
+    public void testUnbounded() throws Exception {
+        final InFlightWindow window = InFlightWindow.unbounded();
+        final Operations ops = new Operations();
+
+        for (int i = 0; i < 100; i++) {
+            ops.execute(window, "op" + i);
+        }
+
+        Assert.assertEquals(100, window.getInFlight());
+        ops.complete(0);
+        Assert.assertEquals(99, window.getInFlight());
+    }
+
+    @Test
+    public void testComplete() throws Exception {
+        final InFlightWindow window = new InFlightWindow(1, Policy.FAIL);
+        final Operations ops = new Operations();
+
+        final CompletionStage<Void> stage = ops.execute(window, "op1");
+        Assert.assertFalse(stage.toCompletableFuture().isDone());
+        Assert.assertEquals(1, window.getInFlight());
+
+        ops.complete(0);
+        Assert.assertTrue(stage.toCompletableFuture().isDone());
+        Assert.assertEquals(0, window.getInFlight());
+    }
+
+    @Test
+    public void testFail() throws Exception {
+        final InFlightWindow window = new InFlightWindow(1, Policy.FAIL);
+        final Operations ops = new Operations();
+
+        ops.execute(window, "op1");
+        try {
+            ops.execute(window, "op2");
+            Assert.fail("Must be rejected");
+        } catch (final RejectedExecutionException e) {
+        }
+
+        Assert.assertEquals(1, window.getRejected());
+        ops.complete(0);
+        ops.execute(window, "op3");
+
+        Assert.assertEquals(2, ops.started().size());
+    }
+
+    @Test
+    public void testFailedStart() throws Exception {
+        final InFlightWindow window = new InFlightWindow(1, Policy.FAIL);
+
+        try {
+            window.execute(() -> {
+                throw new IllegalStateException();
+            }, () -> null);
+            Assert.fail("Must fail");
+        } catch (final IllegalStateException e) {
+        }
+
+        Assert.assertEquals(0, window.getInFlight());
+    }
+
+    @Test
+    public void testDropNewest() throws Exception {
+        final InFlightWindow window = new InFlightWindow(1, Policy.DROP_NEWEST);
+        final Operations ops = new Operations();
+
+        ops.execute(window, "op1");
+        final CompletionStage<Void> op2 = ops.execute(window, "op2");
+        final CompletionStage<Void> op3 = ops.execute(window, "op3");
+
+        Assert.assertEquals(1, window.getQueued());
+        Assert.assertEquals(1, window.getDropped());
+        Assert.assertTrue(isRejected(op3));
+
+        ops.complete(0);
+        Assert.assertEquals(1, window.getInFlight());
+        Assert.assertEquals(0, window.getQueued());
+
+        ops.complete(1);
+        Assert.assertTrue(op2.toCompletableFuture().isDone());
+        Assert.assertEquals(0, window.getInFlight());
+
+        Assert.assertArrayEquals(new String[] { "op1", "op2" }, ops.started().toArray());
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        final InFlightWindow window = new InFlightWindow(1, Policy.DROP_OLDEST);
+        final Operations ops = new Operations();
+
+        ops.execute(window, "op1");
+        final CompletionStage<Void> op2 = ops.execute(window, "op2");
+        final CompletionStage<Void> op3 = ops.execute(window, "op3");
+
+        Assert.assertTrue(isRejected(op2));
+        Assert.assertFalse(op3.toCompletableFuture().isDone());
+        Assert.assertEquals(1, window.getDropped());
+
+        ops.complete(0);
+        ops.complete(1);
+        Assert.assertTrue(op3.toCompletableFuture().isDone());
+
+        Assert.assertArrayEquals(new String[] { "op1", "op3" }, ops.started().toArray());
+    }
+
+    @Test
+    public void testBlock() throws Exception {
+        final InFlightWindow window = new InFlightWindow(1, Policy.BLOCK);
+        final Operations ops = new Operations();
+
+        ops.execute(window, "op1");
+
+        final CountDownLatch done = new CountDownLatch(1);
+        final Thread thread = new Thread(() -> {
+            try {
+                ops.execute(window, "op2");
+                done.countDown();
+            } catch (final Exception e) {
+            }
+        });
+        thread.start();
+
+        Assert.assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+        ops.complete(0);
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        thread.join();
+        Assert.assertEquals(1, window.getInFlight());
+    }
+}
@@ -0,0 +1,212 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.kapua.gateway.client.OverflowPolicy;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class InboundQueueTest {
+
+    /**
+     * An executor which runs tasks only when asked to
+     */
+    private static final class ManualExecutor implements Executor {
+
+        private final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public synchronized void execute(final Runnable command) {
+            this.tasks.add(command);
+        }
+
+        void runAll() {
+            while (true) {
+                final Runnable task;
+                synchronized (this) {
+                    if (this.tasks.isEmpty()) {
+                        return;
+                    }
+                    task = this.tasks.remove(0);
+                }
+                task.run();
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCapacity() {
+        new InboundQueue<String, String>(Runnable::run, 0, OverflowPolicy.BLOCK, (k, v) -> {
+        });
+    }
+
+    @Test
+    public void testDirect() throws InterruptedException {
+        final List<String> result = new ArrayList<>();
+        final InboundQueue<String, String> queue = new InboundQueue<>(Runnable::run, 2, OverflowPolicy.BLOCK, (k, v) -> result.add(v));
+
+        Assert.assertTrue(queue.offer("a", "1"));
+        Assert.assertTrue(queue.offer("a", "2"));
+
+        Assert.assertEquals(Arrays.asList("1", "2"), result);
+        Assert.assertEquals(0, queue.getQueued());
+    }
+
+    @Test
+    public void testDropNewest() throws InterruptedException {
+        final ManualExecutor executor = new ManualExecutor();
+        final List<String> result = new ArrayList<>();
+        final InboundQueue<String, String> queue = new InboundQueue<>(executor, 2, OverflowPolicy.DROP_NEWEST, (k, v) -> result.add(v));
+
+        Assert.assertTrue(queue.offer("a", "1"));
+        Assert.assertTrue(queue.offer("a", "2"));
+        Assert.assertFalse(queue.offer("a", "3"));
+
+        Assert.assertEquals(2, queue.getQueued());
+        Assert.assertEquals(1, queue.getDropped());
+
+        executor.runAll();
+        Assert.assertEquals(Arrays.asList("1", "2"), result);
+    }
+
+    @Test
+    public void testDropOldest() throws InterruptedException {
+        final ManualExecutor executor = new ManualExecutor();
+        final List<String> result = new ArrayList<>();
+        final InboundQueue<String, String> queue = new InboundQueue<>(executor, 2, OverflowPolicy.DROP_OLDEST, (k, v) -> result.add(v));
+
+        queue.offer("a", "1");
+        queue.offer("a", "2");
+        queue.offer("a", "3");
+
+        Assert.assertEquals(1, queue.getDropped());
+
+        executor.runAll();
+        Assert.assertEquals(Arrays.asList("2", "3"), result);
+    }
+
+    @Test
+    public void testDropHandler() throws InterruptedException {
+        final ManualExecutor executor = new ManualExecutor();
+        final List<String> dropped = new ArrayList<>();
+
+        final InboundQueue<String, String> newest = new InboundQueue<>(executor, 1, OverflowPolicy.DROP_NEWEST, (k, v) -> {
+        }, dropped::add);
+        newest.offer("a", "1");
+        newest.offer("a", "2");
+
+        final InboundQueue<String, String> oldest = new InboundQueue<>(executor, 1, OverflowPolicy.DROP_OLDEST, (k, v) -> {
+        }, dropped::add);
+        oldest.offer("a", "3");
+        oldest.offer("a", "4");
+
+        final InboundQueue<String, String> conflate = new InboundQueue<>(executor, 1, OverflowPolicy.CONFLATE, (k, v) -> {
+        }, dropped::add);
+        conflate.offer("a", "5");
+        conflate.offer("a", "6");
+        conflate.offer("b", "7");
+
+        Assert.assertEquals(Arrays.asList("2", "3", "5", "6"), dropped);
+    }
+
+    @Test
+    public void testConflate() throws InterruptedException {
+        final ManualExecutor executor = new ManualExecutor();
+        final List<String> result = new ArrayList<>();
+        final InboundQueue<String, String> queue = new InboundQueue<>(executor, 2, OverflowPolicy.CONFLATE, (k, v) -> result.add(k + "=" + v));
+
+        queue.offer("a", "1");
+        queue.offer("b", "1");
+        queue.offer("a", "2");
+
+        Assert.assertEquals(2, queue.getQueued());
+        Assert.assertEquals(1, queue.getDropped());
+
+        // full, with a new key: drop the oldest
+        queue.offer("c", "1");
+
+        executor.runAll();
+        Assert.assertEquals(Arrays.asList("b=1", "c=1"), result);
+        Assert.assertEquals(2, queue.getDropped());
+
+        // conflation only applies to queued messages
+        queue.offer("a", "3");
+        executor.runAll();
+        Assert.assertEquals(Arrays.asList("b=1", "c=1", "a=3"), result);
+    }
+
+    @Test
+    public void testBlock() throws InterruptedException {
+        final ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            final CountDownLatch release = new CountDownLatch(1);
+            final CountDownLatch done = new CountDownLatch(100);
+            final List<Integer> result = new ArrayList<>();
+
+            final InboundQueue<String, Integer> queue = new InboundQueue<>(pool, 4, OverflowPolicy.BLOCK, (k, v) -> {
+                release.await();
+                result.add(v);
+                done.countDown();
+            });
+
+            final Thread producer = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 100; i++) {
+                        queue.offer("a", i);
+                    }
+                } catch (final InterruptedException e) {
+                }
+            });
+            producer.start();
+
+            Thread.sleep(100);
+            Assert.assertTrue(producer.isAlive());
+            Assert.assertTrue(queue.getQueued() <= 4);
+
+            release.countDown();
+            Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+            producer.join();
+
+            Assert.assertEquals(0, queue.getDropped());
+            for (int i = 0; i < 100; i++) {
+                Assert.assertEquals(i, result.get(i).intValue());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testFailingHandler() throws InterruptedException {
+        final List<String> result = new ArrayList<>();
+        final InboundQueue<String, String> queue = new InboundQueue<>(Runnable::run, 2, OverflowPolicy.BLOCK, (k, v) -> {
+            if ("1".equals(v)) {
+                throw new IllegalStateException();
+            }
+            result.add(v);
+        });
+
+        queue.offer("a", "1");
+        queue.offer("a", "2");
+
+        Assert.assertEquals(Arrays.asList("2"), result);
+    }
+}
@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RecyclerTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCapacity() {
+        new Recycler<>(0, Object::new, o -> {
+        });
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullFactory() {
+        new Recycler<>(1, null, o -> {
+        });
+    }
+
+    @Test
+    public void testReuse() {
+        final AtomicInteger created = new AtomicInteger();
+        final List<StringBuilder> reset = new ArrayList<>();
+
+        final Recycler<StringBuilder> recycler = new Recycler<>(2, () -> {
+            created.incrementAndGet();
+            return new StringBuilder();
+        }, sb -> {
+            reset.add(sb);
+            sb.setLength(0);
+        });
+
+        final StringBuilder sb1 = recycler.acquire();
+        sb1.append("foo");
+        recycler.release(sb1);
+
+        Assert.assertEquals(1, reset.size());
+        Assert.assertEquals(0, sb1.length());
+
+        final StringBuilder sb2 = recycler.acquire();
+        Assert.assertSame(sb1, sb2);
+        Assert.assertEquals(1, created.get());
+
+        final StringBuilder sb3 = recycler.acquire();
+        Assert.assertNotSame(sb2, sb3);
+        Assert.assertEquals(2, created.get());
+    }
+
+    @Test
+    public void testBounded() {
+        final Recycler<Object> recycler = new Recycler<>(2, Object::new, o -> {
+        });
+
+        final Object o1 = new Object();
+        final Object o2 = new Object();
+        final Object o3 = new Object();
+
+        recycler.release(o1);
+        recycler.release(o2);
+        recycler.release(o3);
+        recycler.release(null);
+
+        final List<Object> result = new ArrayList<>();
+        result.add(recycler.acquire());
+        result.add(recycler.acquire());
+
+        Assert.assertTrue(result.contains(o1));
+        Assert.assertTrue(result.contains(o2));
+
+        final Object o4 = recycler.acquire();
+        Assert.assertNotSame(o3, o4);
+    }
+}
@@ -0,0 +1,217 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.utils;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import org.eclipse.kapua.gateway.client.utils.SegmentedLog.Record;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SegmentedLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static ByteBuffer data(final String value) {
+        return ByteBuffer.wrap(value.getBytes(UTF_8));
+    }
+
+    private static String string(final Record record) {
+        return new String(Buffers.toByteArray(record.getData()), UTF_8);
+    }
+
+    private static long countSegments(final Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        try (SegmentedLog log = new SegmentedLog(this.folder.getRoot().toPath(), 1024)) {
+            Assert.assertTrue(log.isEmpty());
+            Assert.assertFalse(log.hasNext());
+            Assert.assertNull(log.next());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyRecord() throws IOException {
+        try (SegmentedLog log = new SegmentedLog(this.folder.getRoot().toPath(), 1024)) {
+            log.append(ByteBuffer.allocate(0));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRecordTooLarge() throws IOException {
+        try (SegmentedLog log = new SegmentedLog(this.folder.getRoot().toPath(), 64)) {
+            log.append(ByteBuffer.allocate(64));
+        }
+    }
+
+    @Test
+    public void testAppendAndRead() throws IOException {
+        try (SegmentedLog log = new SegmentedLog(this.folder.getRoot().toPath(), 1024)) {
+            log.append(data("foo"));
+            log.append(data("bar"));
+
+            Assert.assertEquals(2, log.size());
+
+            final Record r1 = log.next();
+            final Record r2 = log.next();
+            Assert.assertNull(log.next());
+
+            Assert.assertEquals("foo", string(r1));
+            Assert.assertEquals("bar", string(r2));
+
+            log.commit(r1);
+            log.commit(r1);
+            Assert.assertEquals(1, log.size());
+
+            log.commit(r2);
+            Assert.assertTrue(log.isEmpty());
+        }
+    }
+
+    @Test
+    public void testRewind() throws IOException {
+        try (SegmentedLog log = new SegmentedLog(this.folder.getRoot().toPath(), 1024)) {
+            log.append(data("foo"));
+            log.append(data("bar"));
+
+            log.commit(log.next());
+            log.next();
+            Assert.assertFalse(log.hasNext());
+
+            log.rewind();
+
+            Assert.assertEquals("bar", string(log.next()));
+            Assert.assertNull(log.next());
+        }
+    }
+
+    @Test
+    public void testRollAndDelete() throws IOException {
+        final Path directory = this.folder.getRoot().toPath();
+
+        try (SegmentedLog log = new SegmentedLog(directory, 64)) {
+            for (int i = 0; i < 10; i++) {
+                log.append(data("record-" + i));
+            }
+
+            // three records per segment
+            Assert.assertEquals(4, countSegments(directory));
+
+            for (int i = 0; i < 10; i++) {
+                final Record record = log.next();
+                Assert.assertEquals("record-" + i, string(record));
+                log.commit(record);
+            }
+
+            Assert.assertNull(log.next());
+            Assert.assertTrue(log.isEmpty());
+
+            // the current segment is kept
+            Assert.assertEquals(1, countSegments(directory));
+
+            log.append(data("foo"));
+            Assert.assertEquals("foo", string(log.next()));
+        }
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+        final Path directory = this.folder.getRoot().toPath();
+
+        try (SegmentedLog log = new SegmentedLog(directory, 64)) {
+            for (int i = 0; i < 10; i++) {
+                log.append(data("record-" + i));
+            }
+            for (int i = 0; i < 3; i++) {
+                log.commit(log.next());
+            }
+            // read, but not committed
+            log.next();
+        }
+
+        try (SegmentedLog log = new SegmentedLog(directory, 64)) {
+            Assert.assertEquals(7, log.size());
+
+            for (int i = 3; i < 10; i++) {
+                Assert.assertEquals("record-" + i, string(log.next()));
+            }
+            Assert.assertNull(log.next());
+
+            log.append(data("foo"));
+            Assert.assertEquals("foo", string(log.next()));
+        }
+    }
+
+    @Test
+    public void testCorruptedRecord() throws IOException {
+        final Path directory = this.folder.getRoot().toPath();
+
+        try (SegmentedLog log = new SegmentedLog(directory, 1024)) {
+            log.append(data("foo"));
+            log.append(data("bar"));
+        }
+
+        // corrupt the data of the second record
+        final Path segment = directory.resolve(String.format("%020d.log", 0));
+        final byte[] bytes = Files.readAllBytes(segment);
+        bytes[9 + 3 + 9] ^= 0xFF;
+        Files.write(segment, bytes);
+
+        try (SegmentedLog log = new SegmentedLog(directory, 1024)) {
+            Assert.assertEquals(1, log.size());
+            Assert.assertEquals("foo", string(log.next()));
+            Assert.assertNull(log.next());
+
+            // overwrites the corrupted record
+            log.append(data("baz"));
+            Assert.assertEquals("baz", string(log.next()));
+        }
+    }
+
+    @Test
+    public void testStoredBytes() throws IOException {
+        try (SegmentedLog log = new SegmentedLog(this.folder.getRoot().toPath(), 48)) {
+            Assert.assertEquals(0, log.storedBytes());
+
+            final Record r1 = log.append(data("0123456789"));
+            final long size = log.storedBytes();
+            Assert.assertTrue(size > 10);
+
+            log.append(data("0123456789"));
+            Assert.assertEquals(2 * size, log.storedBytes());
+
+            // rolls over to a new segment
+            log.append(data("0123456789"));
+            log.append(data("0123456789"));
+            Assert.assertEquals(4 * size, log.storedBytes());
+
+            // deletes the first segment
+            log.commit(r1);
+            log.commit(log.next());
+            Assert.assertEquals(2 * size, log.storedBytes());
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SerialExecutorTest {
+
+    @Test
+    public void testOrder() throws InterruptedException {
+        final ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            final SerialExecutor executor = new SerialExecutor(pool);
+            final List<Integer> result = Collections.synchronizedList(new ArrayList<>());
+            final AtomicInteger running = new AtomicInteger();
+            final CountDownLatch done = new CountDownLatch(1000);
+
+            for (int i = 0; i < 1000; i++) {
+                final int value = i;
+                executor.execute(() -> {
+                    Assert.assertEquals(1, running.incrementAndGet());
+                    result.add(value);
+                    running.decrementAndGet();
+                    done.countDown();
+                });
+            }
+
+            Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+
+            for (int i = 0; i < 1000; i++) {
+                Assert.assertEquals(i, result.get(i).intValue());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testFailingTask() throws InterruptedException {
+        final SerialExecutor executor = new SerialExecutor(Runnable::run);
+        final CountDownLatch done = new CountDownLatch(1);
+
+        executor.execute(() -> {
+            throw new IllegalStateException();
+        });
+        executor.execute(done::countDown);
+
+        Assert.assertTrue(done.await(1, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StripedExecutorTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidStripes() {
+        new StripedExecutor(Runnable::run, 0);
+    }
+
+    @Test
+    public void testSameKeySameStripe() {
+        final StripedExecutor executor = new StripedExecutor(Runnable::run, 8);
+
+        Assert.assertEquals(8, executor.getStripes());
+        Assert.assertSame(executor.stripe("foo/bar"), executor.stripe(new String("foo/bar")));
+    }
+
+    @Test
+    public void testOrderPerKey() throws InterruptedException {
+        final ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            final StripedExecutor executor = new StripedExecutor(pool, 16);
+            final Map<String, List<Integer>> result = new ConcurrentHashMap<>();
+            final CountDownLatch done = new CountDownLatch(10 * 1000);
+
+            for (int i = 0; i < 1000; i++) {
+                for (int k = 0; k < 10; k++) {
+                    final String key = "key-" + k;
+                    final int value = i;
+                    executor.execute(key, () -> {
+                        result.computeIfAbsent(key, x -> Collections.synchronizedList(new ArrayList<>())).add(value);
+                        done.countDown();
+                    });
+                }
+            }
+
+            Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+
+            Assert.assertEquals(10, result.size());
+            for (final List<Integer> values : result.values()) {
+                for (int i = 0; i < 1000; i++) {
+                    Assert.assertEquals(i, values.get(i).intValue());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TokenBucketTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRate() {
+        new TokenBucket(0, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCapacity() {
+        new TokenBucket(1, 0);
+    }
+
+    @Test
+    public void testBurst() {
+        final TokenBucket bucket = new TokenBucket(0.001, 3);
+
+        Assert.assertTrue(bucket.tryAcquire(0));
+        Assert.assertTrue(bucket.tryAcquire(0));
+        Assert.assertTrue(bucket.tryAcquire(0));
+        Assert.assertFalse(bucket.tryAcquire(0));
+    }
+
+    @Test
+    public void testReserve() {
+        final TokenBucket bucket = new TokenBucket(0.001, 4);
+
+        Assert.assertTrue(bucket.tryAcquire(2));
+        Assert.assertTrue(bucket.tryAcquire(2));
+
+        // two tokens left, both are reserved
+        Assert.assertFalse(bucket.tryAcquire(2));
+        Assert.assertTrue(bucket.tryAcquire(1));
+        Assert.assertFalse(bucket.tryAcquire(1));
+        Assert.assertTrue(bucket.tryAcquire(0));
+    }
+
+    @Test
+    public void testReserveExceedingCapacity() {
+        final TokenBucket bucket = new TokenBucket(0.001, 2);
+
+        Assert.assertTrue(bucket.tryAcquire(10));
+    }
+
+    @Test
+    public void testRefill() throws InterruptedException {
+        final TokenBucket bucket = new TokenBucket(1000, 1);
+
+        Assert.assertTrue(bucket.tryAcquire(0));
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < 50; i++) {
+            bucket.acquire(0);
+        }
+        final long durationMillis = (System.nanoTime() - start) / 1_000_000;
+
+        Assert.assertTrue("Took: " + durationMillis, durationMillis >= 40);
+    }
+}
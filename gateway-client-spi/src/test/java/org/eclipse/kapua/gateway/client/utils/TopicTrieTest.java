@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TopicTrieTest {
+
+    private static List<String> match(final TopicTrie<String> trie, final String topic) throws Exception {
+        final List<String> result = new ArrayList<>();
+        final int count = trie.match(topic, result::add);
+        Assert.assertEquals(result.size(), count);
+        Collections.sort(result);
+        return result;
+    }
+
+    private static TopicTrie<String> create(final String... filters) {
+        final TopicTrie<String> trie = new TopicTrie<>();
+        for (final String filter : filters) {
+            trie.put(filter, filter);
+        }
+        return trie;
+    }
+
+    @Test
+    public void testExact() throws Exception {
+        final TopicTrie<String> trie = create("a/b", "a/c", "a");
+
+        Assert.assertEquals(Arrays.asList("a/b"), match(trie, "a/b"));
+        Assert.assertEquals(Arrays.asList("a"), match(trie, "a"));
+        Assert.assertEquals(Collections.emptyList(), match(trie, "a/b/c"));
+        Assert.assertEquals(Collections.emptyList(), match(trie, "b"));
+    }
+
+    @Test
+    public void testSingleLevel() throws Exception {
+        final TopicTrie<String> trie = create("a/+/c", "+/b/+");
+
+        Assert.assertEquals(Arrays.asList("+/b/+", "a/+/c"), match(trie, "a/b/c"));
+        Assert.assertEquals(Arrays.asList("a/+/c"), match(trie, "a/x/c"));
+        Assert.assertEquals(Collections.emptyList(), match(trie, "a/b"));
+        Assert.assertEquals(Collections.emptyList(), match(trie, "a/x/c/d"));
+    }
+
+    @Test
+    public void testMultiLevel() throws Exception {
+        final TopicTrie<String> trie = create("#", "a/#", "a/b/#");
+
+        Assert.assertEquals(Arrays.asList("#", "a/#"), match(trie, "a"));
+        Assert.assertEquals(Arrays.asList("#", "a/#", "a/b/#"), match(trie, "a/b"));
+        Assert.assertEquals(Arrays.asList("#", "a/#", "a/b/#"), match(trie, "a/b/c/d"));
+        Assert.assertEquals(Arrays.asList("#"), match(trie, "b/c"));
+    }
+
+    @Test
+    public void testEmptySegments() throws Exception {
+        final TopicTrie<String> trie = create("a/+/c", "/a");
+
+        Assert.assertEquals(Arrays.asList("a/+/c"), match(trie, "a//c"));
+        Assert.assertEquals(Arrays.asList("/a"), match(trie, "/a"));
+        Assert.assertEquals(Collections.emptyList(), match(trie, "a"));
+    }
+
+    @Test
+    public void testSystemTopics() throws Exception {
+        final TopicTrie<String> trie = create("#", "+/info", "$SYS/#");
+
+        Assert.assertEquals(Arrays.asList("$SYS/#"), match(trie, "$SYS/info"));
+        Assert.assertEquals(Arrays.asList("#", "+/info"), match(trie, "foo/info"));
+    }
+
+    @Test
+    public void testReplace() {
+        final TopicTrie<String> trie = new TopicTrie<>();
+
+        Assert.assertNull(trie.put("a/+", "1"));
+        Assert.assertEquals("1", trie.put("a/+", "2"));
+        Assert.assertEquals("2", trie.get("a/+"));
+        Assert.assertNull(trie.get("a/b"));
+        Assert.assertEquals(1, trie.size());
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        final TopicTrie<String> trie = create("a/b/c", "a/b", "a/#");
+
+        Assert.assertNull(trie.remove("a/x"));
+        Assert.assertNull(trie.remove("a/b/c/d"));
+
+        Assert.assertEquals("a/b/c", trie.remove("a/b/c"));
+        Assert.assertEquals(Arrays.asList("a/#"), match(trie, "a/b/c"));
+        Assert.assertEquals(Arrays.asList("a/#", "a/b"), match(trie, "a/b"));
+
+        Assert.assertEquals("a/b", trie.remove("a/b"));
+        Assert.assertEquals("a/#", trie.remove("a/#"));
+
+        Assert.assertTrue(trie.isEmpty());
+        Assert.assertEquals(Collections.emptyList(), match(trie, "a/b"));
+
+        trie.put("a/b", "a/b");
+        Assert.assertEquals(Arrays.asList("a/b"), match(trie, "a/b"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testVisitorException() throws Exception {
+        create("a").match("a", value -> {
+            throw new IllegalStateException();
+        });
+    }
+}
@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat Inc - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.kapua.gateway.client.utils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class VirtualThreadsTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidThreads() {
+        VirtualThreads.newExecutor(0, "test");
+    }
+
+    @Test
+    public void testBlockingTasks() throws InterruptedException {
+        final ExecutorService executor = VirtualThreads.newExecutor(2, "test");
+        try {
+            final CountDownLatch blocked = new CountDownLatch(1);
+            final CountDownLatch done = new CountDownLatch(1);
+
+            // one task blocks, another one must still run
+
+            executor.execute(() -> {
+                try {
+                    blocked.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            executor.execute(done::countDown);
+
+            Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+            blocked.countDown();
+        } finally {
+            executor.shutdown();
+        }
+    }
+}